@@ -36,16 +36,13 @@ import org.dasein.cloud.azure.network.AzureNetworkServices;
 import org.dasein.cloud.azure.platform.AzurePlatformServices;
 import org.dasein.cloud.azure.storage.AzureStorageServices;
 import org.dasein.cloud.azure.storage.model.CreateStorageServiceInputModel;
-import org.w3c.dom.Document;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.bind.JAXBException;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
+import java.io.IOException;
+import java.io.InputStream;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Properties;
@@ -149,68 +146,37 @@ public class Azure extends AbstractCloud {
     	return new AzureNetworkServices(this);
     }
 
-    private transient String storageEndpoint;
+    /**
+     * @return the storage service Dasein uses in the current region or <code>null</code> if there is none
+     * @throws CloudException the storage services could not be listed
+     * @throws InternalException no context was set for this provider
+     */
+    public @Nullable AzureStorageAccount getStorageAccount() throws CloudException, InternalException {
+        return AzureStorageAccount.getInstance(this);
+    }
 
     public @Nullable String getStorageEndpoint() throws CloudException, InternalException {
-        if( storageEndpoint == null ) {
-            ProviderContext ctx = getContext();
-
-            if( ctx == null ) {
-                throw new AzureConfigException("No configuration was set for this request");
-            }
-            AzureMethod method = new AzureMethod(this);
-
-            Document xml = method.getAsXML(ctx.getAccountNumber(), "/services/storageservices");
-
-            if( xml == null ) {
-                throw new CloudException("Unable to identify the blob endpoint");
-            }
-            XPathFactory xPathfactory = XPathFactory.newInstance();
-            XPath xpath = xPathfactory.newXPath();
+        AzureStorageAccount account = getStorageAccount();
 
-            try {
-                XPathExpression expr = xpath.compile("(/StorageServices/StorageService/StorageServiceProperties[GeoPrimaryRegion='"+ctx.getRegionId()+"']/Endpoints/Endpoint[contains(.,'.blob.')])[1]");
-                storageEndpoint = expr.evaluate(xml).trim();
-            } catch (XPathExpressionException e) {
-                throw new CloudException("Invalid blob endpoint search expression");
-            }
-
-            if( storageEndpoint == null || storageEndpoint.isEmpty())
-                storageEndpoint = null;
-        }
-        return storageEndpoint;
+        return (account == null ? null : account.getEndpoint());
     }
 
-    private transient String storageService;
-
     public @Nullable String getStorageService() throws CloudException, InternalException {
-        if( storageService == null ) {
-            ProviderContext ctx = getContext();
-
-            if( ctx == null ) {
-                throw new AzureConfigException("No configuration was set for this request");
-            }
-            AzureMethod method = new AzureMethod(this);
-
-            Document xml = method.getAsXML(ctx.getAccountNumber(), "/services/storageservices");
+        AzureStorageAccount account = getStorageAccount();
 
-            if( xml == null ) {
-                throw new CloudException("Unable to identify the storage service");
-            }
-            XPathFactory xPathfactory = XPathFactory.newInstance();
-            XPath xpath = xPathfactory.newXPath();
+        return (account == null ? null : account.getServiceName());
+    }
 
-            try {
-                XPathExpression expr = xpath.compile("(/StorageServices/StorageService/StorageServiceProperties[GeoPrimaryRegion='"+ctx.getRegionId()+"']/../ServiceName)[1]");
-                storageService = expr.evaluate(xml).trim();
-            } catch (XPathExpressionException e) {
-                throw new CloudException("Failed to find storage service in the current region: " + ctx.getRegionId());
-            }
+    private transient AzureOperationTracker operationTracker;
 
-            if( storageService == null || storageService.isEmpty())
-                storageService = null;
+    /**
+     * @return the tracker that follows asynchronous operations started through this provider
+     */
+    public synchronized @Nonnull AzureOperationTracker getOperationTracker() {
+        if( operationTracker == null ) {
+            operationTracker = new AzureOperationTracker(this);
         }
-        return storageService;
+        return operationTracker;
     }
 
     public void createDefaultStorageService() throws CloudException, InternalException {
@@ -241,16 +207,10 @@ public class Azure extends AbstractCloud {
         }
 
         if (requestId != null) {
-            int httpCode = azureMethod.getOperationStatus(requestId);
-            while (httpCode == -1) {
-                try {
-                    Thread.sleep(15000L);
-                } catch (InterruptedException ignored) {
-                }
-                httpCode = azureMethod.getOperationStatus(requestId);
-            }
+            int httpCode = getOperationTracker().waitFor(requestId);
+
             if (httpCode == HttpServletResponse.SC_OK) {
-                storageEndpoint = "https://" + serviceName + ".blob.core.windows.net/";
+                AzureStorageAccount.register(this, serviceName, "https://" + serviceName + ".blob.core.windows.net/");
             }
         }
     }
@@ -292,6 +252,60 @@ public class Azure extends AbstractCloud {
         return value;
     }
 
+    /**
+     * Looks up a tuning value first in the custom properties of the current context and then in the
+     * system property <code>azure.<i>name</i></code>.
+     * @param name the name of the custom property
+     * @return the configured value or <code>null</code> if none was set
+     */
+    public @Nullable String getCustomProperty(@Nonnull String name) {
+        ProviderContext ctx = getContext();
+        String value = null;
+
+        if( ctx != null ) {
+            Properties p = ctx.getCustomProperties();
+
+            if( p != null ) {
+                value = p.getProperty(name);
+            }
+        }
+        if( value == null || value.trim().length() < 1 ) {
+            value = System.getProperty("azure." + name);
+        }
+        if( value == null || value.trim().length() < 1 ) {
+            return null;
+        }
+        return value.trim();
+    }
+
+    public int getIntProperty(@Nonnull String name, int defaultValue) {
+        String value = getCustomProperty(name);
+
+        if( value != null ) {
+            try {
+                return Integer.parseInt(value);
+            }
+            catch( NumberFormatException e ) {
+                logger.warn("Ignoring invalid value for " + name + ": " + value);
+            }
+        }
+        return defaultValue;
+    }
+
+    public long getLongProperty(@Nonnull String name, long defaultValue) {
+        String value = getCustomProperty(name);
+
+        if( value != null ) {
+            try {
+                return Long.parseLong(value);
+            }
+            catch( NumberFormatException e ) {
+                logger.warn("Ignoring invalid value for " + name + ": " + value);
+            }
+        }
+        return defaultValue;
+    }
+
     public long parseTimestamp(@Nullable String time) throws CloudException {
         if( time == null ) {
             return 0L;
@@ -336,10 +350,14 @@ public class Azure extends AbstractCloud {
                 logger.debug("X509 key: "+new String(ctx.getX509Key(), "utf-8"));
                 logger.debug("--------------Context-------------");
                 */
-                if( method.getAsStream(ctx.getAccountNumber(), "/locations") == null ) {
+                InputStream input = method.getAsStream(ctx.getAccountNumber(), "/locations");
+
+                if( input == null ) {
                     logger.warn("Account number was invalid for context test: " + ctx.getAccountNumber());
                     return null;
                 }
+                try { input.close(); }
+                catch( IOException ignore ) { }
                 if( logger.isDebugEnabled() ) {
                     logger.debug("Valid account: " + ctx.getAccountNumber());
                 }
@@ -362,7 +380,7 @@ public class Azure extends AbstractCloud {
         try {
             HttpClientBuilder builder = HttpClientBuilder.create();
             Registry<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
-                    .register("https", new AzureSSLSocketFactory(new AzureX509(this)))
+                    .register("https", AzureX509.getInstance(this).getSocketFactory())
                     .build();
             HttpClientConnectionManager ccm = new BasicHttpClientConnectionManager(registry);
             builder.setConnectionManager(ccm);
@@ -0,0 +1,180 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Briefly remembers the properties of containers and blobs, keyed by storage account and resource, so that
+ * existence and size checks made just before a transfer do not each cost a round trip. Entries are filled by every
+ * property request, which also records that a resource does not exist, and by every blob listing. They are dropped
+ * by any write or delete this library makes to the resource; a write to a container drops its blobs as well.
+ * Changes made by anyone else go unnoticed for at most the time to live.
+ * <p>
+ * The time to live and the number of entries kept are read from the custom properties named by
+ * {@link #CACHE_SECONDS} (30, 0 to disable the cache) and {@link #CACHE_SIZE} (10000), least recently used
+ * entries being evicted first.
+ * </p>
+ * @since 2015.06.2
+ * @version 2015.06.2
+ */
+public class AzureBlobPropertyCache {
+    static public final String CACHE_SECONDS = "blobPropertyCacheSeconds";
+    static public final String CACHE_SIZE    = "blobPropertyCacheSize";
+
+    static public final int DEFAULT_CACHE_SECONDS = 30;
+    static public final int DEFAULT_CACHE_SIZE    = 10000;
+
+    static private final AzureBlobPropertyCache shared = new AzureBlobPropertyCache();
+
+    /**
+     * @return the cache shared by every provider instance
+     */
+    static public @Nonnull AzureBlobPropertyCache getInstance() {
+        return shared;
+    }
+
+    /**
+     * What is known about a resource.
+     */
+    static public class Entry {
+        private Map<String,String> properties;
+        private long               expires;
+
+        Entry(@Nullable Map<String,String> properties, long expires) {
+            this.properties = properties;
+            this.expires = expires;
+        }
+
+        /**
+         * @return true if the resource exists
+         */
+        public boolean exists() {
+            return (properties != null);
+        }
+
+        /**
+         * @return the properties of the resource keyed case-insensitively by name, which may not be changed, or
+         * <code>null</code> if it does not exist
+         */
+        public @Nullable Map<String,String> getProperties() {
+            return properties;
+        }
+    }
+
+    private int maxSize = DEFAULT_CACHE_SIZE;
+
+    private final LinkedHashMap<String,Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String,AzureBlobPropertyCache.Entry> eldest) {
+            return (size() > maxSize);
+        }
+    };
+
+    /**
+     * @param account the storage account
+     * @param resource the container, or the container and blob name separated by a slash
+     * @return what is known about the resource or <code>null</code> if nothing current is
+     */
+    public synchronized @Nullable Entry get(@Nonnull String account, @Nonnull String resource) {
+        String key = getKey(account, resource);
+        Entry entry = entries.get(key);
+
+        if( entry != null && entry.expires <= System.currentTimeMillis() ) {
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Remembers the properties of a resource with the settings of the provider.
+     * @param provider the provider whose context supplies the settings
+     * @param account the storage account
+     * @param resource the container, or the container and blob name separated by a slash
+     * @param properties the properties of the resource or <code>null</code> if it does not exist
+     */
+    public void put(@Nonnull Azure provider, @Nonnull String account, @Nonnull String resource, @Nullable Map<String,String> properties) {
+        put(account, resource, properties, provider.getIntProperty(CACHE_SECONDS, DEFAULT_CACHE_SECONDS) * 1000L, provider.getIntProperty(CACHE_SIZE, DEFAULT_CACHE_SIZE));
+    }
+
+    /**
+     * Remembers the properties of a resource.
+     * @param account the storage account
+     * @param resource the container, or the container and blob name separated by a slash
+     * @param properties the properties of the resource or <code>null</code> if it does not exist
+     * @param timeToLive the number of milliseconds to remember them for, nothing being remembered if less than 1
+     * @param maxSize the number of entries to keep at most
+     */
+    public synchronized void put(@Nonnull String account, @Nonnull String resource, @Nullable Map<String,String> properties, long timeToLive, int maxSize) {
+        if( timeToLive < 1L || maxSize < 1 ) {
+            return;
+        }
+        Map<String,String> copy = null;
+
+        if( properties != null ) {
+            TreeMap<String,String> values = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+
+            values.putAll(properties);
+            copy = Collections.unmodifiableMap(values);
+        }
+        this.maxSize = maxSize;
+        entries.put(getKey(account, resource), new Entry(copy, System.currentTimeMillis() + timeToLive));
+    }
+
+    /**
+     * Forgets a resource after a change to it. Forgetting a container also forgets every blob in it.
+     * @param account the storage account
+     * @param resource the container, or the container and blob name separated by a slash
+     */
+    public synchronized void invalidate(@Nonnull String account, @Nonnull String resource) {
+        String key = getKey(account, resource);
+
+        entries.remove(key);
+        if( key.indexOf('/', account.length() + 1) == -1 && !entries.isEmpty() ) {
+            String prefix = key + "/";
+
+            for( Iterator<String> it = entries.keySet().iterator(); it.hasNext(); ) {
+                if( it.next().startsWith(prefix) ) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets everything.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    private @Nonnull String getKey(@Nonnull String account, @Nonnull String resource) {
+        while( resource.startsWith("/") ) {
+            resource = resource.substring(1);
+        }
+        return account + "/" + resource;
+    }
+}
@@ -0,0 +1,216 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Parses Azure responses into DOM documents straight from the response stream. Each thread keeps its own
+ * {@link DocumentBuilder}, and the response is only copied for the wire log when wire logging is enabled.
+ * @since 2015.06.2
+ * @version 2015.06.2
+ */
+public class AzureDocumentParser {
+    static private final DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+
+    static private final ThreadLocal<DocumentBuilder> builders = new ThreadLocal<DocumentBuilder>();
+
+    static private @Nonnull DocumentBuilder getBuilder() throws CloudException {
+        DocumentBuilder builder = builders.get();
+
+        if( builder == null ) {
+            try {
+                synchronized( factory ) {
+                    builder = factory.newDocumentBuilder();
+                }
+            }
+            catch( ParserConfigurationException e ) {
+                throw new CloudException(e);
+            }
+            builders.set(builder);
+        }
+        else {
+            builder.reset();
+        }
+        return builder;
+    }
+
+    /**
+     * Parses an XML document held in memory.
+     * @param xml the XML to parse
+     * @param wire the wire logger to echo the document to, if its debug level is enabled
+     * @return the parsed document
+     * @throws CloudException the document is not valid XML
+     */
+    static public @Nonnull Document parse(@Nonnull String xml, @Nullable Logger wire) throws CloudException {
+        if( wire != null && wire.isDebugEnabled() ) {
+            String[] lines = xml.split("\n");
+
+            if( lines.length < 1 ) {
+                lines = new String[] { xml };
+            }
+            for( String l : lines ) {
+                wire.debug(l);
+            }
+            wire.debug("");
+        }
+        try {
+            return getBuilder().parse(new InputSource(new StringReader(xml)));
+        }
+        catch( IOException e ) {
+            throw new CloudException(e);
+        }
+        catch( SAXException e ) {
+            throw new CloudException(e);
+        }
+    }
+
+    /**
+     * Parses an XML document as it is read from the specified stream. The stream is closed once it has been read.
+     * @param input the stream carrying the XML
+     * @param wire the wire logger to echo the document to, if its debug level is enabled
+     * @param skipPreamble true to discard anything ahead of the first <code>&lt;</code> in the stream
+     * @return the parsed document
+     * @throws CloudException the stream could not be read or is not valid XML
+     */
+    static public @Nonnull Document parse(@Nonnull InputStream input, @Nullable Logger wire, boolean skipPreamble) throws CloudException {
+        try {
+            InputStream in = new BufferedInputStream(input);
+
+            if( skipPreamble ) {
+                in.mark(1);
+                int b = in.read();
+
+                while( b != -1 && b != '<' ) {
+                    in.mark(1);
+                    b = in.read();
+                }
+                in.reset();
+            }
+            if( wire != null && wire.isDebugEnabled() ) {
+                in = new WireLogInputStream(in, wire);
+            }
+            Document doc = getBuilder().parse(in);
+
+            if( wire != null && wire.isDebugEnabled() ) {
+                in.close();
+                wire.debug("");
+            }
+            return doc;
+        }
+        catch( IOException e ) {
+            throw new CloudException(e);
+        }
+        catch( SAXException e ) {
+            throw new CloudException(e);
+        }
+        finally {
+            try { input.close(); }
+            catch( IOException ignore ) { }
+        }
+    }
+
+    /**
+     * Echoes each line read through it to the wire log, holding no more than the current line.
+     */
+    static private class WireLogInputStream extends FilterInputStream {
+        private Logger                wire;
+        private ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        WireLogInputStream(@Nonnull InputStream in, @Nonnull Logger wire) {
+            super(in);
+            this.wire = wire;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+
+            if( b == -1 ) {
+                flushLine();
+            }
+            else {
+                append(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+
+            if( count == -1 ) {
+                flushLine();
+            }
+            for( int i=0; i<count; i++ ) {
+                append(buffer[offset + i]);
+            }
+            return count;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushLine();
+            super.close();
+        }
+
+        private void append(int b) {
+            if( b == '\n' ) {
+                flushLine();
+            }
+            else if( b != '\r' ) {
+                line.write(b);
+            }
+        }
+
+        private void flushLine() {
+            if( line.size() > 0 ) {
+                try {
+                    wire.debug(line.toString("utf-8"));
+                }
+                catch( UnsupportedEncodingException ignore ) {
+                    // utf-8 is always supported
+                }
+                line.reset();
+            }
+        }
+    }
+}
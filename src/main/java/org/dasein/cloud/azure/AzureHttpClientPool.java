@@ -0,0 +1,201 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure;
+
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.UserTokenHandler;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.apache.log4j.Logger;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-lived, pooled HTTP clients shared by every request made with the same credentials against the same
+ * endpoint. Keeping the connections open lets Azure requests reuse an established mutual TLS session instead
+ * of paying a full handshake on every call.
+ * <p>
+ * The pool size and idle timeout are read from the context custom properties (or the matching
+ * <code>azure.*</code> system properties) when the pool for a key is first created:
+ * </p>
+ * <ul>
+ *     <li>{@link #MAX_CONNECTIONS_PER_ROUTE} - connections kept per target host (default 20)</li>
+ *     <li>{@link #MAX_CONNECTIONS} - connections kept for all hosts in the pool (default 100)</li>
+ *     <li>{@link #IDLE_CONNECTION_TIMEOUT} - milliseconds before an idle connection is closed (default 60000)</li>
+ *     <li>{@link #CONNECTION_REQUEST_TIMEOUT} - milliseconds a request waits for a free connection before it fails,
+ *     so that connections leaked by unclosed response streams cannot block later requests forever (default 60000)</li>
+ *     <li>{@link #STORAGE_MAX_CONNECTIONS_PER_ROUTE} - connections kept per blob endpoint, sized for parallel block
+ *     transfers (default 32)</li>
+ * </ul>
+ * @since 2015.06.2
+ * @version 2015.06.2
+ */
+public class AzureHttpClientPool {
+    static private final Logger logger = Azure.getLogger(AzureHttpClientPool.class);
+
+    static public final String MAX_CONNECTIONS_PER_ROUTE  = "maxConnectionsPerRoute";
+    static public final String MAX_CONNECTIONS            = "maxConnections";
+    static public final String IDLE_CONNECTION_TIMEOUT    = "idleConnectionTimeout";
+    static public final String CONNECTION_REQUEST_TIMEOUT = "connectionRequestTimeout";
+
+    static public final String STORAGE_MAX_CONNECTIONS_PER_ROUTE = "storageMaxConnectionsPerRoute";
+
+    static private final int  DEFAULT_MAX_PER_ROUTE   = 20;
+    static private final int  DEFAULT_MAX_TOTAL       = 100;
+    static private final long DEFAULT_IDLE_TIMEOUT    = 60000L;
+    static private final long DEFAULT_REQUEST_TIMEOUT = 60000L;
+    static private final long REAPER_INTERVAL         = 15000L;
+
+    static public final int DEFAULT_STORAGE_MAX_PER_ROUTE = 32;
+
+    static private class PooledClient {
+        private DefaultHttpClient              client;
+        private PoolingClientConnectionManager manager;
+        private long                           idleTimeout;
+    }
+
+    static private final ConcurrentHashMap<String,PooledClient> clients = new ConcurrentHashMap<String, PooledClient>();
+
+    static private ScheduledExecutorService reaper;
+
+    /**
+     * Fetches the client already pooled under the specified key.
+     * @param key the credential/endpoint key for the pool
+     * @return the pooled client or <code>null</code> if no client has been registered under that key
+     */
+    static public @Nullable HttpClient getClient(@Nonnull String key) {
+        PooledClient pooled = clients.get(key);
+
+        return (pooled == null ? null : pooled.client);
+    }
+
+    /**
+     * Creates a pooled client for the specified key. If another thread registered a client for the same key
+     * first, that client is returned and the one built here is discarded.
+     * @param provider the provider whose context supplies the pool configuration
+     * @param key the credential/endpoint key for the pool
+     * @param registry the schemes (including the client certificate socket factory) used for new connections
+     * @param params the HTTP parameters for the client
+     * @return the client shared by all callers using this key
+     */
+    static public @Nonnull HttpClient register(@Nonnull Azure provider, @Nonnull String key, @Nonnull SchemeRegistry registry, @Nonnull HttpParams params) {
+        return register(provider, key, registry, params, provider.getIntProperty(MAX_CONNECTIONS_PER_ROUTE, DEFAULT_MAX_PER_ROUTE));
+    }
+
+    /**
+     * Creates a pooled client for the specified key with its own per-route connection limit, such as a pool
+     * for a blob endpoint that many block transfers use at once.
+     * @param provider the provider whose context supplies the pool configuration
+     * @param key the credential/endpoint key for the pool
+     * @param registry the schemes used for new connections
+     * @param params the HTTP parameters for the client
+     * @param maxPerRoute the number of connections kept per target host
+     * @return the client shared by all callers using this key
+     */
+    static public @Nonnull HttpClient register(@Nonnull Azure provider, @Nonnull String key, @Nonnull SchemeRegistry registry, @Nonnull HttpParams params, int maxPerRoute) {
+        PooledClient pooled = new PooledClient();
+
+        maxPerRoute = Math.max(1, maxPerRoute);
+        pooled.manager = new PoolingClientConnectionManager(registry);
+        pooled.manager.setDefaultMaxPerRoute(maxPerRoute);
+        pooled.manager.setMaxTotal(Math.max(maxPerRoute, provider.getIntProperty(MAX_CONNECTIONS, DEFAULT_MAX_TOTAL)));
+        pooled.idleTimeout = provider.getLongProperty(IDLE_CONNECTION_TIMEOUT, DEFAULT_IDLE_TIMEOUT);
+        // without a limit, a request blocks forever once every connection of its route has been leaked; with one
+        // it fails with a ConnectionPoolTimeoutException, which the callers report as a CloudException
+        params.setLongParameter(ClientPNames.CONN_MANAGER_TIMEOUT, Math.max(1L, provider.getLongProperty(CONNECTION_REQUEST_TIMEOUT, DEFAULT_REQUEST_TIMEOUT)));
+        pooled.client = new DefaultHttpClient(pooled.manager, params);
+        // connections authenticate with the client certificate, so the default handler would tag each one with
+        // the certificate principal and then refuse to hand it to a request that carries no user token;
+        // every connection in this pool belongs to the same credentials, so they are all interchangeable
+        pooled.client.setUserTokenHandler(new UserTokenHandler() {
+            public Object getUserToken(HttpContext context) {
+                return null;
+            }
+        });
+
+        PooledClient existing = clients.putIfAbsent(key, pooled);
+
+        if( existing != null ) {
+            pooled.manager.shutdown();
+            return existing.client;
+        }
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Created HTTP connection pool with " + pooled.manager.getDefaultMaxPerRoute() + " connections per route");
+        }
+        startReaper();
+        return pooled.client;
+    }
+
+    /**
+     * Closes and discards every pooled client whose key begins with the specified prefix, typically a
+     * credential fingerprint that is no longer valid.
+     * @param keyPrefix the prefix of the keys to discard
+     */
+    static public void invalidate(@Nonnull String keyPrefix) {
+        Iterator<Map.Entry<String,PooledClient>> it = clients.entrySet().iterator();
+
+        while( it.hasNext() ) {
+            Map.Entry<String,PooledClient> entry = it.next();
+
+            if( entry.getKey().startsWith(keyPrefix) ) {
+                it.remove();
+                entry.getValue().manager.shutdown();
+            }
+        }
+    }
+
+    static private synchronized void startReaper() {
+        if( reaper != null ) {
+            return;
+        }
+        reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(@Nonnull Runnable r) {
+                Thread t = new Thread(r, "Azure HTTP Connection Reaper");
+
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        reaper.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                for( PooledClient pooled : clients.values() ) {
+                    try {
+                        pooled.manager.closeExpiredConnections();
+                        pooled.manager.closeIdleConnections(pooled.idleTimeout, TimeUnit.MILLISECONDS);
+                    }
+                    catch( Throwable t ) {
+                        logger.warn("Unable to evict idle connections: " + t.getMessage());
+                    }
+                }
+            }
+        }, REAPER_INTERVAL, REAPER_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+}
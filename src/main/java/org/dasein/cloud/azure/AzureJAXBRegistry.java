@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure;
+
+import javax.annotation.Nonnull;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Builds the JAXB context for each Azure model class once and shares it across requests. Contexts are thread-safe,
+ * but marshallers and unmarshallers are not, so those are kept per thread and reused by later requests on the
+ * same thread.
+ * @since 2015.06.2
+ * @version 2015.06.2
+ */
+public class AzureJAXBRegistry {
+    static private final ConcurrentHashMap<Class<?>,JAXBContext> contexts = new ConcurrentHashMap<Class<?>, JAXBContext>();
+
+    static private final ThreadLocal<Map<Class<?>,Marshaller>> marshallers = new ThreadLocal<Map<Class<?>, Marshaller>>() {
+        @Override
+        protected Map<Class<?>, Marshaller> initialValue() {
+            return new HashMap<Class<?>, Marshaller>();
+        }
+    };
+
+    static private final ThreadLocal<Map<Class<?>,Unmarshaller>> unmarshallers = new ThreadLocal<Map<Class<?>, Unmarshaller>>() {
+        @Override
+        protected Map<Class<?>, Unmarshaller> initialValue() {
+            return new HashMap<Class<?>, Unmarshaller>();
+        }
+    };
+
+    /**
+     * Provides the shared JAXB context for the specified model class, building it on first use.
+     * @param modelClass the JAXB annotated model class
+     * @return the context bound to the model class
+     * @throws JAXBException the model class could not be bound
+     */
+    static public @Nonnull JAXBContext getContext(@Nonnull Class<?> modelClass) throws JAXBException {
+        JAXBContext context = contexts.get(modelClass);
+
+        if( context == null ) {
+            context = JAXBContext.newInstance(modelClass);
+
+            JAXBContext existing = contexts.putIfAbsent(modelClass, context);
+
+            if( existing != null ) {
+                context = existing;
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Provides a marshaller for the specified model class that belongs to the current thread. Callers must not
+     * hand it to another thread or change its properties.
+     * @param modelClass the JAXB annotated model class
+     * @return a marshaller for the model class
+     * @throws JAXBException the model class could not be bound
+     */
+    static public @Nonnull Marshaller getMarshaller(@Nonnull Class<?> modelClass) throws JAXBException {
+        Map<Class<?>,Marshaller> cache = marshallers.get();
+        Marshaller m = cache.get(modelClass);
+
+        if( m == null ) {
+            m = getContext(modelClass).createMarshaller();
+            cache.put(modelClass, m);
+        }
+        return m;
+    }
+
+    /**
+     * Provides an unmarshaller for the specified model class that belongs to the current thread. Callers must not
+     * hand it to another thread or change its properties.
+     * @param modelClass the JAXB annotated model class
+     * @return an unmarshaller for the model class
+     * @throws JAXBException the model class could not be bound
+     */
+    static public @Nonnull Unmarshaller getUnmarshaller(@Nonnull Class<?> modelClass) throws JAXBException {
+        Map<Class<?>,Unmarshaller> cache = unmarshallers.get();
+        Unmarshaller u = cache.get(modelClass);
+
+        if( u == null ) {
+            u = getContext(modelClass).createUnmarshaller();
+            cache.put(modelClass, u);
+        }
+        return u;
+    }
+}
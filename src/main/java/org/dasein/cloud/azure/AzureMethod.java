@@ -22,14 +22,11 @@ package org.dasein.cloud.azure;
 import org.apache.http.*;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.*;
-import org.apache.http.conn.ClientConnectionManager;
 import org.apache.http.conn.params.ConnRoutePNames;
 import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.CoreConnectionPNames;
 import org.apache.http.params.HttpParams;
@@ -41,18 +38,13 @@ import org.dasein.cloud.*;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletResponse;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
 import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -61,6 +53,8 @@ import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Handles connectivity to Microsoft Azure services.
@@ -72,6 +66,48 @@ public class AzureMethod {
     static private final Logger logger = Azure.getLogger(AzureMethod.class);
     static private final Logger wire   = Azure.getWireLogger(AzureMethod.class);
 
+    /**
+     * A fetched document along with the <code>Retry-After</code> hint of the response it came from, so that every
+     * caller sharing a GET sees the hint of that GET.
+     */
+    static private class FetchedDocument {
+        private Document document;
+        private long     retryAfter;
+
+        FetchedDocument(@Nullable Document document, long retryAfter) {
+            this.document = document;
+            this.retryAfter = retryAfter;
+        }
+    }
+
+    static private final AzureSingleFlight<FetchedDocument> documentsInFlight = new AzureSingleFlight<FetchedDocument>();
+
+    static private final AzureSingleFlight.Copier<FetchedDocument> documentCopier = new AzureSingleFlight.Copier<FetchedDocument>() {
+        public @Nonnull FetchedDocument copy(@Nonnull FetchedDocument value) {
+            // callers such as alterVirtualMachineProduct() edit the document they get back
+            return new FetchedDocument(value.document == null ? null : (Document)value.document.cloneNode(true), value.retryAfter);
+        }
+    };
+
+    // bumped whenever a write to a subscription completes, so that a GET issued after a write never joins a GET
+    // that started before it and may have read the old state
+    static private final ConcurrentHashMap<String,AtomicLong> writeGenerations = new ConcurrentHashMap<String, AtomicLong>();
+
+    static private @Nonnull AtomicLong getWriteGeneration(@Nonnull String account) {
+        AtomicLong generation = writeGenerations.get(account);
+
+        if( generation == null ) {
+            generation = new AtomicLong();
+
+            AtomicLong current = writeGenerations.putIfAbsent(account, generation);
+
+            if( current != null ) {
+                generation = current;
+            }
+        }
+        return generation;
+    }
+
     static public class AzureResponse {
         public int httpCode;
         public Object body;
@@ -100,6 +136,8 @@ public class AzureMethod {
     private String endpoint;
     private Azure provider;
     private RequestTrackingStrategy strategy;
+    private long retryAfter = -1L;
+    private AzureRetryPolicy retryPolicy;
     
     public AzureMethod(Azure azure) throws CloudException {
         provider = azure;
@@ -128,7 +166,48 @@ public class AzureMethod {
         }
     }
 
+    /**
+     * Overrides the retry policy for the requests this method makes, which is otherwise chosen by HTTP method.
+     * @param retryPolicy the policy to apply or <code>null</code> to go back to the default policies
+     */
+    public void setRetryPolicy(@Nullable AzureRetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    private @Nonnull AzureRetryPolicy getRetryPolicy(@Nonnull String httpMethod) {
+        if( retryPolicy != null ) {
+            return retryPolicy;
+        }
+        return AzureRetryPolicy.getInstance(provider, httpMethod.toLowerCase());
+    }
+
     public @Nullable InputStream getAsStream(@Nonnull String account, @Nonnull URI uri) throws CloudException, InternalException {
+        AzureRetryPolicy policy = getRetryPolicy("GET");
+
+        for( int attempt=1; ; attempt++ ) {
+            retryAfter = -1L;
+            try {
+                return doGetAsStream(account, uri);
+            }
+            catch( CloudException e ) {
+                if( !policy.retry(attempt, e, true, retryAfter) ) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    static private @Nonnull String getVersion(@Nonnull URI uri) {
+        if (uri.toString().indexOf("/services/images") > -1) {
+            return "2012-08-01";
+        }
+        else if(uri.toString().contains("/services/vmimages")) {
+            return "2014-05-01";
+        }
+        return "2012-03-01";
+    }
+
+    private @Nullable InputStream doGetAsStream(@Nonnull String account, @Nonnull URI uri) throws CloudException, InternalException {
         logger.trace("enter - " + AzureMethod.class.getName() + ".get(" + account + "," + uri + ")");
         wire.debug("--------------------------------------------------------> " + uri.toASCIIString());
 
@@ -136,16 +215,7 @@ public class AzureMethod {
             HttpClient client = getClient();
             HttpUriRequest get = new HttpGet(uri);
 
-            if (uri.toString().indexOf("/services/images") > -1) {
-                get.addHeader("x-ms-version", "2012-08-01");
-            }
-            else if(uri.toString().contains("/services/vmimages"))
-            {
-                get.addHeader("x-ms-version", "2014-05-01");
-            }
-            else {
-                get.addHeader("x-ms-version", "2012-03-01");
-            }
+            get.addHeader("x-ms-version", getVersion(uri));
 
             if(strategy != null && strategy.getSendAsHeader()){
                get.addHeader(strategy.getHeaderName(), strategy.getRequestId());
@@ -172,6 +242,7 @@ public class AzureMethod {
 
             Header[] headers = response.getAllHeaders();
 
+            retryAfter = parseRetryAfter(response.getFirstHeader("Retry-After"));
 
             wire.debug(status.toString());
             for( Header h : headers ) {
@@ -183,6 +254,8 @@ public class AzureMethod {
             }
 
             if( status.getStatusCode() == HttpServletResponse.SC_NOT_FOUND ) {
+                // hand the connection back to the pool
+                EntityUtils.consumeQuietly(response.getEntity());
                 return null;
             }
             if( status.getStatusCode() != HttpServletResponse.SC_OK && status.getStatusCode() != HttpServletResponse.SC_NON_AUTHORITATIVE_INFORMATION ) {
@@ -264,8 +337,7 @@ public class AzureMethod {
             return null;
         }
         try {
-            JAXBContext context = JAXBContext.newInstance(classType);
-            Unmarshaller u = context.createUnmarshaller();
+            Unmarshaller u = AzureJAXBRegistry.getUnmarshaller(classType);
             return (T)u.unmarshal(responseAsStream);
         }
         catch(Exception ex)
@@ -273,13 +345,16 @@ public class AzureMethod {
             logger.error(ex.getMessage());
             throw new InternalException(ex);
         }
+        finally {
+            try { responseAsStream.close(); }
+            catch( IOException ignore ) { }
+        }
 
     }
 
     public <T> String post(String resource, T object) throws JAXBException, CloudException, InternalException {
         StringWriter stringWriter = new StringWriter();
-        JAXBContext jc = JAXBContext.newInstance(object.getClass());
-        Marshaller m = jc.createMarshaller();
+        Marshaller m = AzureJAXBRegistry.getMarshaller(object.getClass());
         m.marshal(object, stringWriter);
 
         return post(provider.getContext().getAccountNumber(), resource, stringWriter.toString());
@@ -287,19 +362,44 @@ public class AzureMethod {
 
     public <T> String put(String resource, T object) throws JAXBException, CloudException, InternalException {
         StringWriter stringWriter = new StringWriter();
-        JAXBContext jc = JAXBContext.newInstance( object.getClass());
-        Marshaller m = jc.createMarshaller();
+        Marshaller m = AzureJAXBRegistry.getMarshaller(object.getClass());
         m.marshal(object, stringWriter);
 
         return invoke("PUT",provider.getContext().getAccountNumber(), resource,stringWriter.toString());
     }
 
-    public @Nullable Document getAsXML(@Nonnull String account, @Nonnull URI uri) throws CloudException, InternalException {
-        InputStream stream = getAsStream(account, uri);
-        if(stream == null)
-            return null;
+    /**
+     * Fetches and parses an XML resource. Concurrent requests for the same resource under the same account and API
+     * version share a single GET, and each caller gets its own copy of the parsed document. A request made after a
+     * write to the account completed never shares a GET that started before the write.
+     * @param account the subscription that owns the resource
+     * @param uri the resource to fetch
+     * @return the parsed resource or <code>null</code> if it does not exist
+     * @throws CloudException an error occurred fetching or parsing the resource
+     * @throws InternalException an error occurred within Dasein Cloud processing the request
+     */
+    public @Nullable Document getAsXML(@Nonnull final String account, @Nonnull final URI uri) throws CloudException, InternalException {
+        String key = account + "|" + uri.toASCIIString() + "|" + getVersion(uri) + "|" + getWriteGeneration(account).get();
+
+        if( strategy != null && strategy.getSendAsHeader() ) {
+            key = key + "|" + strategy.getRequestId();
+        }
+        retryAfter = -1L;
+        FetchedDocument fetched = documentsInFlight.execute(key, new AzureSingleFlight.Call<FetchedDocument>() {
+            public FetchedDocument call() throws CloudException, InternalException {
+                InputStream stream = getAsStream(account, uri);
+                if(stream == null)
+                    return new FetchedDocument(null, retryAfter);
+
+                return new FetchedDocument(parseResponse(stream, true), retryAfter);
+            }
+        }, documentCopier);
 
-        return parseResponse(stream, true);
+        if( fetched == null ) {
+            return null;
+        }
+        retryAfter = fetched.retryAfter;
+        return fetched.document;
     }
     
     protected @Nonnull HttpClient getClient() throws CloudException, InternalException {
@@ -327,11 +427,22 @@ public class AzureMethod {
         catch( URISyntaxException e ) {
             throw new AzureConfigException(e);
         }
+        HttpProxyConfig httpProxyConfig = getHttpProxyConfigData();
+        String poolKey = AzureX509.getFingerprint(provider) + "|" + endpoint;
+
+        if( httpProxyConfig != null ) {
+            poolKey = poolKey + "|" + httpProxyConfig.getHost() + ":" + httpProxyConfig.getPort();
+        }
+        HttpClient pooled = AzureHttpClientPool.getClient(poolKey);
+
+        if( pooled != null ) {
+            return pooled;
+        }
         HttpParams params = new BasicHttpParams();
         SchemeRegistry registry = new SchemeRegistry();
 
         try {
-            registry.register(new Scheme(ssl ? "https" : "http", targetPort, new AzureSSLSocketFactory(new AzureX509(provider))));
+            registry.register(new Scheme(ssl ? "https" : "http", targetPort, AzureX509.getInstance(provider).getSocketFactory()));
         }
         catch( KeyManagementException e ) {
             e.printStackTrace();
@@ -356,15 +467,12 @@ public class AzureMethod {
         params.setParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, 10000);
         params.setParameter(CoreConnectionPNames.SO_TIMEOUT, 300000);
 
-        HttpProxyConfig httpProxyConfig = getHttpProxyConfigData();
         if(httpProxyConfig != null){
             params.setParameter(ConnRoutePNames.DEFAULT_PROXY, new HttpHost(httpProxyConfig.getHost(), httpProxyConfig.getPort()));
             registry.register(new Scheme("http", httpProxyConfig.getPort(), new PlainSocketFactory()));
         }
 
-        ClientConnectionManager ccm = new ThreadSafeClientConnManager(registry);
-
-        return new DefaultHttpClient(ccm, params);
+        return AzureHttpClientPool.register(provider, poolKey, registry, params);
     }
 
     private HttpProxyConfig getHttpProxyConfigData()
@@ -389,57 +497,35 @@ public class AzureMethod {
     }
 
     public @Nonnull Document parseResponse(@Nonnull String responseBody, boolean withWireLogging) throws CloudException, InternalException {
-        try {
-            if( wire != null && wire.isDebugEnabled() ) {
-                String[] lines = responseBody.split("\n");
-
-                if( lines.length < 1 ) {
-                    lines = new String[] { responseBody };
-                }
-                for( String l : lines ) {
-                    wire.debug(l);
-                }
-                wire.debug("");
-            }
-            ByteArrayInputStream bas = new ByteArrayInputStream(responseBody.getBytes());
-
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder parser = factory.newDocumentBuilder();
-            Document doc = parser.parse(bas);
-
-            bas.close();
-            return doc;
-        }
-        catch( IOException e ) {
-            throw new CloudException(e);
-        }
-        catch( ParserConfigurationException e ) {
-            throw new CloudException(e);
-        }
-        catch( SAXException e ) {
-            throw new CloudException(e);
-        }
+        return AzureDocumentParser.parse(responseBody, wire);
     }
     
     public @Nonnull Document parseResponse(@Nonnull InputStream responseBodyAsStream, boolean withWireLogging) throws CloudException, InternalException {
-        try {
-            BufferedReader in = new BufferedReader(new InputStreamReader(responseBodyAsStream));
-            StringBuilder sb = new StringBuilder();
-            String line;
+        return AzureDocumentParser.parse(responseBodyAsStream, wire, false);
+    }
 
-            while( (line = in.readLine()) != null ) {
-                sb.append(line);
-                sb.append("\n");
+    public String post(@Nonnull String account, @Nonnull String resource, @Nonnull String body) throws CloudException, InternalException {
+        AzureRetryPolicy policy = getRetryPolicy("POST");
+
+        try {
+            for( int attempt=1; ; attempt++ ) {
+                retryAfter = -1L;
+                try {
+                    return doPost(account, resource, body);
+                }
+                catch( CloudException e ) {
+                    if( !policy.retry(attempt, e, false, retryAfter) ) {
+                        throw e;
+                    }
+                }
             }
-            in.close();
-            return parseResponse(sb.toString(), withWireLogging);
         }
-        catch( IOException e ) {
-            throw new CloudException(e);
+        finally {
+            getWriteGeneration(account).incrementAndGet();
         }
     }
 
-    public String post(@Nonnull String account, @Nonnull String resource, @Nonnull String body) throws CloudException, InternalException {
+    private String doPost(@Nonnull String account, @Nonnull String resource, @Nonnull String body) throws CloudException, InternalException {
         if( logger.isTraceEnabled() ) {
             logger.trace("enter - " + AzureMethod.class.getName() + ".post(" + account + "," + resource + ")");
         }
@@ -520,6 +606,7 @@ public class AzureMethod {
             }
             Header[] headers = response.getAllHeaders();
 
+            retryAfter = parseRetryAfter(response.getFirstHeader("Retry-After"));
             if( wire.isDebugEnabled() ) {
                 wire.debug(status.toString());
             }
@@ -568,6 +655,7 @@ public class AzureMethod {
                 logger.error("post(): [" + status.getStatusCode() + " : " + items.message + "] " + items.details);
                 throw new AzureException(items);
             }
+            EntityUtils.consumeQuietly(response.getEntity());
         }
         finally {
             if( logger.isTraceEnabled() ) {
@@ -604,6 +692,28 @@ public class AzureMethod {
     }
     
     public String invoke(@Nonnull String method, @Nonnull String account, @Nonnull String resource, @Nonnull String body) throws CloudException, InternalException {
+        AzureRetryPolicy policy = getRetryPolicy(method);
+        boolean idempotent = !method.equals("POST");
+
+        try {
+            for( int attempt=1; ; attempt++ ) {
+                retryAfter = -1L;
+                try {
+                    return doInvoke(method, account, resource, body);
+                }
+                catch( CloudException e ) {
+                    if( !policy.retry(attempt, e, idempotent, retryAfter) ) {
+                        throw e;
+                    }
+                }
+            }
+        }
+        finally {
+            getWriteGeneration(account).incrementAndGet();
+        }
+    }
+
+    private String doInvoke(@Nonnull String method, @Nonnull String account, @Nonnull String resource, @Nonnull String body) throws CloudException, InternalException {
         if( logger.isTraceEnabled() ) {
             logger.trace("enter - " + AzureMethod.class.getName() + ".post(" + account + "," + resource + ")");
         }
@@ -693,6 +803,7 @@ public class AzureMethod {
             }
             Header[] headers = response.getAllHeaders();
 
+            retryAfter = parseRetryAfter(response.getFirstHeader("Retry-After"));
             if( wire.isDebugEnabled() ) {
                 wire.debug(status.toString());
             }
@@ -763,6 +874,7 @@ public class AzureMethod {
                 logger.error("post(): [" + status.getStatusCode() + " : " + items.message + "] " + items.details);
                 throw new AzureException(items);
             }
+            EntityUtils.consumeQuietly(response.getEntity());
         }
         finally {
             if( logger.isTraceEnabled() ) {
@@ -898,8 +1010,10 @@ public class AzureMethod {
                 logger.error("post(): [" + status.getStatusCode() + " : " + items.message + "] " + items.details);
                 throw new AzureException(items);
             }
+            EntityUtils.consumeQuietly(response.getEntity());
         }
         finally {
+            getWriteGeneration(account).incrementAndGet();
             if( logger.isTraceEnabled() ) {
                 logger.trace("exit - " + AzureMethod.class.getName() + ".post()");
             }
@@ -910,6 +1024,27 @@ public class AzureMethod {
         }
     }
 
+    /**
+     * @return the delay in milliseconds the <code>Retry-After</code> header of the last response asked for or -1
+     * if it carried no such header
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    static long parseRetryAfter(@Nullable Header header) {
+        if( header == null || header.getValue() == null ) {
+            return -1L;
+        }
+        try {
+            return Long.parseLong(header.getValue().trim()) * 1000L;
+        }
+        catch( NumberFormatException e ) {
+            // an HTTP date is allowed too, but Azure only ever sends seconds
+            return -1L;
+        }
+    }
+
     public @Nonnull int getOperationStatus(String requestID) throws CloudException, InternalException {
         ProviderContext ctx = provider.getContext();
         Document doc = getAsXML(ctx.getAccountNumber(),"/operations/"+requestID);
@@ -0,0 +1,369 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.util.CalendarWrapper;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Follows asynchronous Azure operations to completion. Every outstanding request ID is polled from one shared
+ * scheduler instead of from a sleeping caller thread, starting with quick polls that back off towards the old
+ * fixed interval and waiting longer whenever the service sends a <code>Retry-After</code> hint. Callers get a
+ * {@link Future} or a {@link Callback}; {@link #waitFor(String)} covers those that still need to block.
+ * <p>
+ * The scheduler only times the polls. Each poll is a blocking request that may wait out retries of its own, so
+ * polls run on a separate pool of at most {@link #POLL_THREADS} threads, and a slow or throttled poll holds up
+ * only the operation it belongs to.
+ * </p>
+ * <p>
+ * The poll delays and the operation timeout are read from the custom properties named by
+ * {@link #INITIAL_POLL_DELAY}, {@link #MAX_POLL_DELAY} and {@link #OPERATION_TIMEOUT} (all in milliseconds).
+ * </p>
+ * @since 2015.06.2
+ * @version 2015.06.2
+ */
+public class AzureOperationTracker {
+    static private final Logger logger = Azure.getLogger(AzureOperationTracker.class);
+
+    static public final String INITIAL_POLL_DELAY = "operationPollInitialDelay";
+    static public final String MAX_POLL_DELAY     = "operationPollMaxDelay";
+    static public final String OPERATION_TIMEOUT  = "operationTimeout";
+
+    static public final long DEFAULT_INITIAL_POLL_DELAY = 1000L;
+    static public final long DEFAULT_MAX_POLL_DELAY     = 15000L;
+    static public final long DEFAULT_OPERATION_TIMEOUT  = CalendarWrapper.MINUTE * 60L;
+
+    /**
+     * The number of polls that may be in flight at once across all tracked operations.
+     */
+    static public final int POLL_THREADS = 16;
+
+    static private final ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        public Thread newThread(@Nonnull Runnable r) {
+            Thread t = new Thread(r, "Azure operation tracker");
+
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    static private final ThreadPoolExecutor pollers = new ThreadPoolExecutor(POLL_THREADS, POLL_THREADS, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        public Thread newThread(@Nonnull Runnable r) {
+            Thread t = new Thread(r, "Azure operation poller");
+
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    static {
+        pollers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * The outcome of a single status poll.
+     */
+    static public class Status {
+        /**
+         * The value {@link AzureMethod#getOperationStatus(String)} returned: -1 while the operation is in progress.
+         */
+        public int  httpCode;
+        /**
+         * The delay in milliseconds the service asked for before the next poll or -1 if it gave no hint.
+         */
+        public long retryAfter;
+
+        public Status(int httpCode, long retryAfter) {
+            this.httpCode = httpCode;
+            this.retryAfter = retryAfter;
+        }
+    }
+
+    /**
+     * Looks up the current status of an operation.
+     */
+    public interface StatusSource {
+        public @Nonnull Status getStatus(@Nonnull String requestId) throws CloudException, InternalException;
+    }
+
+    /**
+     * Notified once an operation is no longer in progress. Callbacks run on a poller thread and should not block.
+     */
+    public interface Callback {
+        public void completed(@Nonnull String requestId, int httpCode);
+
+        public void failed(@Nonnull String requestId, @Nonnull Exception cause);
+    }
+
+    private StatusSource source;
+    private long         initialDelay;
+    private long         maxDelay;
+    private long         timeout;
+
+    /**
+     * Tracks operations through the operations resource of the specified provider.
+     * @param provider the provider whose operations are tracked
+     */
+    public AzureOperationTracker(@Nonnull final Azure provider) {
+        this(new StatusSource() {
+            public @Nonnull Status getStatus(@Nonnull String requestId) throws CloudException, InternalException {
+                AzureMethod method = new AzureMethod(provider);
+                int httpCode = method.getOperationStatus(requestId);
+
+                return new Status(httpCode, method.getRetryAfter());
+            }
+        }, provider);
+    }
+
+    /**
+     * Tracks operations through an arbitrary status source with the poll delays and timeout configured for the
+     * specified provider.
+     * @param source the source of operation status
+     * @param provider the provider whose context supplies the configuration
+     */
+    public AzureOperationTracker(@Nonnull StatusSource source, @Nonnull Azure provider) {
+        this(source, provider.getLongProperty(INITIAL_POLL_DELAY, DEFAULT_INITIAL_POLL_DELAY), provider.getLongProperty(MAX_POLL_DELAY, DEFAULT_MAX_POLL_DELAY), provider.getLongProperty(OPERATION_TIMEOUT, DEFAULT_OPERATION_TIMEOUT));
+    }
+
+    /**
+     * Tracks operations through an arbitrary status source.
+     * @param source the source of operation status
+     * @param initialDelay the delay before the first poll in milliseconds
+     * @param maxDelay the longest delay between two polls in milliseconds unless the service asks for more
+     * @param timeout how long to follow an operation in milliseconds before giving up on it
+     */
+    public AzureOperationTracker(@Nonnull StatusSource source, long initialDelay, long maxDelay, long timeout) {
+        this.source = source;
+        this.initialDelay = Math.max(1L, initialDelay);
+        this.maxDelay = Math.max(this.initialDelay, maxDelay);
+        this.timeout = timeout;
+    }
+
+    /**
+     * Starts tracking an operation.
+     * @param requestId the request ID the service returned for the operation
+     * @return a future that yields the final status code, or fails with the {@link CloudException} describing why
+     * the operation failed or timed out
+     */
+    public @Nonnull Future<Integer> track(@Nonnull String requestId) {
+        return track(requestId, null);
+    }
+
+    /**
+     * Starts tracking an operation and notifies the specified callback once it completes.
+     * @param requestId the request ID the service returned for the operation
+     * @param callback the callback to notify or <code>null</code>
+     * @return a future that yields the final status code
+     */
+    public @Nonnull Future<Integer> track(@Nonnull String requestId, @Nullable Callback callback) {
+        Operation op = new Operation(requestId, callback, System.currentTimeMillis() + timeout);
+
+        op.schedule(initialDelay);
+        return op;
+    }
+
+    /**
+     * Blocks until an operation is no longer in progress.
+     * @param requestId the request ID the service returned for the operation
+     * @return the final status code, as {@link AzureMethod#getOperationStatus(String)} reports it
+     * @throws CloudException the operation failed or did not complete in time
+     * @throws InternalException the wait was interrupted or the status could not be read
+     */
+    public int waitFor(@Nonnull String requestId) throws CloudException, InternalException {
+        return waitFor(track(requestId));
+    }
+
+    /**
+     * Blocks until a tracked operation is no longer in progress.
+     * @param op the future {@link #track(String)} returned for the operation
+     * @return the final status code
+     * @throws CloudException the operation failed or did not complete in time
+     * @throws InternalException the wait was interrupted or the status could not be read
+     */
+    static public int waitFor(@Nonnull Future<Integer> op) throws CloudException, InternalException {
+        try {
+            return op.get();
+        }
+        catch( InterruptedException e ) {
+            op.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        }
+        catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
+
+            if( cause instanceof CloudException ) {
+                throw (CloudException)cause;
+            }
+            if( cause instanceof InternalException ) {
+                throw (InternalException)cause;
+            }
+            throw new InternalException(cause);
+        }
+    }
+
+    private class Operation implements Future<Integer>, Runnable {
+        private String             requestId;
+        private Callback           callback;
+        private long               deadline;
+        private long               delay;
+        private CountDownLatch     done = new CountDownLatch(1);
+        private ScheduledFuture<?> next;
+        private Integer            httpCode;
+        private Exception          cause;
+        private boolean            cancelled;
+
+        Operation(@Nonnull String requestId, @Nullable Callback callback, long deadline) {
+            this.requestId = requestId;
+            this.callback = callback;
+            this.deadline = deadline;
+        }
+
+        synchronized void schedule(long delay) {
+            if( !isDone() ) {
+                this.delay = delay;
+                next = scheduler.schedule(new Runnable() {
+                    public void run() {
+                        pollers.execute(Operation.this);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        public void run() {
+            if( isDone() ) {
+                return;
+            }
+            Status status;
+
+            try {
+                status = source.getStatus(requestId);
+            }
+            catch( Exception e ) {
+                finish(null, e);
+                return;
+            }
+            if( status.httpCode != -1 ) {
+                finish(status.httpCode, null);
+                return;
+            }
+            long now = System.currentTimeMillis();
+
+            if( now >= deadline ) {
+                finish(null, new CloudException("Timed out waiting for operation " + requestId + " to complete"));
+                return;
+            }
+            long wait;
+
+            if( status.retryAfter > 0L ) {
+                wait = status.retryAfter;
+            }
+            else {
+                wait = Math.min(maxDelay, delay * 2L);
+            }
+            if( logger.isDebugEnabled() ) {
+                logger.debug("Operation " + requestId + " still in progress, polling again in " + wait + "ms");
+            }
+            schedule(Math.min(wait, Math.max(1L, deadline - now)));
+        }
+
+        private void finish(@Nullable Integer httpCode, @Nullable Exception cause) {
+            synchronized( this ) {
+                if( isDone() ) {
+                    return;
+                }
+                this.httpCode = httpCode;
+                this.cause = cause;
+                done.countDown();
+            }
+            if( callback != null ) {
+                try {
+                    if( cause == null ) {
+                        callback.completed(requestId, httpCode);
+                    }
+                    else {
+                        callback.failed(requestId, cause);
+                    }
+                }
+                catch( Throwable t ) {
+                    logger.warn("Callback for operation " + requestId + " failed: " + t.getMessage());
+                }
+            }
+        }
+
+        public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+            if( isDone() ) {
+                return false;
+            }
+            cancelled = true;
+            if( next != null ) {
+                next.cancel(false);
+            }
+            done.countDown();
+            return true;
+        }
+
+        public synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        public boolean isDone() {
+            return (done.getCount() == 0);
+        }
+
+        public Integer get() throws InterruptedException, ExecutionException {
+            done.await();
+            return result();
+        }
+
+        public Integer get(long timeout, @Nonnull TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            if( !done.await(timeout, unit) ) {
+                throw new TimeoutException("Operation " + requestId + " is still in progress");
+            }
+            return result();
+        }
+
+        private synchronized Integer result() throws ExecutionException {
+            if( cancelled ) {
+                throw new CancellationException("Tracking of operation " + requestId + " was cancelled");
+            }
+            if( cause != null ) {
+                throw new ExecutionException(cause);
+            }
+            return httpCode;
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure;
+
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.ProviderContext;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides whether a failed Azure request is worth repeating and how long to wait before doing so. Throttling
+ * (429, 503 <code>ServerBusy</code>), gateway errors and conflicts with an operation already in progress are
+ * retried with exponential backoff and full jitter, never sooner than a <code>Retry-After</code> hint asks.
+ * Errors the service may already have acted on are only retried for idempotent requests.
+ * <p>
+ * Every subscription shares one retry budget that refills over a minute, so a service that keeps failing slows
+ * a batch down rather than multiplying its load. The settings below are read from the context's custom
+ * properties; the retry count can be overridden for one call type by appending <code>.<i>callType</i></code>
+ * to its name, as in <code>maxRetries.delete</code>.
+ * </p>
+ * <ul>
+ *     <li>{@link #MAX_RETRIES} - retries per request (4)</li>
+ *     <li>{@link #RETRY_BASE_DELAY} - backoff for the first retry in milliseconds (1000)</li>
+ *     <li>{@link #RETRY_MAX_DELAY} - longest backoff in milliseconds (30000)</li>
+ *     <li>{@link #RETRY_BUDGET} - retries a subscription may spend per minute (100)</li>
+ * </ul>
+ * @since 2015.06.2
+ * @version 2015.06.2
+ */
+public class AzureRetryPolicy {
+    static private final Logger logger = Azure.getLogger(AzureRetryPolicy.class);
+
+    static public final String MAX_RETRIES      = "maxRetries";
+    static public final String RETRY_BASE_DELAY = "retryBaseDelay";
+    static public final String RETRY_MAX_DELAY  = "retryMaxDelay";
+    static public final String RETRY_BUDGET     = "retryBudget";
+
+    static private final Random random = new Random();
+
+    static private final ConcurrentHashMap<String,Budget> budgets = new ConcurrentHashMap<String, Budget>();
+
+    /**
+     * Provides the default policy for a kind of request.
+     * @param provider the provider making the request
+     * @param callType the kind of request, usually the lower-case HTTP method
+     * @return the policy for the call type
+     */
+    static public @Nonnull AzureRetryPolicy getInstance(@Nonnull Azure provider, @Nonnull String callType) {
+        return new AzureRetryPolicy(provider, callType, 4);
+    }
+
+    static private @Nonnull Budget getBudget(@Nonnull Azure provider) {
+        ProviderContext ctx = provider.getContext();
+        String subscription = (ctx == null ? "" : ctx.getAccountNumber());
+        int limit = provider.getIntProperty(RETRY_BUDGET, 100);
+        String key = subscription + "|" + limit;
+        Budget budget = budgets.get(key);
+
+        if( budget == null ) {
+            budget = new Budget(limit);
+            Budget current = budgets.putIfAbsent(key, budget);
+
+            if( current != null ) {
+                budget = current;
+            }
+        }
+        return budget;
+    }
+
+    /**
+     * Tells apart errors that are likely to go away if the request is repeated.
+     * @param error the error the request failed with
+     * @param idempotent true if repeating the request cannot apply it twice
+     * @return true if the request should be repeated
+     */
+    static public boolean isRetryable(@Nonnull CloudException error, boolean idempotent) {
+        if( error.getCause() instanceof ConnectionPoolTimeoutException ) {
+            // the request already waited out the pool timeout and never left the client
+            return false;
+        }
+        if( error.getCause() instanceof IOException ) {
+            // the request may or may not have reached the service
+            return idempotent;
+        }
+        int code = error.getHttpCode();
+
+        if( code == 429 || code == 503 ) {
+            // throttled before the service acted on the request
+            return true;
+        }
+        if( code == 500 || code == 502 || code == 504 ) {
+            return idempotent;
+        }
+        if( code == 409 ) {
+            return isTransientConflict(error.getProviderCode(), error.getMessage());
+        }
+        return false;
+    }
+
+    static private boolean isTransientConflict(@Nullable String errorCode, @Nullable String details) {
+        if( errorCode != null && (errorCode.equalsIgnoreCase("ContainerBeingDeleted") || errorCode.equalsIgnoreCase("BlobBeingDeleted")) ) {
+            return true;
+        }
+        if( details == null ) {
+            return false;
+        }
+        details = details.toLowerCase();
+        return (details.contains("currently performing an operation") || details.contains("in progress"));
+    }
+
+    private String callType;
+    private int    maxRetries;
+    private long   baseDelay;
+    private long   maxDelay;
+    private Budget budget;
+
+    /**
+     * Constructs a policy for a kind of request with its own default retry count.
+     * @param provider the provider making the request
+     * @param callType the kind of request, used to look up an overriding retry count
+     * @param defaultMaxRetries the retry count when none is configured
+     */
+    public AzureRetryPolicy(@Nonnull Azure provider, @Nonnull String callType, int defaultMaxRetries) {
+        this.callType = callType;
+        this.maxRetries = provider.getIntProperty(MAX_RETRIES + "." + callType, provider.getIntProperty(MAX_RETRIES, defaultMaxRetries));
+        this.baseDelay = Math.max(1L, provider.getLongProperty(RETRY_BASE_DELAY, 1000L));
+        this.maxDelay = Math.max(baseDelay, provider.getLongProperty(RETRY_MAX_DELAY, 30000L));
+        this.budget = getBudget(provider);
+    }
+
+    /**
+     * Decides whether to repeat a failed request and, if so, waits out the backoff before returning.
+     * @param attempt the number of attempts made so far, starting at 1
+     * @param error the error the latest attempt failed with
+     * @param idempotent true if repeating the request cannot apply it twice
+     * @param retryAfter the delay in milliseconds the service asked for or -1 if it gave no hint
+     * @return true if the request should be made again, false if the error should be thrown
+     */
+    public boolean retry(int attempt, @Nonnull CloudException error, boolean idempotent, long retryAfter) {
+        if( attempt > maxRetries || !isRetryable(error, idempotent) ) {
+            return false;
+        }
+        if( !budget.acquire() ) {
+            logger.warn("Retry budget exhausted, not retrying " + callType + " request after: " + error.getMessage());
+            return false;
+        }
+        long delay = getDelay(attempt, retryAfter);
+
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Retrying " + callType + " request in " + delay + "ms (attempt " + (attempt + 1) + " of " + (maxRetries + 1) + ") after: " + error.getMessage());
+        }
+        try {
+            Thread.sleep(delay);
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return true;
+    }
+
+    long getDelay(int attempt, long retryAfter) {
+        long ceiling = maxDelay;
+
+        if( attempt < 31 ) {
+            ceiling = Math.min(maxDelay, baseDelay << (attempt - 1));
+        }
+        long delay;
+
+        synchronized( random ) {
+            delay = 1L + (long)(random.nextDouble() * ceiling);
+        }
+        return Math.max(delay, retryAfter);
+    }
+
+    /**
+     * Retries a subscription may still spend, refilled continuously at its capacity per minute.
+     */
+    static private class Budget {
+        private int    capacity;
+        private double tokens;
+        private long   lastRefill = System.currentTimeMillis();
+
+        Budget(int capacity) {
+            this.capacity = capacity;
+            this.tokens = capacity;
+        }
+
+        synchronized boolean acquire() {
+            long now = System.currentTimeMillis();
+
+            tokens = Math.min(capacity, tokens + ((now - lastRefill) * capacity) / 60000.0);
+            lastRefill = now;
+            if( tokens < 1.0 ) {
+                return false;
+            }
+            tokens -= 1.0;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.Header;
+import org.apache.http.HttpRequest;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.Charset;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Signs blob service requests with the <code>SharedKeyLite</code> scheme. Each thread keeps its own
+ * <code>HmacSHA256</code> instance, initialized once per storage key and reused for every request it signs
+ * afterwards, since <code>Mac</code> instances are expensive to create and cannot be shared between threads.
+ * @since 2015.06.2
+ * @version 2015.06.2
+ */
+public class AzureSharedKeySigner {
+    static private final Logger logger = Azure.getLogger(AzureSharedKeySigner.class);
+
+    static private final String  ALGORITHM = "HmacSHA256";
+    static private final String  MS_PREFIX = "x-ms-";
+    static private final Charset UTF8      = Charset.forName("UTF-8");
+
+    static private final ThreadLocal<AzureSharedKeySigner> signers = new ThreadLocal<AzureSharedKeySigner>() {
+        @Override
+        protected AzureSharedKeySigner initialValue() {
+            return new AzureSharedKeySigner();
+        }
+    };
+
+    /**
+     * Signs a string with a storage key using the calling thread's signer.
+     * @param key the decoded storage key
+     * @param stringToSign the canonical form of the request
+     * @return the Base64 encoded signature
+     * @throws InternalException the key is invalid or the JVM has no <code>HmacSHA256</code> support
+     */
+    static public @Nonnull String sign(@Nonnull byte[] key, @Nonnull String stringToSign) throws InternalException {
+        return signers.get().signWith(key, stringToSign);
+    }
+
+    /**
+     * Builds the <code>SharedKeyLite</code> string to sign for a blob service request: the verb, content MD5,
+     * content type, date, the <code>x-ms-</code> headers sorted by name and the canonical resource.
+     * @param method the request, with all headers other than <code>Authorization</code> already set
+     * @param path the path of the request URI
+     * @param account the name of the storage account
+     * @param queryParams the query parameters of the request
+     * @return the string to sign
+     */
+    static public @Nonnull String getStringToSign(@Nonnull HttpRequest method, @Nonnull String path, @Nonnull String account, @Nonnull Map<String,String> queryParams) {
+        StringBuilder stringToSign = new StringBuilder(256);
+        Header contentMD5 = method.getFirstHeader("content-md5");
+        Header contentType = method.getFirstHeader("content-type");
+        Header date = method.getFirstHeader("date");
+
+        stringToSign.append(method.getRequestLine().getMethod().toUpperCase(Locale.ENGLISH)).append('\n');
+        stringToSign.append(contentMD5 == null || contentMD5.getValue() == null ? "" : contentMD5.getValue()).append('\n');
+        stringToSign.append(contentType == null || contentType.getValue() == null ? "" : contentType.getValue()).append('\n');
+        stringToSign.append(date == null ? "" : date.getValue()).append('\n');
+
+        Header[] headers = method.getAllHeaders();
+        String[] names = new String[headers.length];
+        int count = 0;
+
+        for( Header header : headers ) {
+            if( header.getName().regionMatches(true, 0, MS_PREFIX, 0, MS_PREFIX.length()) ) {
+                names[count++] = header.getName().trim().toLowerCase(Locale.ENGLISH);
+            }
+        }
+        Arrays.sort(names, 0, count);
+        for( int i=0; i<count; i++ ) {
+            if( i > 0 && names[i].equals(names[i-1]) ) {
+                continue;
+            }
+            boolean first = true;
+
+            stringToSign.append(names[i]).append(':');
+            for( Header header : headers ) {
+                if( header.getName().trim().equalsIgnoreCase(names[i]) ) {
+                    if( !first ) {
+                        stringToSign.append(',');
+                    }
+                    appendValue(stringToSign, header.getValue());
+                    first = false;
+                }
+            }
+            stringToSign.append('\n');
+        }
+        stringToSign.append('/').append(account).append(path);
+
+        for( String key : queryParams.keySet() ) {
+            if( key.equalsIgnoreCase("comp") ) {
+                String comp = queryParams.get("comp");
+
+                stringToSign.append("?comp=").append(comp == null ? "" : comp);
+                break;
+            }
+        }
+        return stringToSign.toString();
+    }
+
+    /**
+     * Appends a trimmed header value with any line breaks unfolded into spaces.
+     */
+    static private void appendValue(@Nonnull StringBuilder stringToSign, @Nullable String value) {
+        if( value == null ) {
+            return;
+        }
+        int start = 0, end = value.length();
+
+        while( start < end && value.charAt(start) <= ' ' ) {
+            start++;
+        }
+        while( end > start && value.charAt(end - 1) <= ' ' ) {
+            end--;
+        }
+        for( int i=start; i<end; i++ ) {
+            char c = value.charAt(i);
+
+            stringToSign.append(c == '\n' ? ' ' : c);
+        }
+    }
+
+    private Mac    mac;
+    private byte[] key;
+
+    private AzureSharedKeySigner() { }
+
+    private @Nonnull String signWith(@Nonnull byte[] key, @Nonnull String stringToSign) throws InternalException {
+        try {
+            if( mac == null ) {
+                mac = Mac.getInstance(ALGORITHM);
+            }
+            if( !Arrays.equals(this.key, key) ) {
+                mac.init(new SecretKeySpec(key, ALGORITHM));
+                this.key = key.clone();
+            }
+            // doFinal resets the mac for the next request
+            return new String(Base64.encodeBase64(mac.doFinal(stringToSign.getBytes(UTF8))), UTF8);
+        }
+        catch( NoSuchAlgorithmException e ) {
+            logger.error("No such algorithm: " + e.getMessage());
+            throw new InternalException(e);
+        }
+        catch( InvalidKeyException e ) {
+            logger.error("Invalid key: " + e.getMessage());
+            this.key = null;
+            throw new InternalException(e);
+        }
+        catch( IllegalArgumentException e ) {
+            logger.error("Invalid key: " + e.getMessage());
+            this.key = null;
+            throw new InternalException(e);
+        }
+    }
+}
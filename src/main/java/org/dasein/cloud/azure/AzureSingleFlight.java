@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Coalesces identical calls made at the same time. The first caller for a key makes the call; everyone who asks
+ * for the same key while it is in flight waits for that call and gets its result, or its exception. Nothing is
+ * remembered once the call completes, so this is no substitute for a cache.
+ * @param <T> the type of result the calls produce
+ * @since 2015.06.2
+ * @version 2015.06.2
+ */
+public class AzureSingleFlight<T> {
+    /**
+     * The call to make on behalf of everyone waiting on a key.
+     */
+    public interface Call<T> {
+        public @Nullable T call() throws CloudException, InternalException;
+    }
+
+    /**
+     * Copies a result that callers may change, so that no caller sees another's changes.
+     */
+    public interface Copier<T> {
+        public @Nonnull T copy(@Nonnull T value);
+    }
+
+    private ConcurrentHashMap<String,Flight<T>> flights = new ConcurrentHashMap<String, Flight<T>>();
+
+    /**
+     * Makes the call or joins an identical call already in flight.
+     * @param key identifies calls that produce the same result
+     * @param call the call to make if none is in flight for the key
+     * @param copier copies the result for each caller when more than one caller shares it, or <code>null</code>
+     * to hand every caller the same object
+     * @return the result of the call
+     * @throws CloudException the call failed in the cloud
+     * @throws InternalException the call failed locally or the wait for it was interrupted
+     */
+    public @Nullable T execute(@Nonnull String key, @Nonnull Call<T> call, @Nullable Copier<T> copier) throws CloudException, InternalException {
+        while( true ) {
+            Flight<T> flight = new Flight<T>();
+            Flight<T> current = flights.putIfAbsent(key, flight);
+
+            if( current == null ) {
+                return lead(key, flight, call, copier);
+            }
+            if( current.join() ) {
+                return current.await(copier);
+            }
+            // the flight landed between the lookup and the join, so start another
+            flights.remove(key, current);
+        }
+    }
+
+    private @Nullable T lead(@Nonnull String key, @Nonnull Flight<T> flight, @Nonnull Call<T> call, @Nullable Copier<T> copier) throws CloudException, InternalException {
+        T value = null;
+        Exception error = null;
+
+        try {
+            value = call.call();
+        }
+        catch( CloudException e ) {
+            error = e;
+        }
+        catch( InternalException e ) {
+            error = e;
+        }
+        catch( RuntimeException e ) {
+            error = new InternalException(e);
+        }
+        finally {
+            flights.remove(key, flight);
+        }
+        boolean shared = flight.land(value, error);
+
+        if( error instanceof CloudException ) {
+            throw (CloudException)error;
+        }
+        if( error != null ) {
+            throw (InternalException)error;
+        }
+        return (shared ? flight.copy(copier) : value);
+    }
+
+    static private class Flight<T> {
+        private CountDownLatch done = new CountDownLatch(1);
+        private boolean        landed;
+        private int            followers;
+        private T              value;
+        private Exception      error;
+
+        synchronized boolean join() {
+            if( landed ) {
+                return false;
+            }
+            followers++;
+            return true;
+        }
+
+        synchronized boolean land(@Nullable T value, @Nullable Exception error) {
+            this.value = value;
+            this.error = error;
+            landed = true;
+            done.countDown();
+            return (followers > 0);
+        }
+
+        @Nullable T await(@Nullable Copier<T> copier) throws CloudException, InternalException {
+            try {
+                done.await();
+            }
+            catch( InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new InternalException(e);
+            }
+            if( error instanceof CloudException ) {
+                throw (CloudException)error;
+            }
+            if( error != null ) {
+                throw (InternalException)error;
+            }
+            return copy(copier);
+        }
+
+        @Nullable T copy(@Nullable Copier<T> copier) {
+            if( value == null || copier == null ) {
+                return value;
+            }
+            synchronized( this ) {
+                return copier.copy(value);
+            }
+        }
+    }
+}
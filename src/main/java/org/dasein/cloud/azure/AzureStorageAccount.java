@@ -0,0 +1,258 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.util.Cache;
+import org.dasein.cloud.util.CacheLevel;
+import org.dasein.util.uom.time.Minute;
+import org.dasein.util.uom.time.TimePeriod;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.Iterator;
+
+/**
+ * The storage service Dasein uses for blobs in a region: its name, blob endpoint and access key. Descriptors are
+ * discovered from a single <code>/services/storageservices</code> listing and cached per account and region, so
+ * every provider instance for the same subscription shares them. The key is fetched the first time a request
+ * needs to be signed and kept with the descriptor until it expires after {@link #STORAGE_CACHE_MINUTES}
+ * minutes (15), or until the service rejects a request signed with it.
+ * @since 2015.06.2
+ * @version 2015.06.2
+ */
+public class AzureStorageAccount {
+    static private final Logger logger = Azure.getLogger(AzureStorageAccount.class);
+
+    static public final String STORAGE_CACHE_MINUTES = "storageCacheMinutes";
+
+    static private @Nonnull Cache<AzureStorageAccount> getCache(@Nonnull Azure provider) {
+        int minutes = Math.max(1, provider.getIntProperty(STORAGE_CACHE_MINUTES, 15));
+
+        return Cache.getInstance(provider, "storageAccount", AzureStorageAccount.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Minute>(minutes, TimePeriod.MINUTE));
+    }
+
+    /**
+     * Looks up the storage service for the provider's current region, listing the subscription's storage services
+     * only if no descriptor is cached. Regions without a storage service are not cached so that one created later
+     * is found.
+     * @param provider the provider whose account and region to look in
+     * @return the storage service in the region or <code>null</code> if there is none
+     * @throws CloudException the storage services could not be listed
+     * @throws InternalException no context was set for the provider
+     */
+    static public @Nullable AzureStorageAccount getInstance(@Nonnull Azure provider) throws CloudException, InternalException {
+        ProviderContext ctx = provider.getContext();
+
+        if( ctx == null ) {
+            throw new AzureConfigException("No configuration was set for this request");
+        }
+        Cache<AzureStorageAccount> cache = getCache(provider);
+        Iterable<AzureStorageAccount> cached = cache.get(ctx);
+
+        if( cached != null ) {
+            Iterator<AzureStorageAccount> it = cached.iterator();
+
+            if( it.hasNext() ) {
+                return it.next();
+            }
+        }
+        AzureMethod method = new AzureMethod(provider);
+        Document xml = method.getAsXML(ctx.getAccountNumber(), "/services/storageservices");
+
+        if( xml == null ) {
+            throw new CloudException("Unable to identify the storage service");
+        }
+        AzureStorageAccount account = parse(xml, ctx.getRegionId());
+
+        if( account != null ) {
+            cache.put(ctx, Collections.singletonList(account));
+        }
+        return account;
+    }
+
+    /**
+     * Caches a storage service just created in the provider's current region, ahead of it showing up in listings.
+     * @param provider the provider that created the storage service
+     * @param serviceName the name of the new storage service
+     * @param endpoint the blob endpoint of the new storage service
+     */
+    static public void register(@Nonnull Azure provider, @Nonnull String serviceName, @Nonnull String endpoint) {
+        ProviderContext ctx = provider.getContext();
+
+        if( ctx != null ) {
+            getCache(provider).put(ctx, Collections.singletonList(new AzureStorageAccount(serviceName, endpoint)));
+        }
+    }
+
+    /**
+     * Drops the storage service cached for the provider's current region along with its key, so the next request
+     * looks both up again.
+     * @param provider the provider whose storage service was rejected
+     */
+    static public void invalidate(@Nonnull Azure provider) {
+        ProviderContext ctx = provider.getContext();
+
+        if( ctx != null ) {
+            getCache(provider).put(ctx, Collections.<AzureStorageAccount>emptyList());
+        }
+    }
+
+    /**
+     * Finds the storage service in a region from a storage services listing in one pass over the document. A
+     * service with a blob endpoint is preferred over one without.
+     * @param xml the <code>StorageServices</code> document
+     * @param regionId the region to look in
+     * @return the storage service in the region or <code>null</code> if there is none
+     */
+    static @Nullable AzureStorageAccount parse(@Nonnull Document xml, @Nullable String regionId) {
+        NodeList services = xml.getElementsByTagName("StorageService");
+        AzureStorageAccount fallback = null;
+
+        for( int i=0; i<services.getLength(); i++ ) {
+            Node service = services.item(i);
+            String serviceName = null, region = null, endpoint = null;
+
+            for( Node child = service.getFirstChild(); child != null; child = child.getNextSibling() ) {
+                if( child.getNodeName().equalsIgnoreCase("ServiceName") ) {
+                    serviceName = getText(child);
+                }
+                else if( child.getNodeName().equalsIgnoreCase("StorageServiceProperties") ) {
+                    for( Node property = child.getFirstChild(); property != null; property = property.getNextSibling() ) {
+                        if( property.getNodeName().equalsIgnoreCase("GeoPrimaryRegion") ) {
+                            region = getText(property);
+                        }
+                        else if( property.getNodeName().equalsIgnoreCase("Endpoints") ) {
+                            for( Node e = property.getFirstChild(); e != null && endpoint == null; e = e.getNextSibling() ) {
+                                String url = (e.getNodeName().equalsIgnoreCase("Endpoint") ? getText(e) : null);
+
+                                if( url != null && url.contains(".blob.") ) {
+                                    endpoint = url;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            if( serviceName == null || region == null || !region.equals(regionId) ) {
+                continue;
+            }
+            if( endpoint != null ) {
+                return new AzureStorageAccount(serviceName, endpoint);
+            }
+            if( fallback == null ) {
+                fallback = new AzureStorageAccount(serviceName, null);
+            }
+        }
+        return fallback;
+    }
+
+    static private @Nullable String getText(@Nonnull Node node) {
+        String value = node.getTextContent();
+
+        if( value == null ) {
+            return null;
+        }
+        value = value.trim();
+        return (value.isEmpty() ? null : value);
+    }
+
+    private String serviceName;
+    private String endpoint;
+    private byte[] key;
+
+    private AzureStorageAccount(@Nonnull String serviceName, @Nullable String endpoint) {
+        this.serviceName = serviceName;
+        this.endpoint = endpoint;
+    }
+
+    /**
+     * @return the blob endpoint of the storage service or <code>null</code> if it has none
+     */
+    public @Nullable String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Provides the decoded key for signing storage requests, fetching the storage service keys the first time it
+     * is needed. The primary key is used unless only the secondary one is available.
+     * @param provider the provider to fetch the keys through
+     * @return the decoded access key
+     * @throws CloudException the keys could not be fetched
+     * @throws InternalException no context was set for the provider
+     */
+    public synchronized @Nonnull byte[] getKey(@Nonnull Azure provider) throws CloudException, InternalException {
+        if( key == null ) {
+            ProviderContext ctx = provider.getContext();
+
+            if( ctx == null ) {
+                throw new AzureConfigException("No context was set for this request");
+            }
+            AzureMethod method = new AzureMethod(provider);
+            Document doc = method.getAsXML(ctx.getAccountNumber(), "/services/storageservices/" + serviceName + "/keys");
+
+            if( doc == null ) {
+                throw new CloudException("Unable to identify the storage keys for this account");
+            }
+            NodeList keys = doc.getElementsByTagName("StorageServiceKeys");
+            String primary = null, secondary = null;
+
+            for( int i=0; i<keys.getLength() && primary == null && secondary == null; i++ ) {
+                for( Node part = keys.item(i).getFirstChild(); part != null; part = part.getNextSibling() ) {
+                    if( part.getNodeName().equalsIgnoreCase("primary") ) {
+                        primary = getText(part);
+                    }
+                    else if( part.getNodeName().equalsIgnoreCase("secondary") ) {
+                        secondary = getText(part);
+                    }
+                }
+            }
+            String encoded = (primary != null ? primary : secondary);
+
+            if( encoded == null ) {
+                throw new CloudException("No keys were found for the storage service " + serviceName);
+            }
+            if( logger.isDebugEnabled() ) {
+                logger.debug("Fetched the access key for storage service " + serviceName);
+            }
+            key = Base64.decodeBase64(encoded);
+        }
+        return key;
+    }
+
+    /**
+     * @return the name of the storage service
+     */
+    public @Nonnull String getServiceName() {
+        return serviceName;
+    }
+
+    @Override
+    public @Nonnull String toString() {
+        return serviceName + " [" + endpoint + "]";
+    }
+}
@@ -41,6 +41,7 @@ import org.apache.http.entity.ContentType;
 import org.apache.http.entity.FileEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.params.HttpProtocolParams;
@@ -52,15 +53,9 @@ import org.dasein.cloud.CloudException;
 import org.dasein.cloud.InternalException;
 import org.dasein.cloud.ProviderContext;
 import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import javax.servlet.http.HttpServletResponse;
-import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.Transformer;
@@ -71,27 +66,24 @@ import javax.xml.transform.TransformerFactoryConfigurationError;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
-import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.nio.ByteBuffer;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.TimeZone;
 import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.WeakHashMap;
 
 /**
  * Handles connectivity to Microsoft Azure Storage services.
@@ -108,13 +100,27 @@ public class AzureStorageMethod {
     static public final String VERSION = "2009-09-19";
     //static public final String VERSION = "2012-02-12";
 
+    /**
+     * The API version sent by requests that start or follow a server-side copy. Earlier versions copy
+     * synchronously and never report <code>x-ms-copy-status</code> or <code>x-ms-copy-progress</code>. A request
+     * overrides {@link #VERSION} by carrying its own <code>x-ms-version</code> header.
+     */
+    static public final String COPY_VERSION = "2012-02-12";
+
     private String Header_Prefix_MS = "x-ms-";
     
     public static final String  Storage_OPERATION_DELETE = "DELETE";
     public static final String  Storage_OPERATION_PUT = "PUT";
     public static final String  Storage_OPERATION_GET = "GET";
 
+    /**
+     * Keys configured in a context, decoded once rather than for every request they sign. Entries are held by the
+     * context's own key array and go away with it.
+     */
+    static private final Map<byte[],byte[]> decodedKeys = Collections.synchronizedMap(new WeakHashMap<byte[], byte[]>());
+
     private Azure  provider;
+    private long   retryAfter = -1L;
 
     public AzureStorageMethod(Azure azure) throws AzureConfigException {
         provider = azure;
@@ -125,68 +131,51 @@ public class AzureStorageMethod {
         }        
     }
 
-    private void fetchKeys() throws CloudException, InternalException {
+    private @Nonnull byte[] getKey() throws CloudException, InternalException {
         ProviderContext ctx = provider.getContext();
 
         if( ctx == null ) {
             throw new AzureConfigException("No context was set for this request");
         }
+        byte[] storagePrivate = ctx.getStoragePrivate();
 
-        if( ctx.getStoragePrivate() == null ) {
-            AzureMethod method = new AzureMethod(provider);
+        if( storagePrivate != null ) {
+            byte[] key = decodedKeys.get(storagePrivate);
 
-            String storageService = provider.getStorageService();
-            if( storageService == null || storageService.isEmpty()) {
-                throw new CloudException("Unable to find storage service in the current region: " + ctx.getRegionId());
+            if( key == null ) {
+                key = Base64.decodeBase64(storagePrivate);
+                decodedKeys.put(storagePrivate, key);
             }
+            return key;
+        }
+        AzureStorageAccount account = provider.getStorageAccount();
 
-            Document doc = method.getAsXML(ctx.getAccountNumber(), "/services/storageservices/" + storageService + "/keys");
-
-            if( doc == null ) {
-                throw new CloudException("Unable to identify the storage keys for this account");
-            }
-            NodeList keys = doc.getElementsByTagName("StorageServiceKeys");
-
-            for( int i=0; i<keys.getLength(); i++ ) {
-                Node key = keys.item(i);
-
-                if( key.getNodeName().equalsIgnoreCase("StorageServiceKeys") && key.hasChildNodes() ) {
-                    NodeList parts = key.getChildNodes();
-                    String p = null, s = null;
+        if( account == null ) {
+            throw new CloudException("Unable to find storage service in the current region: " + ctx.getRegionId());
+        }
+        return account.getKey(provider);
+    }
 
-                    for( int j=0; j<parts.getLength(); j++ ) {
-                        Node part = parts.item(j);
+    /**
+     * Checks whether the service rejected the signature of a request, as it does once the account key has been
+     * regenerated, and if so drops the cached storage account so the request can be repeated with the current key.
+     * @param error the error the request failed with
+     * @param authorization true if the request was signed
+     * @return true if the key was dropped and the request should be repeated
+     */
+    private boolean isRejectedKey(@Nonnull CloudException error, boolean authorization) {
+        if( !authorization || error.getHttpCode() != HttpServletResponse.SC_FORBIDDEN || !"AuthenticationFailed".equals(error.getProviderCode()) ) {
+            return false;
+        }
+        ProviderContext ctx = provider.getContext();
 
-                        if( part.getNodeName().equalsIgnoreCase("primary") && part.hasChildNodes() ) {
-                            p = part.getFirstChild().getNodeValue().trim();
-                        }
-                        else if( part.getNodeName().equalsIgnoreCase("secondary") && part.hasChildNodes() ) {
-                            s = part.getFirstChild().getNodeValue().trim();
-                        }
-                    }
-                    if( p != null ) {
-                        try {
-                            ctx.setStoragePrivate(p.getBytes("utf-8"));
-                        }
-                        catch( UnsupportedEncodingException e ) {
-                            logger.error("UTF-8 not supported: " + e.getMessage());
-                            throw new InternalException(e);
-                        }
-                        break;
-                    }
-                    else if( s != null ) {
-                        try {
-                            ctx.setStoragePrivate(s.getBytes("utf-8"));
-                        }
-                        catch( UnsupportedEncodingException e ) {
-                            logger.error("UTF-8 not supported: " + e.getMessage());
-                            throw new InternalException(e);
-                        }
-                        break;
-                    }
-                }
-            }
+        if( ctx == null || ctx.getStoragePrivate() != null ) {
+            // a key configured by the caller cannot be refreshed
+            return false;
         }
+        logger.warn("The storage service rejected the signature of a request; fetching the account key again");
+        AzureStorageAccount.invalidate(provider);
+        return true;
     }
 
     private String getStorageAccount() throws CloudException, InternalException {
@@ -194,106 +183,19 @@ public class AzureStorageMethod {
     }
 
     private String calculatedSharedKeyLiteSignature(@Nonnull HttpRequestBase method, @Nonnull Map<String, String> queryParams) throws  CloudException, InternalException {
-        fetchKeys();
+        String stringToSign = AzureSharedKeySigner.getStringToSign(method, method.getURI().getPath(), getStorageAccount(), queryParams);
 
-        ProviderContext ctx = provider.getContext();
-
-        if( ctx == null ) {
-            throw new AzureConfigException("No context was specified for this request");
-        }
-        Header h = method.getFirstHeader("content-type");
-        String contentType = (h == null ? null : h.getValue());
-
-        if( contentType == null ) {
-            contentType = "";
-        }
-        StringBuilder stringToSign = new StringBuilder();
-
-        stringToSign.append(method.getMethod().toUpperCase()).append("\n");
-        stringToSign.append("\n"); // content-md5
-        stringToSign.append(contentType).append("\n");
-        stringToSign.append(method.getFirstHeader("date").getValue()).append("\n");
-
-        Header[] headers = method.getAllHeaders();
-        TreeSet<String> keys = new TreeSet<String>();
-
-        for( Header header  : headers ) {
-            if( header.getName().startsWith(Header_Prefix_MS) ) {
-                keys.add(header.getName().toLowerCase());
-            }
-        }
-
-        for( String key : keys ) {
-            Header header = method.getFirstHeader(key);
-
-            if( header != null ) {
-                Header[] all = method.getHeaders(key);
-
-                stringToSign.append(key.toLowerCase().trim()).append(":");
-                if( all != null && all.length > 0 ) {
-                    for( Header current : all ) {
-                        String v = (current.getValue() != null ? current.getValue() : "");
-
-                        stringToSign.append(v.trim().replaceAll("\n", " ")).append(",");
-                    }
-                }
-                stringToSign.deleteCharAt(stringToSign.lastIndexOf(","));
-            }
-            else {
-                stringToSign.append(key.toLowerCase().trim()).append(":");
-            }
-            stringToSign.append("\n");
-        }
-
-        stringToSign.append("/").append(getStorageAccount()).append(method.getURI().getPath());
-
-        keys.clear();
-        for( String key : queryParams.keySet() ) {
-            if( key.equalsIgnoreCase("comp") ) {
-                key = key.toLowerCase();
-                keys.add(key);
-            }
-        }
-        if( !keys.isEmpty() ) {
-            stringToSign.append("?");
-            for( String key : keys ) {
-                String value = queryParams.get(key);
-
-                if( value == null ) {
-                    value = "";
-                }
-                stringToSign.append(key).append("=").append(value).append("&");
-            }
-            stringToSign.deleteCharAt(stringToSign.lastIndexOf("&"));
+        if( logger.isDebugEnabled() ) {
+            logger.debug("BEGIN STRING TO SIGN");
+            logger.debug(stringToSign);
+            logger.debug("END STRING TO SIGN");
         }
-        try {
-            if( logger.isDebugEnabled() ) {
-                logger.debug("BEGIN STRING TO SIGN");
-                logger.debug(stringToSign.toString());
-                logger.debug("END STRING TO SIGN");
-            }
-            Mac mac = Mac.getInstance("HmacSHA256");
-            mac.init(new SecretKeySpec(Base64.decodeBase64(ctx.getStoragePrivate()), "HmacSHA256"));
+        String signature = AzureSharedKeySigner.sign(getKey(), stringToSign);
 
-            String signature = new String(Base64.encodeBase64(mac.doFinal(stringToSign.toString().getBytes("UTF-8"))));
-
-            if( logger.isDebugEnabled() ) {
-                logger.debug("signature=" + signature);
-            }
-            return signature;
-        }
-        catch( UnsupportedEncodingException e ) {
-            logger.error("UTF-8 not supported: " + e.getMessage());
-            throw new InternalException(e);
-        }
-        catch( NoSuchAlgorithmException e ) {
-            logger.error("No such algorithm: " + e.getMessage());
-            throw new InternalException(e);
-        }
-        catch( InvalidKeyException e ) {
-            logger.error("Invalid key: " + e.getMessage());
-            throw new InternalException(e);
+        if( logger.isDebugEnabled() ) {
+            logger.debug("signature=" + signature);
         }
+        return signature;
     }
 
     public static Document createDoc() throws InternalException{
@@ -327,8 +229,27 @@ public class AzureStorageMethod {
 		}
 	}
 	
+    public Document getAsDoc(@Nonnull String httpVerb, @Nonnull String resource, @Nullable Map<String, String> queries, @Nullable String body, @Nullable Map<String, String> headerMap, boolean authorization) throws CloudException, InternalException {
+        AzureRetryPolicy policy = AzureRetryPolicy.getInstance(provider, "storage");
+
+        for( int attempt=1; ; attempt++ ) {
+            retryAfter = -1L;
+            try {
+                return doGetAsDoc(httpVerb, resource, queries, body, headerMap, authorization);
+            }
+            catch( CloudException e ) {
+                if( attempt == 1 && isRejectedKey(e, authorization) ) {
+                    continue;
+                }
+                if( !policy.retry(attempt, e, !httpVerb.equals("POST"), retryAfter) ) {
+                    throw e;
+                }
+            }
+        }
+    }
+
 	@SuppressWarnings("deprecation")
-	public Document getAsDoc(@Nonnull String httpVerb, @Nonnull String resource, @Nullable Map<String, String> queries, @Nullable String body, @Nullable Map<String, String> headerMap, boolean authorization) throws CloudException, InternalException {
+	private Document doGetAsDoc(@Nonnull String httpVerb, @Nonnull String resource, @Nullable Map<String, String> queries, @Nullable String body, @Nullable Map<String, String> headerMap, boolean authorization) throws CloudException, InternalException {
         if( logger.isTraceEnabled() ) {
             logger.trace("enter - " + AzureStorageMethod.class.getName() + "." + httpVerb + "(" + getStorageAccount() + "," + resource + ")");
         }
@@ -375,6 +296,7 @@ public class AzureStorageMethod {
             try {
                 response = client.execute(method);
                 status = response.getStatusLine();
+                retryAfter = AzureMethod.parseRetryAfter(response.getFirstHeader("Retry-After"));
             }
             catch( IOException e ) {
                 logger.error("GET(): Failed to execute HTTP request due to a cloud I/O error: " + e.getMessage());
@@ -401,6 +323,8 @@ public class AzureStorageMethod {
             }
             
             if( status.getStatusCode() == HttpServletResponse.SC_NOT_FOUND ) {
+                // hand the connection back to the pool
+                EntityUtils.consumeQuietly(response.getEntity());
                 return null;
             }
             if( status.getStatusCode() != HttpServletResponse.SC_OK && status.getStatusCode() != HttpServletResponse.SC_NON_AUTHORITATIVE_INFORMATION ) {
@@ -469,6 +393,43 @@ public class AzureStorageMethod {
 	
 	
     public @Nullable InputStream getAsStream(@Nonnull String strMethod, @Nonnull String resource, @Nonnull Map<String, String> queries, @Nullable String body,  @Nullable Map<String, String> headerMap, boolean authorization) throws CloudException, InternalException {
+        return getAsStream(strMethod, resource, queries, body, headerMap, authorization, null);
+    }
+
+    /**
+     * Opens the content of a response, also handing back its headers, such as the <code>Content-MD5</code> of a
+     * range to check the content against.
+     * @param strMethod the HTTP method
+     * @param resource the blob resource
+     * @param queries the query parameters
+     * @param body the request body, if any
+     * @param headerMap the request headers
+     * @param authorization true if the request should be signed
+     * @param responseHeaders a map to put the first value of each response header into, if any
+     * @return the content or <code>null</code> if the resource does not exist
+     * @throws CloudException the request failed
+     * @throws InternalException the request could not be signed
+     */
+    public @Nullable InputStream getAsStream(@Nonnull String strMethod, @Nonnull String resource, @Nonnull Map<String, String> queries, @Nullable String body,  @Nullable Map<String, String> headerMap, boolean authorization, @Nullable Map<String, String> responseHeaders) throws CloudException, InternalException {
+        AzureRetryPolicy policy = AzureRetryPolicy.getInstance(provider, "storage");
+
+        for( int attempt=1; ; attempt++ ) {
+            retryAfter = -1L;
+            try {
+                return doGetAsStream(strMethod, resource, queries, body, headerMap, authorization, responseHeaders);
+            }
+            catch( CloudException e ) {
+                if( attempt == 1 && isRejectedKey(e, authorization) ) {
+                    continue;
+                }
+                if( !policy.retry(attempt, e, !strMethod.equals("POST"), retryAfter) ) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private @Nullable InputStream doGetAsStream(@Nonnull String strMethod, @Nonnull String resource, @Nonnull Map<String, String> queries, @Nullable String body,  @Nullable Map<String, String> headerMap, boolean authorization, @Nullable Map<String, String> responseHeaders) throws CloudException, InternalException {
         if( logger.isTraceEnabled() ) {
             logger.trace("enter - " + AzureStorageMethod.class.getName() + "." + strMethod + "(" + getStorageAccount() + "," + resource + ")");
         }
@@ -518,6 +479,7 @@ public class AzureStorageMethod {
             try {
                 response = client.execute(method);
                 status = response.getStatusLine();
+                retryAfter = AzureMethod.parseRetryAfter(response.getFirstHeader("Retry-After"));
             }
             catch( IOException e ) {
                 logger.error("post(): Failed to execute HTTP request due to a cloud I/O error: " + e.getMessage());
@@ -545,9 +507,11 @@ public class AzureStorageMethod {
             }
             
             if( status.getStatusCode() == HttpServletResponse.SC_NOT_FOUND ) {
+                // hand the connection back to the pool
+                EntityUtils.consumeQuietly(response.getEntity());
                 return null;
             }
-            if( status.getStatusCode() != HttpServletResponse.SC_OK && status.getStatusCode() != HttpServletResponse.SC_NON_AUTHORITATIVE_INFORMATION ) {
+            if( status.getStatusCode() != HttpServletResponse.SC_OK && status.getStatusCode() != HttpServletResponse.SC_NON_AUTHORITATIVE_INFORMATION && status.getStatusCode() != HttpServletResponse.SC_PARTIAL_CONTENT ) {
                 logger.error(strMethod + "(): Expected OK for " + strMethod + "request, got " + status.getStatusCode());
                 
                 HttpEntity entity = response.getEntity();
@@ -582,6 +546,13 @@ public class AzureStorageMethod {
                 if( entity == null ) {
                     return null;
                 }
+                if( responseHeaders != null ) {
+                    for( Header header : headers ) {
+                        if( header.getValue() != null && !responseHeaders.containsKey(header.getName()) ) {
+                            responseHeaders.put(header.getName(), header.getValue());
+                        }
+                    }
+                }
                 InputStream input;
 
                 try {                	
@@ -618,27 +589,15 @@ public class AzureStorageMethod {
         }
         String endpoint = getStorageEnpoint();
         boolean ssl = endpoint.startsWith("https");
-        int targetPort;
 
         try {
-        	
-            URI uri = new URI(endpoint);
-            targetPort = uri.getPort();
-            
-            if( targetPort < 1 ) {
-                targetPort = (ssl ? 443 : 80);
-            }
+            new URI(endpoint);
         }
         catch( URISyntaxException e ) {
             throw new AzureConfigException(e);
         }
-        HttpParams params = new BasicHttpParams();
-   
-        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
-       
-        HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
-        
         Properties p = ctx.getCustomProperties();
+        HttpHost proxy = null;
 
         if( p != null ) {
             String proxyHost = p.getProperty("proxyHost");
@@ -650,73 +609,37 @@ public class AzureStorageMethod {
                 if( proxyPort != null && proxyPort.length() > 0 ) {
                     port = Integer.parseInt(proxyPort);
                 }
-                params.setParameter(ConnRoutePNames.DEFAULT_PROXY, new HttpHost(proxyHost, port, ssl ? "https" : "http"));
+                proxy = new HttpHost(proxyHost, port, ssl ? "https" : "http");
             }
         }
-        return new DefaultHttpClient (params);
-        
-    }
-
+        // storage requests are signed with the account key rather than the management certificate, so every
+        // provider talking to the same endpoint can share one pool
+        String poolKey = "storage|" + endpoint + (proxy == null ? "" : "|" + proxy.toHostString());
+        HttpClient pooled = AzureHttpClientPool.getClient(poolKey);
 
-    public @Nonnull Document parseResponse(@Nonnull String responseBody, boolean withWireLogging) throws CloudException, InternalException {
-        try {
-            if( wire != null && wire.isDebugEnabled() ) {
-                String[] lines = responseBody.split("\n");
+        if( pooled != null ) {
+            return pooled;
+        }
+        HttpParams params = new BasicHttpParams();
+   
+        HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+        HttpProtocolParams.setContentCharset(params, HTTP.UTF_8);
+        if( proxy != null ) {
+            params.setParameter(ConnRoutePNames.DEFAULT_PROXY, proxy);
+        }
+        int maxPerRoute = provider.getIntProperty(AzureHttpClientPool.STORAGE_MAX_CONNECTIONS_PER_ROUTE, AzureHttpClientPool.DEFAULT_STORAGE_MAX_PER_ROUTE);
 
-                if( lines.length < 1 ) {
-                    lines = new String[] { responseBody };
-                }
-                for( String l : lines ) {
-                    wire.debug(l);
-                }
-                wire.debug("");
-            }
-            ByteArrayInputStream bas = new ByteArrayInputStream(responseBody.getBytes());
+        return AzureHttpClientPool.register(provider, poolKey, SchemeRegistryFactory.createDefault(), params, maxPerRoute);
+    }
 
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder parser = factory.newDocumentBuilder();
-            Document doc = parser.parse(bas);
 
-            bas.close();
-            return doc;
-        }
-        catch( IOException e ) {
-            throw new CloudException(e);
-        }
-        catch( ParserConfigurationException e ) {
-            throw new CloudException(e);
-        }
-        catch( SAXException e ) {
-            throw new CloudException(e);
-        }
+    public @Nonnull Document parseResponse(@Nonnull String responseBody, boolean withWireLogging) throws CloudException, InternalException {
+        return AzureDocumentParser.parse(responseBody, wire);
     }
     
     public @Nonnull Document parseResponse(@Nonnull InputStream responseBodyAsStream, boolean withWireLogging) throws CloudException, InternalException {
-        try {
-            BufferedReader in = new BufferedReader(new InputStreamReader(responseBodyAsStream, "UTF-8"));
-            StringBuilder sb = new StringBuilder();
-            String line;
-
-            while( (line = in.readLine()) != null ) {
-                sb.append(line);
-                sb.append("\n");
-            }
-            in.close();          
-            // The response may start with ? instead of <
-            String strResponse= sb.toString();
-                           
-            int index = strResponse.indexOf("<");
-            
-            if(index > 0){
-            	return parseResponse(strResponse.substring(index), withWireLogging);
-            }else{
-            	return parseResponse(strResponse, withWireLogging);
-            }
-            
-        }
-        catch( IOException e ) {
-            throw new CloudException(e);
-        }
+        // The response may start with ? instead of <
+        return AzureDocumentParser.parse(responseBodyAsStream, wire, true);
     }
     
 	public String buildUrl(String resource, Map<String, String> queries) throws InternalException, CloudException {
@@ -767,6 +690,116 @@ public class AzureStorageMethod {
 	
 	
     public String getBlobProperty(@Nonnull String strMethod, @Nonnull String resource, @Nonnull Map<String, String> queries, String body, @Nullable Map<String, String> headerMap, boolean authorization, String propertyName) throws CloudException, InternalException {
+        Map<String,String> properties = getBlobProperties(strMethod, resource, queries, body, headerMap, authorization);
+
+        return (properties == null ? null : properties.get(propertyName));
+    }
+
+    /**
+     * Fetches every response header of a request, typically a <code>HEAD</code> on a blob, in one round trip. The
+     * result of a plain <code>HEAD</code> on a blob or container also refreshes the {@link AzureBlobPropertyCache}.
+     * @param strMethod the HTTP method
+     * @param resource the blob or container resource
+     * @param queries the query parameters
+     * @param body the request body, if any
+     * @param headerMap the request headers
+     * @param authorization true if the request should be signed
+     * @return the first value of each response header keyed case-insensitively by name or <code>null</code> if
+     * the resource does not exist
+     * @throws CloudException the request failed
+     * @throws InternalException the request could not be signed
+     */
+    public @Nullable Map<String,String> getBlobProperties(@Nonnull String strMethod, @Nonnull String resource, @Nonnull Map<String, String> queries, @Nullable String body, @Nullable Map<String, String> headerMap, boolean authorization) throws CloudException, InternalException {
+        Map<String,String> properties = fetchBlobProperties(strMethod, resource, queries, body, headerMap, authorization);
+
+        if( strMethod.equals("HEAD") && authorization && (headerMap == null || headerMap.isEmpty()) ) {
+            boolean container = (queries.size() == 1 && "container".equals(queries.get("restype")));
+
+            // only plain property requests on a blob or a container say whether the resource exists
+            if( (container && resource.indexOf('/') == -1) || (queries.isEmpty() && resource.indexOf('/') > 0) ) {
+                AzureBlobPropertyCache.getInstance().put(provider, getStorageAccount(), resource, properties);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Fetches the properties of a blob with a <code>HEAD</code> request unless they were fetched or listed within
+     * the last few seconds and the blob has not been changed through this library since. Only for checks that can
+     * live with changes made elsewhere showing up late; anything that must see the current state of the blob uses
+     * {@link #getBlobProperties(String, String, Map, String, Map, boolean)}.
+     * @param resource the container and blob name separated by a slash
+     * @return the properties of the blob keyed case-insensitively by name or <code>null</code> if it does not exist
+     * @throws CloudException the request failed
+     * @throws InternalException the request could not be signed
+     */
+    public @Nullable Map<String,String> getCachedBlobProperties(@Nonnull String resource) throws CloudException, InternalException {
+        AzureBlobPropertyCache.Entry entry = AzureBlobPropertyCache.getInstance().get(getStorageAccount(), resource);
+
+        if( entry != null ) {
+            return entry.getProperties();
+        }
+        return getBlobProperties("HEAD", resource, new HashMap<String, String>(), null, null, true);
+    }
+
+    /**
+     * Fetches the properties of a container like {@link #getCachedBlobProperties(String)} does for a blob.
+     * @param container the name of the container
+     * @return the properties of the container keyed case-insensitively by name or <code>null</code> if it does not
+     * exist
+     * @throws CloudException the request failed
+     * @throws InternalException the request could not be signed
+     */
+    public @Nullable Map<String,String> getCachedContainerProperties(@Nonnull String container) throws CloudException, InternalException {
+        AzureBlobPropertyCache.Entry entry = AzureBlobPropertyCache.getInstance().get(getStorageAccount(), container);
+
+        if( entry != null ) {
+            return entry.getProperties();
+        }
+        HashMap<String,String> queries = new HashMap<String, String>();
+
+        queries.put("restype", "container");
+        return getBlobProperties("HEAD", container, queries, null, null, true);
+    }
+
+    /**
+     * Drops what the property cache knows about a resource a request may have changed.
+     */
+    private void invalidate(@Nonnull String strMethod, @Nonnull String resource) {
+        if( strMethod.equals("GET") || strMethod.equals("HEAD") ) {
+            return;
+        }
+        try {
+            AzureBlobPropertyCache.getInstance().invalidate(getStorageAccount(), resource);
+        }
+        catch( CloudException e ) {
+            logger.warn("Unable to invalidate the properties of " + resource + ": " + e.getMessage());
+        }
+        catch( InternalException e ) {
+            logger.warn("Unable to invalidate the properties of " + resource + ": " + e.getMessage());
+        }
+    }
+
+    private @Nullable Map<String,String> fetchBlobProperties(@Nonnull String strMethod, @Nonnull String resource, @Nonnull Map<String, String> queries, @Nullable String body, @Nullable Map<String, String> headerMap, boolean authorization) throws CloudException, InternalException {
+        AzureRetryPolicy policy = AzureRetryPolicy.getInstance(provider, "storage");
+
+        for( int attempt=1; ; attempt++ ) {
+            retryAfter = -1L;
+            try {
+                return doFetchBlobProperties(strMethod, resource, queries, body, headerMap, authorization);
+            }
+            catch( CloudException e ) {
+                if( attempt == 1 && isRejectedKey(e, authorization) ) {
+                    continue;
+                }
+                if( !policy.retry(attempt, e, !strMethod.equals("POST"), retryAfter) ) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private @Nullable Map<String,String> doFetchBlobProperties(@Nonnull String strMethod, @Nonnull String resource, @Nonnull Map<String, String> queries, @Nullable String body, @Nullable Map<String, String> headerMap, boolean authorization) throws CloudException, InternalException {
         if( logger.isTraceEnabled() ) {
             logger.trace("enter - " + AzureStorageMethod.class.getName() + "." + strMethod + "(" + getStorageAccount() + "," + resource + ")");
         }
@@ -814,6 +847,7 @@ public class AzureStorageMethod {
             try {
                 response = client.execute(method);
                 status = response.getStatusLine();
+                retryAfter = AzureMethod.parseRetryAfter(response.getFirstHeader("Retry-After"));
             }
             catch( IOException e ) {
                 logger.error("post(): Failed to execute HTTP request due to a cloud I/O error: " + e.getMessage());
@@ -840,6 +874,8 @@ public class AzureStorageMethod {
                 wire.debug("");
             }
             if( status.getStatusCode() == HttpServletResponse.SC_NOT_FOUND ) {
+                // hand the connection back to the pool
+                EntityUtils.consumeQuietly(response.getEntity());
                 return null;
             }
             if((status.getStatusCode() != HttpServletResponse.SC_CREATED
@@ -875,12 +911,15 @@ public class AzureStorageMethod {
                 throw new AzureException(items);
             }
             else{
-            	Header header = response.getFirstHeader(propertyName);
-            	if(header != null){
-            		return header.getValue();          		
-            	}else{
-            		return null;
-            	}
+                EntityUtils.consumeQuietly(response.getEntity());
+                TreeMap<String,String> properties = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+
+                for( Header header : response.getAllHeaders() ) {
+                    if( header.getValue() != null && !properties.containsKey(header.getName()) ) {
+                        properties.put(header.getName(), header.getValue());
+                    }
+                }
+                return properties;
             }
         } catch (UnsupportedEncodingException e) {			
         	throw new CloudException(e);
@@ -897,6 +936,26 @@ public class AzureStorageMethod {
     }
     
     public void invoke(@Nonnull String strMethod, @Nonnull String resource, @Nonnull Map<String, String> queries, @Nullable String body, @Nullable Map<String, String> headerMap, boolean authorization) throws CloudException, InternalException {
+        AzureRetryPolicy policy = AzureRetryPolicy.getInstance(provider, "storage");
+
+        for( int attempt=1; ; attempt++ ) {
+            retryAfter = -1L;
+            try {
+                doInvoke(strMethod, resource, queries, body, headerMap, authorization);
+                return;
+            }
+            catch( CloudException e ) {
+                if( attempt == 1 && isRejectedKey(e, authorization) ) {
+                    continue;
+                }
+                if( !policy.retry(attempt, e, !strMethod.equals("POST"), retryAfter) ) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void doInvoke(@Nonnull String strMethod, @Nonnull String resource, @Nonnull Map<String, String> queries, @Nullable String body, @Nullable Map<String, String> headerMap, boolean authorization) throws CloudException, InternalException {
         if( logger.isTraceEnabled() ) {
             logger.trace("enter - " + AzureStorageMethod.class.getName() + "." + strMethod + "(" + getStorageAccount() + "," + resource + ")");
         }
@@ -943,6 +1002,7 @@ public class AzureStorageMethod {
             try {
                 response = client.execute(method);
                 status = response.getStatusLine();
+                retryAfter = AzureMethod.parseRetryAfter(response.getFirstHeader("Retry-After"));
             }
             catch( IOException e ) {
                 logger.error("post(): Failed to execute HTTP request due to a cloud I/O error: " + e.getMessage());
@@ -1001,10 +1061,12 @@ public class AzureStorageMethod {
                     throw new AzureException(CloudErrorType.GENERAL, status.getStatusCode(), "UnknownError", result);
                 }
             }
+            EntityUtils.consumeQuietly(response.getEntity());
         } catch (UnsupportedEncodingException e) {			
         	throw new CloudException(e);
 		}
         finally {
+            invalidate(strMethod, resource);
             if( logger.isTraceEnabled() ) {
                 logger.trace("exit - " + AzureMethod.class.getName() + ".getStream()");
             }
@@ -1016,6 +1078,27 @@ public class AzureStorageMethod {
     }
     
     public void putWithFile(@Nonnull String strMethod, @Nonnull String resource, Map<String, String> queries, File file, Map<String, String> headerMap, boolean authorization) throws CloudException, InternalException {
+        AzureRetryPolicy policy = AzureRetryPolicy.getInstance(provider, "storage");
+
+        for( int attempt=1; ; attempt++ ) {
+            retryAfter = -1L;
+            try {
+                // the file entity is read afresh on every attempt
+                doPutWithFile(strMethod, resource, queries, file, headerMap, authorization);
+                return;
+            }
+            catch( CloudException e ) {
+                if( attempt == 1 && isRejectedKey(e, authorization) ) {
+                    continue;
+                }
+                if( !policy.retry(attempt, e, !strMethod.equals("POST"), retryAfter) ) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void doPutWithFile(@Nonnull String strMethod, @Nonnull String resource, Map<String, String> queries, File file, Map<String, String> headerMap, boolean authorization) throws CloudException, InternalException {
         if( logger.isTraceEnabled() ) {
             logger.trace("enter - " + AzureStorageMethod.class.getName() + "." + strMethod + "(" + getStorageAccount() + "," + resource + ")");
         }
@@ -1069,6 +1152,7 @@ public class AzureStorageMethod {
             try {
                 response = client.execute(method);
                 status = response.getStatusLine();
+                retryAfter = AzureMethod.parseRetryAfter(response.getFirstHeader("Retry-After"));
             }
             catch( IOException e ) {
                 logger.error("post(): Failed to execute HTTP request due to a cloud I/O error: " + e.getMessage());
@@ -1124,8 +1208,10 @@ public class AzureStorageMethod {
                 logger.error(strMethod + "(): [" + status.getStatusCode() + " : " + items.message + "] " + items.details);
                 throw new AzureException(items);
             }
+            EntityUtils.consumeQuietly(response.getEntity());
         }
         finally {
+            invalidate(strMethod, resource);
             if( logger.isTraceEnabled() ) {
                 logger.trace("exit - " + AzureMethod.class.getName() + ".getStream()");
             }
@@ -1138,6 +1224,59 @@ public class AzureStorageMethod {
     
   
     public void putWithBytes(@Nonnull String strMethod, @Nonnull String resource, Map<String, String> queries, byte[] body, Map<String, String> headerMap, boolean authorization) throws CloudException, InternalException {
+        AzureRetryPolicy policy = AzureRetryPolicy.getInstance(provider, "storage");
+
+        for( int attempt=1; ; attempt++ ) {
+            retryAfter = -1L;
+            try {
+                doPutWithEntity(strMethod, resource, queries, (body == null ? null : new ByteArrayEntity(body)), headerMap, authorization);
+                return;
+            }
+            catch( CloudException e ) {
+                if( attempt == 1 && isRejectedKey(e, authorization) ) {
+                    continue;
+                }
+                if( !policy.retry(attempt, e, !strMethod.equals("POST"), retryAfter) ) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the content of a buffer, from its position to its limit. A heap buffer is written to the connection
+     * straight from its backing array. The buffer's position is left unchanged, so each retry sends the same
+     * content.
+     * @param strMethod the HTTP method
+     * @param resource the blob resource
+     * @param queries the query parameters
+     * @param body the content to send
+     * @param headerMap the request headers
+     * @param authorization true if the request should be signed
+     * @throws CloudException the request failed
+     * @throws InternalException the request could not be signed
+     */
+    public void putWithBuffer(@Nonnull String strMethod, @Nonnull String resource, Map<String, String> queries, @Nonnull ByteBuffer body, Map<String, String> headerMap, boolean authorization) throws CloudException, InternalException {
+        AzureRetryPolicy policy = AzureRetryPolicy.getInstance(provider, "storage");
+
+        for( int attempt=1; ; attempt++ ) {
+            retryAfter = -1L;
+            try {
+                doPutWithEntity(strMethod, resource, queries, new ByteBufferEntity(body), headerMap, authorization);
+                return;
+            }
+            catch( CloudException e ) {
+                if( attempt == 1 && isRejectedKey(e, authorization) ) {
+                    continue;
+                }
+                if( !policy.retry(attempt, e, !strMethod.equals("POST"), retryAfter) ) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private void doPutWithEntity(@Nonnull String strMethod, @Nonnull String resource, Map<String, String> queries, @Nullable HttpEntity body, Map<String, String> headerMap, boolean authorization) throws CloudException, InternalException {
         if( logger.isTraceEnabled() ) {
             logger.trace("enter - " + AzureStorageMethod.class.getName() + "." + strMethod + "(" + getStorageAccount() + "," + resource + ")");
         }
@@ -1150,13 +1289,6 @@ public class AzureStorageMethod {
         try {
 
             HttpClient client =  getClient();
-            
-            String contentLength = null;
-            if(body != null){        	
-            	contentLength = String.valueOf(body.length);            	
-            }else{
-            	contentLength = "0";        	
-            }
 
             HttpRequestBase method = getMethod(strMethod, buildUrl(resource, queries), queries, headerMap, authorization );
      	
@@ -1167,7 +1299,7 @@ public class AzureStorageMethod {
                 }
                 wire.debug("");
                 if( body != null ) {
-                    wire.debug(body);
+                    wire.debug("[" + body.getContentLength() + " bytes]");
                     wire.debug("");
                 }
             }
@@ -1178,7 +1310,7 @@ public class AzureStorageMethod {
             	HttpEntityEnclosingRequestBase entityEnclosingMethod = (HttpEntityEnclosingRequestBase) method;
             	
 	            if (body != null) {
-					entityEnclosingMethod.setEntity(new ByteArrayEntity(body));
+					entityEnclosingMethod.setEntity(body);
 	            }           	
             }           
           
@@ -1188,6 +1320,7 @@ public class AzureStorageMethod {
             try {
                 response = client.execute(method);
                 status = response.getStatusLine();
+                retryAfter = AzureMethod.parseRetryAfter(response.getFirstHeader("Retry-After"));
             }
             catch( IOException e ) {
                 logger.error("post(): Failed to execute HTTP request due to a cloud I/O error: " + e.getMessage());
@@ -1241,8 +1374,10 @@ public class AzureStorageMethod {
                 logger.error(strMethod + "(): [" + status.getStatusCode() + " : " + items.message + "] " + items.details);
                 throw new AzureException(items);
             }
+            EntityUtils.consumeQuietly(response.getEntity());
         }
         finally {
+            invalidate(strMethod, resource);
             if( logger.isTraceEnabled() ) {
                 logger.trace("exit - " + AzureMethod.class.getName() + ".getStream()");
             }
@@ -1293,7 +1428,9 @@ public class AzureStorageMethod {
 
 		rfc1123Format.setTimeZone(TimeZone.getTimeZone("GMT"));
         headers.put("Date", rfc1123Format.format(new Date()));
-        headers.put(Header_Prefix_MS + "version", VERSION);
+        if( !headers.containsKey(Header_Prefix_MS + "version") ) {
+            headers.put(Header_Prefix_MS + "version", VERSION);
+        }
         for(String key: headers.keySet() ){
             method.addHeader(key, headers .get(key));
 		}
@@ -18,6 +18,7 @@
 
 package org.dasein.cloud.azure;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.util.io.pem.PemObject;
 import org.bouncycastle.util.io.pem.PemReader;
@@ -25,6 +26,8 @@ import org.dasein.cloud.ContextRequirements;
 import org.dasein.cloud.InternalException;
 import org.dasein.cloud.ProviderContext;
 
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.StringReader;
@@ -36,7 +39,11 @@ import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * X509 certficate management for integration with Azure's outmoded form of authentication.
@@ -53,35 +60,129 @@ public class AzureX509 {
         Security.addProvider(new BouncyCastleProvider());
     }
 
-    private KeyStore        keystore;
+    static private final ConcurrentHashMap<String,AzureX509> credentials = new ConcurrentHashMap<String, AzureX509>();
+
+    // keyed by the key pair array held in the context, which is compared by identity, so a context that is given
+    // a new key pair gets a new fingerprint and one that is discarded drops its entry
+    static private final Map<byte[][],String> fingerprints = Collections.synchronizedMap(new WeakHashMap<byte[][], String>());
+
+    /**
+     * Provides the parsed credentials for the specified provider, parsing the key pair only the first time a
+     * given certificate and key are seen.
+     * @param provider the provider whose credentials are needed
+     * @return the cached credentials for the key pair in the provider context
+     * @throws InternalException the key pair could not be read or parsed
+     */
+    static public @Nonnull AzureX509 getInstance(@Nonnull Azure provider) throws InternalException {
+        String fingerprint = getFingerprint(provider);
+        AzureX509 x509 = credentials.get(fingerprint);
+
+        if( x509 == null ) {
+            x509 = new AzureX509(getKeyPair(provider));
+
+            AzureX509 existing = credentials.putIfAbsent(fingerprint, x509);
+
+            if( existing != null ) {
+                x509 = existing;
+            }
+        }
+        return x509;
+    }
+
+    /**
+     * Discards the cached credentials and any pooled connections established with them. Use this when a
+     * certificate has been revoked or rotated.
+     * @param fingerprint the fingerprint of the credentials to discard
+     */
+    static public void invalidate(@Nonnull String fingerprint) {
+        credentials.remove(fingerprint);
+        AzureHttpClientPool.invalidate(fingerprint);
+    }
+
+    /**
+     * Discards the cached credentials for the key pair in the specified provider's context.
+     * @param provider the provider whose credentials should be discarded
+     * @throws InternalException the key pair could not be read from the context
+     */
+    static public void invalidate(@Nonnull Azure provider) throws InternalException {
+        invalidate(getFingerprint(provider));
+    }
+
+    private KeyStore              keystore;
+    private AzureSSLSocketFactory socketFactory;
 
     public AzureX509(Azure provider) throws InternalException {
-        ProviderContext ctx = provider.getContext();
+        this(getKeyPair(provider));
+    }
+
+    private AzureX509(String[] keyPair) throws InternalException {
         try {
-            String apiShared = "";
-            String apiSecret = "";
+            X509Certificate certificate = certFromString(keyPair[0]);
+            PrivateKey privateKey = keyFromString(keyPair[1]);
+
+            keystore = createJavaKeystore(certificate, privateKey);
+        }
+        catch( Exception e ) {
+            throw new InternalException(e);
+        }
+    }
+
+    /**
+     * Identifies the management credentials of the specified provider without parsing them. Two contexts
+     * with the same X509 key pair share the same fingerprint. The digest is computed once per key pair held
+     * by a context, so calling this on every request costs a lookup rather than a hash of the key material.
+     * @param provider the provider whose credentials are being identified
+     * @return a SHA-256 digest of the PEM encoded certificate and key
+     * @throws InternalException the key pair could not be read from the context
+     */
+    static public @Nonnull String getFingerprint(@Nonnull Azure provider) throws InternalException {
+        byte[][] source = getKeyPairSource(provider);
+
+        if( source == null ) {
+            return getFingerprint(getKeyPair(provider));
+        }
+        String fingerprint = fingerprints.get(source);
+
+        if( fingerprint == null ) {
+            fingerprint = getFingerprint(getKeyPair(provider));
+            fingerprints.put(source, fingerprint);
+        }
+        return fingerprint;
+    }
+
+    static private @Nonnull String getFingerprint(@Nonnull String[] keyPair) {
+        return DigestUtils.sha256Hex(keyPair[0] + "\n" + keyPair[1]);
+    }
+
+    static private @Nonnull String[] getKeyPair(@Nonnull Azure provider) throws InternalException {
+        byte[][] keyPair = getKeyPairSource(provider);
+        String apiShared = "";
+        String apiSecret = "";
+
+        if( keyPair != null ) {
             try {
-                List<ContextRequirements.Field> fields = provider.getContextRequirements().getConfigurableValues();
-                for(ContextRequirements.Field f : fields ) {
-                    if(f.type.equals(ContextRequirements.FieldType.KEYPAIR)){
-                        byte[][] keyPair = (byte[][])ctx.getConfigurationValue(f);
-                        apiShared = new String(keyPair[0], "utf-8");
-                        apiSecret = new String(keyPair[1], "utf-8");
-                    }
-                }
+                apiShared = new String(keyPair[0], "utf-8");
+                apiSecret = new String(keyPair[1], "utf-8");
             }
             catch (UnsupportedEncodingException ignore) {}
-            //  System.out.println(apiShared);
-            //  System.out.println(apiSecret);
+        }
+        return new String[] { apiShared, apiSecret };
+    }
 
-            X509Certificate certificate = certFromString(apiShared);
-            PrivateKey privateKey = keyFromString(apiSecret);
+    static private @Nullable byte[][] getKeyPairSource(@Nonnull Azure provider) throws InternalException {
+        ProviderContext ctx = provider.getContext();
+        byte[][] keyPair = null;
 
-            keystore = createJavaKeystore(certificate, privateKey);
+        if( ctx == null ) {
+            throw new InternalException("No context was set for this request");
         }
-        catch( Exception e ) {
-            throw new InternalException(e);
+        List<ContextRequirements.Field> fields = provider.getContextRequirements().getConfigurableValues();
+        for(ContextRequirements.Field f : fields ) {
+            if(f.type.equals(ContextRequirements.FieldType.KEYPAIR)){
+                keyPair = (byte[][])ctx.getConfigurationValue(f);
+            }
         }
+        return keyPair;
     }
 
     private X509Certificate certFromString(String pem) throws Exception {
@@ -107,6 +208,18 @@ public class AzureX509 {
         return keystore;
     }
 
+    /**
+     * Provides a socket factory backed by these credentials. The TLS context is initialized once and shared by
+     * every connection made with these credentials.
+     * @return the socket factory for these credentials
+     */
+    public synchronized @Nonnull AzureSSLSocketFactory getSocketFactory() throws InternalException, NoSuchAlgorithmException, KeyManagementException, KeyStoreException, UnrecoverableKeyException {
+        if( socketFactory == null ) {
+            socketFactory = new AzureSSLSocketFactory(this);
+        }
+        return socketFactory;
+    }
+
     private PrivateKey keyFromString(String pem) throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
         PemObject pemObject = (PemObject) readPemObject(pem);
         PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(pemObject.getContent());
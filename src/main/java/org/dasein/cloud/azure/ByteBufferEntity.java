@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure;
+
+import org.apache.http.entity.AbstractHttpEntity;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A repeatable request entity over the content of a buffer, from its position to its limit. Heap buffers are
+ * written straight from their backing array; direct buffers go through a channel over the connection's output
+ * stream, which copies them through a small heap array, so callers should prefer heap buffers. Every write works on a duplicate, so the buffer itself is never moved and the
+ * entity can be sent again on a retry.
+ * @since 2015.06.2
+ * @version 2015.06.2
+ */
+public class ByteBufferEntity extends AbstractHttpEntity {
+    private final ByteBuffer content;
+
+    /**
+     * @param content the content to send, which must not change until the request completes
+     */
+    public ByteBufferEntity(@Nonnull ByteBuffer content) {
+        this.content = content.duplicate();
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return content.remaining();
+    }
+
+    @Override
+    public @Nonnull InputStream getContent() {
+        final ByteBuffer source = content.duplicate();
+
+        return new InputStream() {
+            @Override
+            public int read() {
+                return (source.hasRemaining() ? source.get() & 0xFF : -1);
+            }
+
+            @Override
+            public int read(@Nonnull byte[] bytes, int off, int len) {
+                if( len == 0 ) {
+                    return 0;
+                }
+                if( !source.hasRemaining() ) {
+                    return -1;
+                }
+                len = Math.min(len, source.remaining());
+                source.get(bytes, off, len);
+                return len;
+            }
+
+            @Override
+            public int available() {
+                return source.remaining();
+            }
+        };
+    }
+
+    @Override
+    public void writeTo(@Nonnull OutputStream output) throws IOException {
+        ByteBuffer source = content.duplicate();
+
+        if( source.hasArray() ) {
+            output.write(source.array(), source.arrayOffset() + source.position(), source.remaining());
+        }
+        else {
+            WritableByteChannel channel = Channels.newChannel(output);
+
+            while( source.hasRemaining() ) {
+                channel.write(source);
+            }
+        }
+        output.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+}
@@ -181,15 +181,7 @@ public class AzureDisk implements VolumeSupport {
         if(requestId == null)
             return;
 
-        AzureMethod method = new AzureMethod(provider);
-        int httpCode = method.getOperationStatus(requestId);
-        while (httpCode == -1) {
-            try {
-                Thread.sleep(15000L);
-            }
-            catch (InterruptedException ignored){}
-            httpCode = method.getOperationStatus(requestId);
-        }
+        provider.getOperationTracker().waitFor(requestId);
     }
 
     private String getDataDiskName(VirtualMachine virtualMachine, String lun) throws CloudException, InternalException {
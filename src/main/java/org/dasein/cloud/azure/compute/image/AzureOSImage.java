@@ -155,14 +155,18 @@ public class AzureOSImage extends AbstractImageSupport<Azure> {
                 String operationUrl = String.format(AzureVM.OPERATIONS_RESOURCES, vm.getTag("serviceName").toString(),
                         vm.getTag("deploymentName").toString(), vm.getTag("roleName").toString());
                 AzureMethod method = new AzureMethod(provider);
+                String requestId;
                 try {
-                    method.post(operationUrl, captureVMImageOperation);
+                    requestId = method.post(operationUrl, captureVMImageOperation);
                 }
                 catch (JAXBException e)
                 {
                     logger.error(e.getMessage());
                     throw new InternalException(e);
                 }
+                if (requestId != null) {
+                    provider.getOperationTracker().waitFor(requestId);
+                }
 
                 MachineImage img = null;
                 try {
@@ -219,6 +223,17 @@ public class AzureOSImage extends AbstractImageSupport<Azure> {
         return null;
     }
 
+    /**
+     * Lists every image {@link #getImage(String)} searches, so callers resolving many image IDs can load the
+     * catalog once rather than once per lookup.
+     * @return the private and public OS images visible to the current account
+     * @throws CloudException an error occurred with the cloud provider loading the images
+     * @throws InternalException an error occurred within Dasein Cloud loading the images
+     */
+    public @Nonnull Iterable<MachineImage> listAllImages() throws CloudException, InternalException {
+        return getAllImages(false, true, true);
+    }
+
     @Override
     public @Nonnull String getProviderTermForImage(@Nonnull Locale locale) {
         return "OS image";
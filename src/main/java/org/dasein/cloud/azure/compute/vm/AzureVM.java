@@ -29,6 +29,7 @@ import org.dasein.cloud.Tag;
 import org.dasein.cloud.azure.Azure;
 import org.dasein.cloud.azure.AzureConfigException;
 import org.dasein.cloud.azure.AzureMethod;
+import org.dasein.cloud.azure.AzureRetryPolicy;
 import org.dasein.cloud.azure.AzureService;
 import org.dasein.cloud.azure.compute.image.AzureMachineImage;
 import org.dasein.cloud.azure.compute.vm.model.ConfigurationSetModel;
@@ -78,6 +79,13 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Implements virtual machine support for Microsoft Azure.
@@ -96,6 +104,10 @@ public class AzureVM extends AbstractVMSupport<Azure> {
     static public final String DEPLOYMENT_RESOURCE = "/services/hostedservices/%s/deployments/%s";
     static public final String OPERATIONS_RESOURCES = "/services/hostedservices/%s/deployments/%s/roleInstances/%s/Operations";
 
+    static public final String BULK_LISTING        = "bulkListing";
+    static public final String LISTING_PARALLELISM = "listingParallelism";
+    static public final String LISTING_TIMEOUT     = "listingTimeout";
+
     public AzureVM(Azure provider) {
         super(provider);
     }
@@ -216,25 +228,8 @@ public class AzureVM extends AbstractVMSupport<Azure> {
             else {
                 requestId="noChange";
             }
-
-                resourceDir = HOSTED_SERVICES + "/" + serviceName + "/deployments/" +  deploymentName + "/roles/" + roleName;
-                requestId = method.invoke("PUT", ctx.getAccountNumber(), resourceDir, xml.toString());
-            }
-            else {
-                requestId="noChange";
-            }
-            if (requestId != null) {
-                int httpCode = -1;
-                if (!requestId.equals("noChange")) {
-                    httpCode = method.getOperationStatus(requestId);
-                    while (httpCode == -1) {
-                        try {
-                            Thread.sleep(15000L);
-                        }
-                        catch (InterruptedException ignored){}
-                        httpCode = method.getOperationStatus(requestId);
-                    }
-                }
+            if (requestId != null && !requestId.equals("noChange")) {
+                getProvider().getOperationTracker().waitFor(requestId);
             }
 
             return getVirtualMachine(virtualMachineId);
@@ -385,6 +380,7 @@ public class AzureVM extends AbstractVMSupport<Azure> {
         }
 
         ArrayList<VirtualMachine> list = new ArrayList<VirtualMachine>();
+        ResolutionContext resolution = new ResolutionContext(getProvider(), ctx.getRegionId());
         NodeList deployments = doc.getElementsByTagName("Deployments");
         for (int i = 0; i < deployments.getLength(); i++) {
             Node deployNode = deployments.item(i);
@@ -407,7 +403,7 @@ public class AzureVM extends AbstractVMSupport<Azure> {
                         if ( mynode.getNodeName().equalsIgnoreCase("name") && mynode.hasChildNodes() ) {
                             depName = mynode.getFirstChild().getNodeValue().trim();
                             if (depName.equals(deploymentName)) {
-                                parseDeployment(ctx, ctx.getRegionId(), sName + ":" + deploymentName, deployment, list);
+                                parseDeployment(ctx, ctx.getRegionId(), sName + ":" + deploymentName, deployment, list, resolution);
                                 if (list != null && list.size() > 0) {
                                     for(VirtualMachine vm : list) {
                                         if (vm.getTag("roleName").toString().equalsIgnoreCase(roleName)) {
@@ -530,14 +526,8 @@ public class AzureVM extends AbstractVMSupport<Azure> {
             VirtualMachine vm = null ;
 
             if (requestId != null) {
-                int httpCode = method.getOperationStatus(requestId);
-                while (httpCode == -1) {
-                    try {
-                        Thread.sleep(15000L);
-                    }
-                    catch (InterruptedException ignored){}
-                    httpCode = method.getOperationStatus(requestId);
-                }
+                int httpCode = getProvider().getOperationTracker().waitFor(requestId);
+
                 if (httpCode == HttpServletResponse.SC_OK) {
                     try { vm = getVirtualMachine(hostName + ":" + hostName+":"+hostName); }
                     catch( Throwable ignore ) { }
@@ -577,23 +567,19 @@ public class AzureVM extends AbstractVMSupport<Azure> {
 
     private void DeleteHostedService(String hostName) throws InternalException {
         String resourceDir = HOSTED_SERVICES + "/" + hostName;
-        long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 10L);
-        while( timeout > System.currentTimeMillis() ) {
-            try{
-                if( logger.isInfoEnabled() ) {
-                    logger.info("Deleting hosted service " + hostName);
-                }
-                AzureMethod method = new AzureMethod(getProvider());
-                method.invoke("DELETE", getProvider().getContext().getAccountNumber(), resourceDir, "");
-                break;
-            }
-            catch( CloudException err ) {
-                logger.error("Unable to delete hosted service for " + hostName + ": " + err.getMessage());
-                logger.error("Retrying...");
-                try { Thread.sleep(30000L); }
-                catch( InterruptedException ignore ) { }
-                continue;
+
+        try{
+            if( logger.isInfoEnabled() ) {
+                logger.info("Deleting hosted service " + hostName);
             }
+            AzureMethod method = new AzureMethod(getProvider());
+
+            // the failed deployment may still hold the service for a while
+            method.setRetryPolicy(new AzureRetryPolicy(getProvider(), "deleteHostedService", 10));
+            method.invoke("DELETE", getProvider().getContext().getAccountNumber(), resourceDir, "");
+        }
+        catch( CloudException err ) {
+            logger.error("Unable to delete hosted service for " + hostName + ": " + err.getMessage());
         }
     }
 
@@ -864,6 +850,9 @@ public class AzureVM extends AbstractVMSupport<Azure> {
         if( ctx == null ) {
             throw new AzureConfigException("No context was specified for this request");
         }
+        if( isStreamingListing() ) {
+            return streamVirtualMachineStatus(ctx);
+        }
         AzureMethod method = new AzureMethod(getProvider());
 
         Document doc = method.getAsXML(ctx.getAccountNumber(), HOSTED_SERVICES);
@@ -873,9 +862,15 @@ public class AzureVM extends AbstractVMSupport<Azure> {
         }
         NodeList entries = doc.getElementsByTagName("HostedService");
         ArrayList<ResourceStatus> status = new ArrayList<ResourceStatus>();
+        String regionId = ctx.getRegionId();
+
+        if( regionId == null ) {
+            throw new AzureConfigException("No region ID was specified for this request");
+        }
+        ResolutionContext resolution = new ResolutionContext(getProvider(), regionId);
 
         for( int i=0; i<entries.getLength(); i++ ) {
-            parseHostedServiceForStatus(ctx, entries.item(i), null, status);
+            parseHostedServiceForStatus(ctx, entries.item(i), null, status, resolution);
         }
         return status;
     }
@@ -887,6 +882,9 @@ public class AzureVM extends AbstractVMSupport<Azure> {
         if( ctx == null ) {
             throw new AzureConfigException("No context was specified for this request");
         }
+        if( isStreamingListing() ) {
+            return streamVirtualMachines(ctx);
+        }
         AzureMethod method = new AzureMethod(getProvider());
 
         Document doc = method.getAsXML(ctx.getAccountNumber(), HOSTED_SERVICES);
@@ -896,9 +894,15 @@ public class AzureVM extends AbstractVMSupport<Azure> {
         }
         NodeList entries = doc.getElementsByTagName("HostedService");
         ArrayList<VirtualMachine> vms = new ArrayList<VirtualMachine>();
+        String regionId = ctx.getRegionId();
+
+        if( regionId == null ) {
+            throw new AzureConfigException("No region ID was specified for this request");
+        }
+        ResolutionContext resolution = new ResolutionContext(getProvider(), regionId);
 
         for( int i=0; i<entries.getLength(); i++ ) {
-            parseHostedService(ctx, entries.item(i), null, vms);
+            parseHostedService(ctx, entries.item(i), null, vms, resolution);
         }
         return vms;
     }
@@ -916,7 +920,269 @@ public class AzureVM extends AbstractVMSupport<Azure> {
         return list;
     }
 
-    private void parseDeployment(@Nonnull ProviderContext ctx, @Nonnull String regionId, @Nonnull String serviceName, @Nonnull Node node, @Nonnull List<VirtualMachine> virtualMachines) {
+    /**
+     * Listings are pulled straight off the response stream unless the <code>listingParser</code> custom property
+     * (or the <code>azure.listingParser</code> system property) is set to <code>dom</code>.
+     * @return true if hosted service listings should be streamed
+     */
+    private boolean isStreamingListing() {
+        String parser = getProvider().getCustomProperty("listingParser");
+
+        return (parser == null || !parser.equalsIgnoreCase("dom"));
+    }
+
+    /**
+     * Lists the hosted services in the subscription, handing each to the listener as soon as it is parsed. With the
+     * <code>bulkListing</code> custom property enabled (the default), the listing is requested with
+     * <code>embed-detail=true</code> so that the deployments of each service come back in the same round trip.
+     */
+    private void streamHostedServices(@Nonnull ProviderContext ctx, @Nonnull AzureMethod method, @Nonnull final HostedServiceParser.Listener<HostedServiceParser.HostedService> listener) throws CloudException, InternalException {
+        String bulk = getProvider().getCustomProperty(BULK_LISTING);
+        InputStream input = null;
+
+        if( bulk == null || bulk.equalsIgnoreCase("true") ) {
+            try {
+                input = method.getAsStream(ctx.getAccountNumber(), HOSTED_SERVICES + "?embed-detail=true");
+            }
+            catch( CloudException e ) {
+                logger.warn("Bulk hosted service listing failed, listing services individually: " + e.getMessage());
+            }
+        }
+        if( input == null ) {
+            input = method.getAsStream(ctx.getAccountNumber(), HOSTED_SERVICES);
+        }
+        if( input == null ) {
+            return;
+        }
+        new HostedServiceParser().parseHostedServices(input, new HostedServiceParser.Listener<HostedServiceParser.HostedService>() {
+            public void parsed(@Nonnull HostedServiceParser.HostedService service) throws CloudException, InternalException {
+                if( service.url != null && service.serviceName != null ) {
+                    listener.parsed(service);
+                }
+            }
+        });
+    }
+
+    private @Nonnull List<HostedServiceParser.Deployment> streamDeployments(@Nonnull ProviderContext ctx, @Nonnull AzureMethod method, @Nonnull String serviceName) throws CloudException, InternalException {
+        final ArrayList<HostedServiceParser.Deployment> deployments = new ArrayList<HostedServiceParser.Deployment>();
+        InputStream input = method.getAsStream(ctx.getAccountNumber(), HOSTED_SERVICES + "/" + serviceName + "?embed-detail=true");
+
+        if( input != null ) {
+            new HostedServiceParser().parseDeployments(input, new HostedServiceParser.Listener<HostedServiceParser.Deployment>() {
+                public void parsed(@Nonnull HostedServiceParser.Deployment deployment) {
+                    deployments.add(deployment);
+                }
+            });
+        }
+        return deployments;
+    }
+
+    /**
+     * Matches a hosted service to the region being listed, either through its affinity group or its location. The
+     * data center of the affinity group, if any, is recorded with the hosted service.
+     * @param regionId the region being listed
+     * @param service the hosted service to match
+     * @param resolution the lookups for the current listing
+     * @return true if the hosted service is in the region
+     */
+    private boolean isInRegion(@Nonnull String regionId, @Nonnull HostedServiceParser.HostedService service, @Nonnull ResolutionContext resolution) throws CloudException, InternalException {
+        if( service.affinityGroup != null ) {
+            DataCenter dc = resolution.getAffinityGroupDataCenter(service.affinityGroup);
+
+            if( dc == null || !dc.getRegionId().equals(regionId) ) {
+                return false;
+            }
+            service.dataCenter = dc;
+            return true;
+        }
+        return (service.location == null || regionId.equals(service.location));
+    }
+
+    private interface DeploymentVisitor {
+        public void visit(@Nonnull HostedServiceParser.HostedService service, @Nonnull HostedServiceParser.Deployment deployment) throws CloudException, InternalException;
+    }
+
+    /**
+     * Visits every deployment of every hosted service in the current region. Deployments embedded in the hosted
+     * service listing are visited while the listing is being parsed, so that only one hosted service is held in
+     * memory at a time. The details of any other services are fetched in parallel, bounded by the
+     * <code>listingParallelism</code> custom property, and visited in listing order once the listing has been read;
+     * the whole listing is abandoned once <code>listingTimeout</code> milliseconds have passed. Deployments are
+     * always visited on the calling thread.
+     */
+    private void forEachDeployment(@Nonnull ProviderContext ctx, @Nonnull String regionId, @Nonnull ResolutionContext resolution, @Nonnull DeploymentVisitor visitor) throws CloudException, InternalException {
+        AzureMethod method = new AzureMethod(getProvider());
+        DeploymentWalker walker = new DeploymentWalker(ctx, regionId, resolution, visitor, method);
+
+        try {
+            streamHostedServices(ctx, method, walker);
+            walker.finish();
+        }
+        finally {
+            walker.close();
+        }
+    }
+
+    /**
+     * Receives the hosted services of a listing for {@link #forEachDeployment(ProviderContext, String, ResolutionContext, DeploymentVisitor)}.
+     */
+    private class DeploymentWalker implements HostedServiceParser.Listener<HostedServiceParser.HostedService> {
+        private ProviderContext   ctx;
+        private String            regionId;
+        private ResolutionContext resolution;
+        private DeploymentVisitor visitor;
+        private AzureMethod       method;
+        private int               parallelism;
+        private long              timeout;
+        private long              deadline;
+        private ExecutorService   executor;
+
+        private ArrayList<HostedServiceParser.HostedService>            pending = new ArrayList<HostedServiceParser.HostedService>();
+        private ArrayList<Future<List<HostedServiceParser.Deployment>>> futures = new ArrayList<Future<List<HostedServiceParser.Deployment>>>();
+
+        DeploymentWalker(@Nonnull ProviderContext ctx, @Nonnull String regionId, @Nonnull ResolutionContext resolution, @Nonnull DeploymentVisitor visitor, @Nonnull AzureMethod method) {
+            this.ctx = ctx;
+            this.regionId = regionId;
+            this.resolution = resolution;
+            this.visitor = visitor;
+            this.method = method;
+            this.parallelism = getProvider().getIntProperty(LISTING_PARALLELISM, 8);
+            this.timeout = getProvider().getLongProperty(LISTING_TIMEOUT, CalendarWrapper.MINUTE * 10L);
+            this.deadline = System.currentTimeMillis() + timeout;
+        }
+
+        public void parsed(@Nonnull final HostedServiceParser.HostedService service) throws CloudException, InternalException {
+            if( !isInRegion(regionId, service, resolution) ) {
+                return;
+            }
+            if( service.deployments != null ) {
+                visit(service, service.deployments);
+                return;
+            }
+            if( parallelism > 1 ) {
+                if( executor == null ) {
+                    executor = Executors.newFixedThreadPool(parallelism);
+                }
+                futures.add(executor.submit(new Callable<List<HostedServiceParser.Deployment>>() {
+                    public List<HostedServiceParser.Deployment> call() throws Exception {
+                        return streamDeployments(ctx, new AzureMethod(getProvider()), service.serviceName);
+                    }
+                }));
+            }
+            pending.add(service);
+        }
+
+        /**
+         * Visits the services whose details were not embedded in the listing, in listing order.
+         */
+        void finish() throws CloudException, InternalException {
+            for( int i=0; i<pending.size(); i++ ) {
+                HostedServiceParser.HostedService service = pending.get(i);
+                List<HostedServiceParser.Deployment> deployments;
+
+                if( executor == null ) {
+                    if( System.currentTimeMillis() > deadline ) {
+                        throw new CloudException("Timed out listing hosted service details after " + timeout + "ms");
+                    }
+                    deployments = streamDeployments(ctx, method, service.serviceName);
+                }
+                else {
+                    deployments = waitFor(futures.get(i), deadline, timeout);
+                    // let the details be collected as soon as the service has been visited
+                    futures.set(i, null);
+                }
+                visit(service, deployments);
+            }
+        }
+
+        void close() {
+            if( executor != null ) {
+                executor.shutdownNow();
+            }
+        }
+
+        private void visit(@Nonnull HostedServiceParser.HostedService service, @Nonnull List<HostedServiceParser.Deployment> deployments) throws CloudException, InternalException {
+            for( HostedServiceParser.Deployment deployment : deployments ) {
+                visitor.visit(service, deployment);
+            }
+            service.deployments = null;
+        }
+    }
+
+    private @Nonnull List<HostedServiceParser.Deployment> waitFor(@Nonnull Future<List<HostedServiceParser.Deployment>> future, long deadline, long timeout) throws CloudException, InternalException {
+        try {
+            return future.get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        }
+        catch( TimeoutException e ) {
+            throw new CloudException("Timed out listing hosted service details after " + timeout + "ms");
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        }
+        catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
+
+            if( cause instanceof CloudException ) {
+                throw (CloudException)cause;
+            }
+            if( cause instanceof InternalException ) {
+                throw (InternalException)cause;
+            }
+            throw new InternalException(cause);
+        }
+    }
+
+    private @Nonnull Iterable<VirtualMachine> streamVirtualMachines(@Nonnull final ProviderContext ctx) throws CloudException, InternalException {
+        final String regionId = ctx.getRegionId();
+
+        if( regionId == null ) {
+            throw new AzureConfigException("No region ID was specified for this request");
+        }
+        final ArrayList<VirtualMachine> vms = new ArrayList<VirtualMachine>();
+        final ResolutionContext resolution = new ResolutionContext(getProvider(), regionId);
+
+        forEachDeployment(ctx, regionId, resolution, new DeploymentVisitor() {
+            public void visit(@Nonnull HostedServiceParser.HostedService service, @Nonnull HostedServiceParser.Deployment deployment) throws CloudException, InternalException {
+                String serviceName = service.serviceName + ":" + deployment.name;
+                ArrayList<VirtualMachine> list = new ArrayList<VirtualMachine>();
+
+                finishDeployment(serviceName, deployment, deployment.toVirtualMachines(ctx, regionId, serviceName), list, resolution);
+                if( list.isEmpty() ) {
+                    return;
+                }
+                long created = (service.dateCreated == null ? 0L : getProvider().parseTimestamp(service.dateCreated));
+                String dataCenterId = (service.dataCenter != null ? service.dataCenter.getProviderDataCenterId() : resolution.getDefaultDataCenterId());
+
+                for( VirtualMachine vm : list ) {
+                    if( vm.getCreationTimestamp() < 1L ) {
+                        vm.setCreationTimestamp(created);
+                    }
+                    vm.setProviderDataCenterId(dataCenterId);
+                }
+                vms.addAll(list);
+            }
+        });
+        return vms;
+    }
+
+    private @Nonnull Iterable<ResourceStatus> streamVirtualMachineStatus(@Nonnull ProviderContext ctx) throws CloudException, InternalException {
+        String regionId = ctx.getRegionId();
+
+        if( regionId == null ) {
+            throw new AzureConfigException("No region ID was specified for this request");
+        }
+        final ArrayList<ResourceStatus> status = new ArrayList<ResourceStatus>();
+
+        forEachDeployment(ctx, regionId, new ResolutionContext(getProvider(), regionId), new DeploymentVisitor() {
+            public void visit(@Nonnull HostedServiceParser.HostedService service, @Nonnull HostedServiceParser.Deployment deployment) {
+                status.addAll(deployment.toStatus(service.serviceName + ":" + deployment.name));
+            }
+        });
+        return status;
+    }
+
+    private void parseDeployment(@Nonnull ProviderContext ctx, @Nonnull String regionId, @Nonnull String serviceName, @Nonnull Node node, @Nonnull List<VirtualMachine> virtualMachines, @Nonnull ResolutionContext resolution) {
         ArrayList<VirtualMachine> list = new ArrayList<VirtualMachine>();
         NodeList attributes = node.getChildNodes();
         String deploymentSlot = null;
@@ -1187,6 +1453,39 @@ public class AzureVM extends AbstractVMSupport<Azure> {
                 vlan = attribute.getFirstChild().getNodeValue().trim();
             }
         }
+        HostedServiceParser.Deployment deployment = new HostedServiceParser.Deployment();
+
+        deployment.deploymentSlot = deploymentSlot;
+        deployment.deploymentId = deploymentId;
+        deployment.dnsName = dnsName;
+        deployment.locked = isLocked;
+        deployment.vmRoleName = vmRoleName;
+        deployment.imageId = imageId;
+        deployment.mediaLink = mediaLink;
+        deployment.vlan = vlan;
+        deployment.subnetName = subnetName;
+        finishDeployment(serviceName, deployment, list, virtualMachines, resolution);
+    }
+
+    /**
+     * Applies the deployment level details to the virtual machines built from a deployment's role instances and
+     * adds them to the listing.
+     * @param serviceName the <code>service:deployment</code> prefix of the virtual machine IDs
+     * @param deployment the deployment the virtual machines belong to
+     * @param list the virtual machines built from the deployment's role instances
+     * @param virtualMachines the listing the virtual machines are added to
+     */
+    private void finishDeployment(@Nonnull String serviceName, @Nonnull HostedServiceParser.Deployment deployment, @Nonnull List<VirtualMachine> list, @Nonnull List<VirtualMachine> virtualMachines, @Nonnull ResolutionContext resolution) {
+        String deploymentSlot = deployment.deploymentSlot;
+        String deploymentId = deployment.deploymentId;
+        String dnsName = deployment.dnsName;
+        String vmRoleName = deployment.vmRoleName;
+        String imageId = deployment.imageId;
+        String mediaLink = deployment.mediaLink;
+        String vlan = deployment.vlan;
+        String subnetName = deployment.subnetName;
+        boolean isLocked = deployment.locked;
+
         if( vmRoleName != null ) {
             for( VirtualMachine vm : list ) {
                 if( deploymentSlot != null ) {
@@ -1204,15 +1503,10 @@ public class AzureVM extends AbstractVMSupport<Azure> {
                     vm.setProviderMachineImageId(imageId);
                     vm.setPlatform(Platform.guess(vm.getProviderMachineImageId()));
                     if( vm.getPlatform().equals(Platform.UNKNOWN) ) {
-                        try {
-                            MachineImage img = getProvider().getComputeServices().getImageSupport().getMachineImage(vm.getProviderMachineImageId());
+                        Platform platform = resolution.getImagePlatform(vm.getProviderMachineImageId());
 
-                            if( img != null ) {
-                                vm.setPlatform(img.getPlatform());
-                            }
-                        }
-                        catch( Throwable t ) {
-                            logger.warn("Error loading machine image: " + t.getMessage());
+                        if( platform != null ) {
+                            vm.setPlatform(platform);
                         }
                         if( vm.getPlatform().equals(Platform.UNKNOWN) ) {
                             vm.setPlatform(fallback);
@@ -1223,21 +1517,25 @@ public class AzureVM extends AbstractVMSupport<Azure> {
                 if (vlan != null) {
                     String providerVlanId = null;
 
+                    // a VLAN that cannot be resolved leaves the VLAN and subnet unset; the VM is still listed
                     try {
-                        providerVlanId = getProvider().getNetworkServices().getVlanSupport().getVlan(vlan).getProviderVlanId();
-                        vm.setProviderVlanId(providerVlanId);
+                        providerVlanId = resolution.getVlanId(vlan);
+                        if( providerVlanId == null ) {
+                            logger.warn("Unable to find vlan " + vlan);
+                        }
                     }
                     catch (CloudException e) {
                         logger.error("Error getting vlan id for vlan "+vlan);
-                        continue;
                     }
                     catch (InternalException ie){
                         logger.error("Error getting vlan id for vlan "+vlan);
-                        continue;
                     }
 
-                    if (subnetName != null) {
-                        vm.setProviderSubnetId(subnetName + "_" + providerVlanId);
+                    if( providerVlanId != null ) {
+                        vm.setProviderVlanId(providerVlanId);
+                        if (subnetName != null) {
+                            vm.setProviderSubnetId(subnetName + "_" + providerVlanId);
+                        }
                     }
                 }
 
@@ -1345,7 +1643,7 @@ public class AzureVM extends AbstractVMSupport<Azure> {
         }
     }
 
-    private void parseHostedService(@Nonnull ProviderContext ctx, @Nonnull Node entry, @Nullable String serviceName, @Nonnull List<VirtualMachine> virtualMachines) throws CloudException, InternalException {
+    private void parseHostedService(@Nonnull ProviderContext ctx, @Nonnull Node entry, @Nullable String serviceName, @Nonnull List<VirtualMachine> virtualMachines, @Nonnull ResolutionContext resolution) throws CloudException, InternalException {
         String regionId = ctx.getRegionId();
 
         if( regionId == null ) {
@@ -1388,11 +1686,7 @@ public class AzureVM extends AbstractVMSupport<Azure> {
                         //get the region for this affinity group
                         String affinityGroup = property.getFirstChild().getNodeValue().trim();
                         if (affinityGroup != null && !affinityGroup.equals("")) {
-                            AffinityGroup affinityGroupModel = getProvider().getComputeServices().getAffinityGroupSupport().get(affinityGroup);
-                            if(affinityGroupModel == null)
-                                return;
-
-                            dc = getProvider().getDataCenterServices().getDataCenter(affinityGroupModel.getDataCenterId());
+                            dc = resolution.getAffinityGroupDataCenter(affinityGroup);
                             if (dc != null && dc.getRegionId().equals(regionId)) {
                                 mediaLocationFound = true;
                             }
@@ -1448,17 +1742,18 @@ public class AzureVM extends AbstractVMSupport<Azure> {
                         if ( mynode.getNodeName().equalsIgnoreCase("name") && mynode.hasChildNodes() ) {
                             deploymentName = mynode.getFirstChild().getNodeValue().trim();
 
-                            parseDeployment(ctx, regionId, service+":"+deploymentName, deployment, virtualMachines);
-                            for (VirtualMachine vm : virtualMachines) {
-                                if (vm.getCreationTimestamp() < 1L) {
-                                    vm.setCreationTimestamp(created);
-                                }
-                                if (dc != null) {
-                                    vm.setProviderDataCenterId(dc.getProviderDataCenterId());
-                                }
-                                else {
-                                    Collection<DataCenter> dcs = getProvider().getDataCenterServices().listDataCenters(regionId);
-                                    vm.setProviderDataCenterId(dcs.iterator().next().getProviderDataCenterId());
+                            // only the VMs from this deployment need the service details
+                            int first = virtualMachines.size();
+
+                            parseDeployment(ctx, regionId, service+":"+deploymentName, deployment, virtualMachines, resolution);
+                            if( virtualMachines.size() > first ) {
+                                String dataCenterId = (dc != null ? dc.getProviderDataCenterId() : resolution.getDefaultDataCenterId());
+
+                                for( VirtualMachine vm : virtualMachines.subList(first, virtualMachines.size()) ) {
+                                    if (vm.getCreationTimestamp() < 1L) {
+                                        vm.setCreationTimestamp(created);
+                                    }
+                                    vm.setProviderDataCenterId(dataCenterId);
                                 }
                             }
                         }
@@ -1468,7 +1763,7 @@ public class AzureVM extends AbstractVMSupport<Azure> {
         }
     }
 
-    private void parseHostedServiceForStatus(@Nonnull ProviderContext ctx, @Nonnull Node entry, @Nullable String serviceName, @Nonnull List<ResourceStatus> status) throws CloudException, InternalException {
+    private void parseHostedServiceForStatus(@Nonnull ProviderContext ctx, @Nonnull Node entry, @Nullable String serviceName, @Nonnull List<ResourceStatus> status, @Nonnull ResolutionContext resolution) throws CloudException, InternalException {
         String regionId = ctx.getRegionId();
 
         if( regionId == null ) {
@@ -1508,11 +1803,7 @@ public class AzureVM extends AbstractVMSupport<Azure> {
                         //get the region for this affinity group
                         String affinityGroup = property.getFirstChild().getNodeValue().trim();
                         if (affinityGroup != null && !affinityGroup.equals("")) {
-                            AffinityGroup affinityGroupModel = getProvider().getComputeServices().getAffinityGroupSupport().get(affinityGroup);
-                            if(affinityGroupModel == null)
-                                return;
-
-                            DataCenter dc = getProvider().getDataCenterServices().getDataCenter(affinityGroupModel.getDataCenterId());
+                            DataCenter dc = resolution.getAffinityGroupDataCenter(affinityGroup);
                             if (dc != null && dc.getRegionId().equals(regionId)) {
                                 mediaLocationFound = true;
                             }
@@ -1729,81 +2020,22 @@ public class AzureVM extends AbstractVMSupport<Azure> {
     private void deleteVirtualMachineRole(String vmId, String serviceName, String deploymentName, String roleName) throws CloudException, InternalException {
         String resourceDir = HOSTED_SERVICES + "/" + serviceName + "/deployments/" + deploymentName + "/roles/" + roleName + "?comp=media";
         AzureMethod method = new AzureMethod(getProvider());
-        method.invoke("DELETE", getProvider().getContext().getAccountNumber(), resourceDir, "");
+        String requestId = method.invoke("DELETE", getProvider().getContext().getAccountNumber(), resourceDir, "");
+
+        if( requestId != null ) {
+            getProvider().getOperationTracker().waitFor(requestId);
+        }
         waitForVMTerminated(vmId);
     }
 
     private void deleteVirtualMachineDeployment(String vmId, String serviceName, String deploymentName, String roleName) throws CloudException, InternalException {
         String resourceDir = HOSTED_SERVICES + "/" + serviceName + "/deployments/" + deploymentName + "?comp=media";
         AzureMethod method = new AzureMethod(getProvider());
-        method.invoke("DELETE", getProvider().getContext().getAccountNumber(), resourceDir, "");
-        waitForVMTerminated(vmId);
-    }
-
-    private void waitForVMTerminableState(String vmId) throws CloudException, InternalException {
-        VirtualMachine vm = getVirtualMachine(vmId);
-        if( vm == null ) {
-            throw new CloudException("No such virtual machine: " + vmId);
-        }
-
-        long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 10L);
-
-        while( timeout > System.currentTimeMillis() ) {
-            if( vm == null || VmState.TERMINATED.equals(vm.getCurrentState()) ) {
-                return;
-            }
-            if( !VmState.PENDING.equals(vm.getCurrentState()) && !VmState.STOPPING.equals(vm.getCurrentState()) ) {
-                break;
-            }
-            try { Thread.sleep(15000L); }
-            catch( InterruptedException ignore ) { }
-            try { vm = getVirtualMachine(vmId); }
-            catch( Throwable ignore ) { }
-        }
-    }
+        String requestId = method.invoke("DELETE", getProvider().getContext().getAccountNumber(), resourceDir, "");
 
-    private void waitForVMTerminated(String vmId) throws CloudException, InternalException {
-        VirtualMachine vm = getVirtualMachine(vmId);
-        long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 10L);
-        while (timeout > System.currentTimeMillis()) {
-            if (vm == null || VmState.TERMINATED.equals(vm.getCurrentState())) {
-                break;
-            }
-            try {
-                Thread.sleep(15000L);
-            } catch (InterruptedException ignore) {
-            }
-            try {
-                vm = getVirtualMachine(vmId);
-            } catch (Throwable ignore) {
-            }
+        if( requestId != null ) {
+            getProvider().getOperationTracker().waitFor(requestId);
         }
-    }
-
-    private boolean canDeleteDeployment(String serviceName, String deploymentName, String roleName) throws CloudException, InternalException {
-        AzureMethod azureMethod = new AzureMethod(provider);
-        DeploymentModel deploymentModel = azureMethod.get(DeploymentModel.class, String.format(DEPLOYMENT_RESOURCE, serviceName, deploymentName));
-
-        if(deploymentModel.getRoles() == null)
-            return true;
-
-        if(deploymentModel.getRoles().size() == 1 && deploymentModel.getRoles().get(0).getRoleName().equalsIgnoreCase(roleName))
-            return true;
-
-        return false;
-    }
-
-    private void deleteVirtualMachineRole(String vmId, String serviceName, String deploymentName, String roleName) throws CloudException, InternalException {
-        String resourceDir = HOSTED_SERVICES + "/" + serviceName + "/deployments/" + deploymentName + "/roles/" + roleName + "?comp=media";
-        AzureMethod method = new AzureMethod(provider);
-        method.invoke("DELETE", provider.getContext().getAccountNumber(), resourceDir, "");
-        waitForVMTerminated(vmId);
-    }
-
-    private void deleteVirtualMachineDeployment(String vmId, String serviceName, String deploymentName, String roleName) throws CloudException, InternalException {
-        String resourceDir = HOSTED_SERVICES + "/" + serviceName + "/deployments/" + deploymentName + "?comp=media";
-        AzureMethod method = new AzureMethod(provider);
-        method.invoke("DELETE", provider.getContext().getAccountNumber(), resourceDir, "");
         waitForVMTerminated(vmId);
     }
 
@@ -1857,26 +2089,19 @@ public class AzureVM extends AbstractVMSupport<Azure> {
             }
             AzureMethod method = new AzureMethod(getProvider());
             String resourceDir = HOSTED_SERVICES + "/" + serviceName;
-            long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 10L);
-            while( timeout > System.currentTimeMillis() ) {
-                try{
-                    if( logger.isInfoEnabled() ) {
-                        logger.info("Deleting hosted service " + serviceName+": "+explanation);
-                    }
-                    method.invoke("DELETE", ctx.getAccountNumber(), resourceDir, "");
-                    break;
-                }
-                catch( CloudException e ) {
-                    logger.error("Unable to delete hosted service for " + serviceName + ": " + e.getMessage());
-                    logger.error("Retrying...");
-                    try { Thread.sleep(30000L); }
-                    catch( InterruptedException ignore ) { }
-                    continue;
-                }
-                catch( Throwable t ) {
-                    logger.warn("Unable to delete hosted service for " + serviceName + ": " + t.getMessage());
-                    return;
+
+            try{
+                if( logger.isInfoEnabled() ) {
+                    logger.info("Deleting hosted service " + serviceName+": "+explanation);
                 }
+                method.setRetryPolicy(new AzureRetryPolicy(getProvider(), "deleteHostedService", 10));
+                method.invoke("DELETE", ctx.getAccountNumber(), resourceDir, "");
+            }
+            catch( CloudException e ) {
+                logger.error("Unable to delete hosted service for " + serviceName + ": " + e.getMessage());
+            }
+            catch( Throwable t ) {
+                logger.warn("Unable to delete hosted service for " + serviceName + ": " + t.getMessage());
             }
         }
         finally {
@@ -0,0 +1,598 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.compute.vm;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.ResourceStatus;
+import org.dasein.cloud.azure.Azure;
+import org.dasein.cloud.compute.Architecture;
+import org.dasein.cloud.compute.Platform;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.compute.VmState;
+import org.dasein.cloud.dc.DataCenter;
+import org.dasein.cloud.network.RawAddress;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pull parser for the hosted service listing (<code>/services/hostedservices</code>) and the hosted service detail
+ * (<code>?embed-detail=true</code>) responses. Hosted services and deployments are handed to a listener as soon as
+ * their closing tag is read, so no more than one hosted service, with any deployments embedded in it, is ever held
+ * in memory while a response is parsed.
+ * @since 2015.06.2
+ * @version 2015.06.2
+ */
+public class HostedServiceParser {
+    static private final Logger logger = Azure.getLogger(HostedServiceParser.class);
+
+    static private final String XSI_NAMESPACE = "http://www.w3.org/2001/XMLSchema-instance";
+
+    static private final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+    static {
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    }
+
+    /**
+     * Receives each item as it is parsed.
+     * @param <T> the type of item parsed
+     */
+    public interface Listener<T> {
+        public void parsed(@Nonnull T item) throws CloudException, InternalException;
+    }
+
+    /**
+     * A hosted service entry from the hosted service listing. When the listing was requested with
+     * <code>embed-detail=true</code> and the entry carried its deployments, they are held in
+     * <code>deployments</code>; otherwise <code>deployments</code> is <code>null</code>.
+     */
+    static public class HostedService {
+        public String           serviceName;
+        public String           url;
+        public String           affinityGroup;
+        public String           location;
+        public String           dateCreated;
+        public DataCenter       dataCenter;
+        public List<Deployment> deployments;
+    }
+
+    /**
+     * A running role instance within a deployment.
+     */
+    static public class RoleInstance {
+        public String       roleName;
+        public String       instanceSize;
+        public String       upgradeDomain;
+        public String       errorCode;
+        public String       faultDomain;
+        public String       fqdn;
+        public String       ipAddress;
+        public String       powerState;
+        public List<String> vips = new ArrayList<String>();
+    }
+
+    /**
+     * A deployment from the hosted service detail along with its role instances. The role details describe the
+     * last persistent VM role in the deployment.
+     */
+    static public class Deployment {
+        public String             name;
+        public String             deploymentSlot;
+        public String             deploymentId;
+        public String             dnsName;
+        public boolean            locked;
+        public String             vmRoleName;
+        public String             imageId;
+        public String             mediaLink;
+        public String             vlan;
+        public String             subnetName;
+        public List<RoleInstance> roleInstances = new ArrayList<RoleInstance>();
+
+        /**
+         * Builds a virtual machine for each named role instance in this deployment. Deployment level details
+         * such as the image and VLAN are not applied here.
+         * @param ctx the context of the request
+         * @param regionId the region being listed
+         * @param serviceName the <code>service:deployment</code> prefix of the virtual machine IDs
+         * @return the virtual machines in this deployment
+         */
+        public @Nonnull List<VirtualMachine> toVirtualMachines(@Nonnull ProviderContext ctx, @Nonnull String regionId, @Nonnull String serviceName) {
+            ArrayList<VirtualMachine> list = new ArrayList<VirtualMachine>();
+
+            for( RoleInstance instance : roleInstances ) {
+                if( instance.roleName == null ) {
+                    continue;
+                }
+                VirtualMachine role = new VirtualMachine();
+
+                role.setArchitecture(Architecture.I64);
+                role.setClonable(false);
+                role.setCurrentState(VmState.TERMINATED);
+                role.setImagable(false);
+                role.setPersistent(true);
+                role.setPlatform(Platform.UNKNOWN);
+                role.setProviderOwnerId(ctx.getAccountNumber());
+                role.setProviderRegionId(regionId);
+                role.setProviderDataCenterId(regionId);
+                role.setProviderVirtualMachineId(serviceName + ":" + instance.roleName);
+                role.setName(instance.roleName);
+                if( instance.instanceSize != null ) {
+                    role.setProductId(instance.instanceSize);
+                }
+                if( instance.upgradeDomain != null ) {
+                    role.setTag("UpgradeDomain", instance.upgradeDomain);
+                }
+                if( instance.errorCode != null ) {
+                    role.setTag("ErrorCode", instance.errorCode);
+                }
+                if( instance.faultDomain != null ) {
+                    role.setTag("FaultDomain", instance.faultDomain);
+                }
+                if( instance.fqdn != null ) {
+                    role.setPrivateDnsAddress(instance.fqdn);
+                }
+                if( instance.ipAddress != null ) {
+                    role.setPrivateAddresses(new RawAddress[] { new RawAddress(instance.ipAddress) });
+                }
+                if( !instance.vips.isEmpty() ) {
+                    RawAddress[] ips = new RawAddress[instance.vips.size()];
+
+                    for( int i=0; i<ips.length; i++ ) {
+                        ips[i] = new RawAddress(instance.vips.get(i));
+                    }
+                    role.setPublicAddresses(ips);
+                }
+                VmState state = toState(instance.powerState);
+
+                if( state != null ) {
+                    role.setCurrentState(state);
+                    if( VmState.STOPPED.equals(state) ) {
+                        role.setImagable(true);
+                    }
+                }
+                role.setDescription(role.getName());
+
+                String descriptor = (role.getProviderVirtualMachineId() + " " + role.getName() + " " + role.getDescription() + " " + role.getProviderMachineImageId()).replaceAll("_", " ");
+
+                role.setPlatform(Platform.guess(descriptor));
+                list.add(role);
+            }
+            return list;
+        }
+
+        /**
+         * Provides the power state of each named role instance in this deployment.
+         * @param serviceName the <code>service:deployment</code> prefix of the virtual machine IDs
+         * @return the status of each role instance with a known power state
+         */
+        public @Nonnull List<ResourceStatus> toStatus(@Nonnull String serviceName) {
+            ArrayList<ResourceStatus> list = new ArrayList<ResourceStatus>();
+
+            for( RoleInstance instance : roleInstances ) {
+                VmState state = toState(instance.powerState);
+
+                if( instance.roleName != null && state != null ) {
+                    list.add(new ResourceStatus(serviceName + ":" + instance.roleName, state));
+                }
+            }
+            return list;
+        }
+    }
+
+    static private @Nullable VmState toState(@Nullable String powerState) {
+        if( powerState == null ) {
+            return null;
+        }
+        if( "Started".equalsIgnoreCase(powerState) ) {
+            return VmState.RUNNING;
+        }
+        else if( "Stopped".equalsIgnoreCase(powerState) ) {
+            return VmState.STOPPED;
+        }
+        else if( "Stopping".equalsIgnoreCase(powerState) ) {
+            return VmState.STOPPING;
+        }
+        else if( "Starting".equalsIgnoreCase(powerState) ) {
+            return VmState.PENDING;
+        }
+        logger.warn("DEBUG: Unknown Azure status: " + powerState);
+        return null;
+    }
+
+    /**
+     * Reads the hosted service listing, handing each hosted service to the listener as it is read. The stream is
+     * closed when parsing completes.
+     * @param input the hosted service listing response
+     * @param listener the listener receiving each hosted service
+     * @throws CloudException the response could not be read or parsed
+     * @throws InternalException the listener failed
+     */
+    public void parseHostedServices(@Nonnull InputStream input, @Nonnull Listener<HostedService> listener) throws CloudException, InternalException {
+        XMLStreamReader reader = open(input);
+
+        try {
+            while( reader.hasNext() ) {
+                if( reader.next() == XMLStreamReader.START_ELEMENT && reader.getLocalName().equalsIgnoreCase("HostedService") ) {
+                    listener.parsed(readHostedService(reader));
+                }
+            }
+        }
+        catch( XMLStreamException e ) {
+            throw new CloudException(e);
+        }
+        finally {
+            close(reader, input);
+        }
+    }
+
+    /**
+     * Reads a hosted service detail response, handing each deployment to the listener as it is read. The stream
+     * is closed when parsing completes.
+     * @param input the <code>?embed-detail=true</code> response for a hosted service
+     * @param listener the listener receiving each deployment
+     * @throws CloudException the response could not be read or parsed
+     * @throws InternalException the listener failed
+     */
+    public void parseDeployments(@Nonnull InputStream input, @Nonnull Listener<Deployment> listener) throws CloudException, InternalException {
+        XMLStreamReader reader = open(input);
+
+        try {
+            while( reader.hasNext() ) {
+                if( reader.next() == XMLStreamReader.START_ELEMENT && reader.getLocalName().equalsIgnoreCase("Deployment") ) {
+                    Deployment deployment = readDeployment(reader);
+
+                    if( deployment.name != null ) {
+                        listener.parsed(deployment);
+                    }
+                }
+            }
+        }
+        catch( XMLStreamException e ) {
+            throw new CloudException(e);
+        }
+        finally {
+            close(reader, input);
+        }
+    }
+
+    private @Nonnull HostedService readHostedService(@Nonnull XMLStreamReader reader) throws XMLStreamException {
+        HostedService service = new HostedService();
+
+        while( nextChild(reader) ) {
+            String name = reader.getLocalName();
+
+            if( name.equalsIgnoreCase("Url") ) {
+                service.url = readText(reader);
+            }
+            else if( name.equalsIgnoreCase("ServiceName") ) {
+                service.serviceName = readText(reader);
+            }
+            else if( name.equalsIgnoreCase("HostedServiceProperties") ) {
+                while( nextChild(reader) ) {
+                    String property = reader.getLocalName();
+
+                    if( property.equalsIgnoreCase("AffinityGroup") ) {
+                        service.affinityGroup = readText(reader);
+                    }
+                    else if( property.equalsIgnoreCase("Location") ) {
+                        service.location = readText(reader);
+                    }
+                    else if( property.equalsIgnoreCase("DateCreated") ) {
+                        service.dateCreated = readText(reader);
+                    }
+                    else {
+                        skip(reader);
+                    }
+                }
+            }
+            else if( name.equalsIgnoreCase("Deployments") ) {
+                service.deployments = new ArrayList<Deployment>();
+                while( nextChild(reader) ) {
+                    if( reader.getLocalName().equalsIgnoreCase("Deployment") ) {
+                        Deployment deployment = readDeployment(reader);
+
+                        if( deployment.name != null ) {
+                            service.deployments.add(deployment);
+                        }
+                    }
+                    else {
+                        skip(reader);
+                    }
+                }
+            }
+            else {
+                skip(reader);
+            }
+        }
+        return service;
+    }
+
+    private @Nonnull Deployment readDeployment(@Nonnull XMLStreamReader reader) throws XMLStreamException {
+        Deployment deployment = new Deployment();
+
+        while( nextChild(reader) ) {
+            String name = reader.getLocalName();
+
+            if( name.equalsIgnoreCase("Name") ) {
+                deployment.name = readText(reader);
+            }
+            else if( name.equalsIgnoreCase("DeploymentSlot") ) {
+                deployment.deploymentSlot = readText(reader);
+            }
+            else if( name.equalsIgnoreCase("PrivateID") ) {
+                deployment.deploymentId = readText(reader);
+            }
+            else if( name.equalsIgnoreCase("Locked") ) {
+                deployment.locked = "true".equalsIgnoreCase(readText(reader));
+            }
+            else if( name.equalsIgnoreCase("Url") ) {
+                String url = readText(reader);
+
+                if( url != null ) {
+                    try {
+                        deployment.dnsName = new URI(url).getHost();
+                    }
+                    catch( URISyntaxException e ) {
+                        // ignore
+                    }
+                }
+            }
+            else if( name.equalsIgnoreCase("VirtualNetworkName") ) {
+                deployment.vlan = readText(reader);
+            }
+            else if( name.equalsIgnoreCase("RoleInstanceList") ) {
+                while( nextChild(reader) ) {
+                    if( reader.getLocalName().equalsIgnoreCase("RoleInstance") ) {
+                        deployment.roleInstances.add(readRoleInstance(reader));
+                    }
+                    else {
+                        skip(reader);
+                    }
+                }
+            }
+            else if( name.equalsIgnoreCase("RoleList") ) {
+                while( nextChild(reader) ) {
+                    if( reader.getLocalName().equalsIgnoreCase("Role") && isType(reader, "PersistentVMRole") ) {
+                        readRole(reader, deployment);
+                    }
+                    else {
+                        skip(reader);
+                    }
+                }
+            }
+            else {
+                skip(reader);
+            }
+        }
+        return deployment;
+    }
+
+    private @Nonnull RoleInstance readRoleInstance(@Nonnull XMLStreamReader reader) throws XMLStreamException {
+        RoleInstance instance = new RoleInstance();
+
+        while( nextChild(reader) ) {
+            String name = reader.getLocalName();
+
+            if( name.equalsIgnoreCase("RoleName") ) {
+                instance.roleName = readText(reader);
+            }
+            else if( name.equalsIgnoreCase("InstanceSize") ) {
+                instance.instanceSize = readText(reader);
+            }
+            else if( name.equalsIgnoreCase("InstanceUpgradeDomain") ) {
+                instance.upgradeDomain = readText(reader);
+            }
+            else if( name.equalsIgnoreCase("InstanceErrorCode") ) {
+                instance.errorCode = readText(reader);
+            }
+            else if( name.equalsIgnoreCase("InstanceFaultDomain") ) {
+                instance.faultDomain = readText(reader);
+            }
+            else if( name.equalsIgnoreCase("FQDN") ) {
+                instance.fqdn = readText(reader);
+            }
+            else if( name.equalsIgnoreCase("IpAddress") ) {
+                instance.ipAddress = readText(reader);
+            }
+            else if( name.equalsIgnoreCase("PowerState") ) {
+                instance.powerState = readText(reader);
+            }
+            else if( name.equalsIgnoreCase("InstanceEndpoints") ) {
+                while( nextChild(reader) ) {
+                    while( nextChild(reader) ) {
+                        if( reader.getLocalName().equalsIgnoreCase("Vip") ) {
+                            String vip = readText(reader);
+
+                            if( vip != null && !instance.vips.contains(vip) ) {
+                                instance.vips.add(vip);
+                            }
+                        }
+                        else {
+                            skip(reader);
+                        }
+                    }
+                }
+            }
+            else {
+                skip(reader);
+            }
+        }
+        return instance;
+    }
+
+    private void readRole(@Nonnull XMLStreamReader reader, @Nonnull Deployment deployment) throws XMLStreamException {
+        while( nextChild(reader) ) {
+            String name = reader.getLocalName();
+
+            if( name.equalsIgnoreCase("RoleName") ) {
+                deployment.vmRoleName = readText(reader);
+            }
+            else if( name.equalsIgnoreCase("OSVirtualHardDisk") ) {
+                while( nextChild(reader) ) {
+                    String property = reader.getLocalName();
+
+                    if( property.equalsIgnoreCase("SourceImageName") ) {
+                        deployment.imageId = readText(reader);
+                    }
+                    else if( property.equalsIgnoreCase("MediaLink") ) {
+                        deployment.mediaLink = readText(reader);
+                    }
+                    else {
+                        skip(reader);
+                    }
+                }
+            }
+            else if( name.equalsIgnoreCase("ConfigurationSets") ) {
+                while( nextChild(reader) ) {
+                    if( reader.getLocalName().equalsIgnoreCase("ConfigurationSet") && isType(reader, "NetworkConfigurationSet") ) {
+                        while( nextChild(reader) ) {
+                            if( reader.getLocalName().equalsIgnoreCase("SubnetNames") ) {
+                                while( nextChild(reader) ) {
+                                    if( reader.getLocalName().equalsIgnoreCase("SubnetName") ) {
+                                        String subnet = readText(reader);
+
+                                        if( subnet != null ) {
+                                            deployment.subnetName = subnet;
+                                        }
+                                    }
+                                    else {
+                                        skip(reader);
+                                    }
+                                }
+                            }
+                            else {
+                                skip(reader);
+                            }
+                        }
+                    }
+                    else {
+                        skip(reader);
+                    }
+                }
+            }
+            else {
+                skip(reader);
+            }
+        }
+    }
+
+    /**
+     * Matches the element against its <code>i:type</code> attribute. Elements without a type match any type.
+     */
+    private boolean isType(@Nonnull XMLStreamReader reader, @Nonnull String type) {
+        String value = reader.getAttributeValue(XSI_NAMESPACE, "type");
+
+        return (value == null || type.equalsIgnoreCase(value));
+    }
+
+    /**
+     * Moves to the next child element of the current element.
+     * @return false once the end of the current element has been reached
+     */
+    private boolean nextChild(@Nonnull XMLStreamReader reader) throws XMLStreamException {
+        while( reader.hasNext() ) {
+            int event = reader.next();
+
+            if( event == XMLStreamReader.START_ELEMENT ) {
+                return true;
+            }
+            if( event == XMLStreamReader.END_ELEMENT ) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the text of the current element and moves to its end.
+     * @return the trimmed text or <code>null</code> if the element is empty
+     */
+    private @Nullable String readText(@Nonnull XMLStreamReader reader) throws XMLStreamException {
+        StringBuilder text = new StringBuilder();
+
+        while( reader.hasNext() ) {
+            int event = reader.next();
+
+            if( event == XMLStreamReader.CHARACTERS || event == XMLStreamReader.CDATA ) {
+                text.append(reader.getText());
+            }
+            else if( event == XMLStreamReader.START_ELEMENT ) {
+                skip(reader);
+            }
+            else if( event == XMLStreamReader.END_ELEMENT ) {
+                break;
+            }
+        }
+        String value = text.toString().trim();
+
+        return (value.length() < 1 ? null : value);
+    }
+
+    /**
+     * Moves past the end of the current element without looking at its content.
+     */
+    private void skip(@Nonnull XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+
+        while( depth > 0 && reader.hasNext() ) {
+            int event = reader.next();
+
+            if( event == XMLStreamReader.START_ELEMENT ) {
+                depth++;
+            }
+            else if( event == XMLStreamReader.END_ELEMENT ) {
+                depth--;
+            }
+        }
+    }
+
+    private @Nonnull XMLStreamReader open(@Nonnull InputStream input) throws CloudException {
+        try {
+            synchronized( factory ) {
+                return factory.createXMLStreamReader(input);
+            }
+        }
+        catch( XMLStreamException e ) {
+            try { input.close(); }
+            catch( IOException ignore ) { }
+            throw new CloudException(e);
+        }
+    }
+
+    private void close(@Nonnull XMLStreamReader reader, @Nonnull InputStream input) {
+        try { reader.close(); }
+        catch( XMLStreamException ignore ) { }
+        try { input.close(); }
+        catch( IOException ignore ) { }
+    }
+}
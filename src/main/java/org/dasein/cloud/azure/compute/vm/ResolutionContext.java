@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.compute.vm;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.azure.Azure;
+import org.dasein.cloud.compute.AffinityGroup;
+import org.dasein.cloud.compute.MachineImage;
+import org.dasein.cloud.compute.Platform;
+import org.dasein.cloud.dc.DataCenter;
+import org.dasein.cloud.network.VLAN;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * Lookups made while assembling virtual machines, remembered for the duration of a single listing so that each
+ * one is made at most once no matter how many virtual machines need it. Not thread-safe; a context belongs to the
+ * thread doing the listing.
+ * @since 2015.06.2
+ * @version 2015.06.2
+ */
+class ResolutionContext {
+    static private final Logger logger = Azure.getLogger(ResolutionContext.class);
+
+    private Azure                      provider;
+    private String                     regionId;
+    private String                     defaultDataCenterId;
+    private HashMap<String,DataCenter> affinityGroups = new HashMap<String, DataCenter>();
+    private HashMap<String,Platform>   imagePlatforms;
+    private HashMap<String,String>     vlanIds;
+
+    ResolutionContext(@Nonnull Azure provider, @Nonnull String regionId) {
+        this.provider = provider;
+        this.regionId = regionId;
+    }
+
+    /**
+     * @return the data center assigned to virtual machines in hosted services that are not in an affinity group
+     */
+    @Nonnull String getDefaultDataCenterId() throws CloudException, InternalException {
+        if( defaultDataCenterId == null ) {
+            Collection<DataCenter> dcs = provider.getDataCenterServices().listDataCenters(regionId);
+
+            defaultDataCenterId = dcs.iterator().next().getProviderDataCenterId();
+        }
+        return defaultDataCenterId;
+    }
+
+    /**
+     * @param affinityGroup the name of the affinity group
+     * @return the data center of the affinity group or <code>null</code> if the group or its data center does not exist
+     */
+    @Nullable DataCenter getAffinityGroupDataCenter(@Nonnull String affinityGroup) throws CloudException, InternalException {
+        if( affinityGroups.containsKey(affinityGroup) ) {
+            return affinityGroups.get(affinityGroup);
+        }
+        AffinityGroup group = provider.getComputeServices().getAffinityGroupSupport().get(affinityGroup);
+        DataCenter dc = null;
+
+        if( group != null ) {
+            dc = provider.getDataCenterServices().getDataCenter(group.getDataCenterId());
+        }
+        affinityGroups.put(affinityGroup, dc);
+        return dc;
+    }
+
+    /**
+     * @param imageId the ID of the image a virtual machine was launched from
+     * @return the platform of the image or <code>null</code> if the image is not in the catalog
+     */
+    @Nullable Platform getImagePlatform(@Nonnull String imageId) {
+        if( imagePlatforms == null ) {
+            imagePlatforms = new HashMap<String, Platform>();
+            try {
+                for( MachineImage img : provider.getComputeServices().getImageSupport().listAllImages() ) {
+                    imagePlatforms.put(img.getProviderMachineImageId(), img.getPlatform());
+                }
+            }
+            catch( Throwable t ) {
+                // an empty catalog leaves the guessed platform in place, just as a failed lookup always has
+                logger.warn("Error loading machine images: " + t.getMessage());
+            }
+        }
+        return imagePlatforms.get(imageId);
+    }
+
+    /**
+     * @param vlan the ID or name of a virtual network
+     * @return the provider ID of the virtual network or <code>null</code> if no such network exists
+     */
+    @Nullable String getVlanId(@Nonnull String vlan) throws CloudException, InternalException {
+        if( vlanIds == null ) {
+            HashMap<String,String> ids = new HashMap<String, String>();
+            ArrayList<VLAN> vlans = new ArrayList<VLAN>();
+
+            for( VLAN v : provider.getNetworkServices().getVlanSupport().listVlans() ) {
+                vlans.add(v);
+                if( v.getName() != null ) {
+                    ids.put(v.getName().toLowerCase(), v.getProviderVlanId());
+                }
+            }
+            // IDs take precedence over names, matching AzureVlanSupport.getVlan()
+            for( VLAN v : vlans ) {
+                ids.put(v.getProviderVlanId(), v.getProviderVlanId());
+            }
+            vlanIds = ids;
+        }
+        if( vlanIds.containsKey(vlan) ) {
+            return vlanIds.get(vlan);
+        }
+        return vlanIds.get(vlan.toLowerCase());
+    }
+}
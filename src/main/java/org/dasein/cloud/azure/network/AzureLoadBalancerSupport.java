@@ -26,6 +26,7 @@ import org.dasein.cloud.ProviderContext;
 import org.dasein.cloud.azure.Azure;
 import org.dasein.cloud.azure.AzureConfigException;
 import org.dasein.cloud.azure.AzureMethod;
+import org.dasein.cloud.azure.AzureSingleFlight;
 import org.dasein.cloud.azure.compute.AzureComputeServices;
 import org.dasein.cloud.azure.network.model.*;
 import org.dasein.cloud.compute.VirtualMachine;
@@ -49,6 +50,8 @@ public class AzureLoadBalancerSupport extends AbstractLoadBalancerSupport<Azure>
     static private final Logger logger = Logger.getLogger(AzureLoadBalancerSupport.class);
     static private final Logger wire   = Azure.getWireLogger(AzureLoadBalancerSupport.class);
 
+    static private final AzureSingleFlight<Collection<VirtualMachine>> vmListingsInFlight = new AzureSingleFlight<Collection<VirtualMachine>>();
+
     public static final String RESOURCE_PROFILES = "/services/WATM/profiles";
     public static final String RESOURCE_PROFILE = "/services/WATM/profiles/%s";
     public static final String RESOURCE_DEFINITIONS = "/services/WATM/profiles/%s/definitions";
@@ -322,14 +325,23 @@ public class AzureLoadBalancerSupport extends AbstractLoadBalancerSupport<Azure>
 
         // this list VM call can be very slow, so we cache for a short time to help with clients calling
         // listEndpoints() on many LBs in a short period of time.
-        Cache<VirtualMachine> cache = Cache.getInstance(provider, "LoadBalancerVMs", VirtualMachine.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Minute>(1, TimePeriod.MINUTE));
+        final Cache<VirtualMachine> cache = Cache.getInstance(provider, "LoadBalancerVMs", VirtualMachine.class, CacheLevel.REGION_ACCOUNT, new TimePeriod<Minute>(1, TimePeriod.MINUTE));
         Collection<VirtualMachine> virtualMachines = (Collection<VirtualMachine>)cache.get(provider.getContext());
         if (virtualMachines == null) {
-            virtualMachines = new ArrayList<VirtualMachine>();
-            for (VirtualMachine vm : provider.getComputeServices().getVirtualMachineSupport().listVirtualMachines()) {
-                virtualMachines.add(vm);
-            }
-            cache.put(provider.getContext(), virtualMachines);
+            // callers that miss the cache together share one listing
+            final ProviderContext ctx = provider.getContext();
+
+            virtualMachines = vmListingsInFlight.execute(ctx.getAccountNumber() + "|" + ctx.getRegionId(), new AzureSingleFlight.Call<Collection<VirtualMachine>>() {
+                public Collection<VirtualMachine> call() throws CloudException, InternalException {
+                    Collection<VirtualMachine> list = new ArrayList<VirtualMachine>();
+
+                    for (VirtualMachine vm : provider.getComputeServices().getVirtualMachineSupport().listVirtualMachines()) {
+                        list.add(vm);
+                    }
+                    cache.put(ctx, list);
+                    return list;
+                }
+            }, null);
         }
 
         DefinitionModel definitionModel = getDefinition(forLoadBalancerId);
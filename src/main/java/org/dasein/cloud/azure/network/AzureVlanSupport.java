@@ -195,10 +195,8 @@ public class AzureVlanSupport implements VLANSupport {
                                     addressPrefix.appendChild(doc.createTextNode(subCidr));
 
             if (requestId != null) {
-                int httpCode = method.getOperationStatus(requestId);
-                while (httpCode == -1) {
-                    httpCode = method.getOperationStatus(requestId);
-                }
+                int httpCode = provider.getOperationTracker().waitFor(requestId);
+
                 if (httpCode == HttpServletResponse.SC_OK) {
                     try {
                         return getSubnet(subName);
@@ -211,14 +209,8 @@ public class AzureVlanSupport implements VLANSupport {
             String requestId = method.invoke("PUT", ctx.getAccountNumber(),resourceDir, xml.toString());
 
             if (requestId != null) {
-                int httpCode = method.getOperationStatus(requestId);
-                while (httpCode == -1) {
-                    try {
-                        Thread.sleep(15000L);
-                    }
-                    catch (InterruptedException ignored){}
-                    httpCode = method.getOperationStatus(requestId);
-                }
+                int httpCode = provider.getOperationTracker().waitFor(requestId);
+
                 if (httpCode == HttpServletResponse.SC_OK) {
                     try {
                         return getSubnet(subName+"_"+vlan.getProviderVlanId());
@@ -347,14 +339,8 @@ public class AzureVlanSupport implements VLANSupport {
             String requestId = method.invoke("PUT", ctx.getAccountNumber(),resourceDir, xml.toString());
 
             if (requestId != null) {
-                int httpCode = method.getOperationStatus(requestId);
-                while (httpCode == -1) {
-                    try {
-                        Thread.sleep(15000L);
-                    }
-                    catch (InterruptedException ignored){}
-                    httpCode = method.getOperationStatus(requestId);
-                }
+                int httpCode = provider.getOperationTracker().waitFor(requestId);
+
                 if (httpCode == HttpServletResponse.SC_OK) {
                     try {
                         return getVlan(name);
@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.storage;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.azure.Azure;
+import org.dasein.cloud.azure.AzureOperationTracker;
+import org.dasein.cloud.azure.AzureRetryPolicy;
+import org.dasein.cloud.azure.AzureStorageMethod;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletResponse;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * A server-side copy into a blob that the service may still be working on. The target blob is polled with
+ * <code>HEAD</code> requests from the shared {@link AzureOperationTracker} scheduler, backing off from quick polls
+ * towards the configured maximum delay, so any number of copies can be followed without a thread for each. The
+ * <code>x-ms-copy-status</code> and <code>x-ms-copy-progress</code> headers of each poll tell whether the copy is
+ * done and how far it got; a blob without them was copied synchronously and is complete. The copy and the polls
+ * are sent with {@link AzureStorageMethod#COPY_VERSION}, since older API versions never report copy status. A poll
+ * that fails with an error worth retrying leaves the copy pending for the next poll; only a missing target or a
+ * copy the service reports failed or aborted fails the copy.
+ * @since 2015.06.2
+ * @version 2015.06.2
+ */
+public class BlobCopy implements AzureOperationTracker.StatusSource {
+    static private final Logger logger = Azure.getLogger(BlobCopy.class);
+
+    private Azure           provider;
+    private String          target;
+    private Future<Integer> operation;
+    private volatile long   bytesCopied = -1L;
+    private volatile long   bytesTotal  = -1L;
+
+    /**
+     * @param provider the provider to poll the target through
+     * @param target the resource of the target blob, the container and blob name separated by a slash
+     */
+    public BlobCopy(@Nonnull Azure provider, @Nonnull String target) {
+        this.provider = provider;
+        this.target = target;
+    }
+
+    /**
+     * Starts following the copy once the service accepted it.
+     */
+    void track() {
+        operation = new AzureOperationTracker(this, provider).track(target);
+    }
+
+    /**
+     * @return the resource of the target blob
+     */
+    public @Nonnull String getTarget() {
+        return target;
+    }
+
+    /**
+     * @return the number of bytes copied as of the latest poll or -1 if it is not yet known
+     */
+    public long getBytesCopied() {
+        return bytesCopied;
+    }
+
+    /**
+     * @return the size of the source blob as of the latest poll or -1 if it is not yet known
+     */
+    public long getBytesTotal() {
+        return bytesTotal;
+    }
+
+    /**
+     * @return true if the copy completed, failed or could no longer be followed
+     */
+    public boolean isDone() {
+        return (operation == null || operation.isDone());
+    }
+
+    /**
+     * Blocks until the copy is no longer in progress.
+     * @throws CloudException the copy failed, the target disappeared or the copy did not complete in time
+     * @throws InternalException the wait was interrupted
+     */
+    public void waitFor() throws CloudException, InternalException {
+        if( operation != null ) {
+            AzureOperationTracker.waitFor(operation);
+        }
+    }
+
+    public @Nonnull AzureOperationTracker.Status getStatus(@Nonnull String requestId) throws CloudException, InternalException {
+        AzureStorageMethod method = new AzureStorageMethod(provider);
+        HashMap<String,String> headers = new HashMap<String, String>();
+
+        // the copy headers are only returned from this version on
+        headers.put("x-ms-version", AzureStorageMethod.COPY_VERSION);
+
+        Map<String,String> properties;
+
+        try {
+            properties = method.getBlobProperties("HEAD", target, new HashMap<String, String>(), null, headers, true);
+        }
+        catch( CloudException e ) {
+            return getStatus(e);
+        }
+        return getStatus(properties);
+    }
+
+    /**
+     * Interprets an error polling the target blob. An error the request could be retried for says nothing about
+     * the copy, which is left pending until the next poll.
+     * @param error the error the poll failed with
+     * @return the pending status if the error is transient
+     * @throws CloudException the error is not transient
+     */
+    public @Nonnull AzureOperationTracker.Status getStatus(@Nonnull CloudException error) throws CloudException {
+        if( !AzureRetryPolicy.isRetryable(error, true) ) {
+            throw error;
+        }
+        logger.warn("Unable to poll the copy to " + target + ", polling again later: " + error.getMessage());
+        return new AzureOperationTracker.Status(-1, -1L);
+    }
+
+    /**
+     * Interprets the properties of the target blob, recording the progress they report.
+     * @param properties the response headers of a <code>HEAD</code> on the target blob or <code>null</code> if it
+     * does not exist
+     * @return the status of the copy: -1 while it is pending, 200 once it succeeded
+     * @throws CloudException the copy failed or was aborted, or the target blob does not exist
+     */
+    public @Nonnull AzureOperationTracker.Status getStatus(@Nullable Map<String,String> properties) throws CloudException {
+        if( properties == null ) {
+            throw new CloudException("The copy target " + target + " does not exist");
+        }
+        String status = properties.get("x-ms-copy-status");
+        String progress = properties.get("x-ms-copy-progress");
+
+        if( progress != null ) {
+            int idx = progress.indexOf('/');
+
+            try {
+                if( idx > 0 ) {
+                    bytesCopied = Long.parseLong(progress.substring(0, idx).trim());
+                    bytesTotal = Long.parseLong(progress.substring(idx + 1).trim());
+                }
+            }
+            catch( NumberFormatException e ) {
+                logger.warn("Invalid copy progress for " + target + ": " + progress);
+            }
+        }
+        if( status == null || status.equalsIgnoreCase("success") ) {
+            if( progress == null ) {
+                String length = properties.get("Content-Length");
+
+                if( length != null ) {
+                    try {
+                        bytesCopied = bytesTotal = Long.parseLong(length);
+                    }
+                    catch( NumberFormatException ignore ) {
+                        // the copy is still complete
+                    }
+                }
+            }
+            return new AzureOperationTracker.Status(HttpServletResponse.SC_OK, -1L);
+        }
+        if( status.equalsIgnoreCase("pending") ) {
+            if( logger.isDebugEnabled() ) {
+                logger.debug("Copy to " + target + " is pending at " + bytesCopied + " of " + bytesTotal + " bytes");
+            }
+            return new AzureOperationTracker.Status(-1, -1L);
+        }
+        String description = properties.get("x-ms-copy-status-description");
+
+        throw new CloudException("Copy to " + target + " " + status + (description == null ? "" : ": " + description));
+    }
+}
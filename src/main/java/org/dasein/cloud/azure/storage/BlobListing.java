@@ -0,0 +1,249 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.storage;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.azure.Azure;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Lists the containers of an account or the blobs of a container page by page, following the
+ * <code>NextMarker</code> of each page until the last one. The next page is requested as soon as the marker of the
+ * current one is known, so it is on its way while the entries of the current page are pushed to the listing. A
+ * page that cannot be fetched fails the listing once the pages before it have been pushed.
+ * @since 2015.06.2
+ * @version 2015.06.2
+ */
+public class BlobListing {
+    static private final Logger logger = Azure.getLogger(BlobListing.class);
+
+    static public final int MAX_PAGE_SIZE = 5000;
+
+    /**
+     * Where the pages of a listing come from.
+     */
+    public interface Source {
+        /**
+         * Fetches one page of the listing. Called from the thread that fetches the next page ahead.
+         * @param queries the parameters of the request, with the prefix, delimiter and marker already URL encoded
+         * @return the <code>EnumerationResults</code> document or <code>null</code> if there is nothing to list
+         */
+        public @Nullable Document getPage(@Nonnull Map<String,String> queries) throws CloudException, InternalException;
+    }
+
+    /**
+     * Where the entries of a listing go, in the order the pages list them.
+     */
+    public interface Target {
+        /**
+         * Receives one entry of the listing.
+         * @param entry a <code>Container</code> element when listing an account or a <code>Blob</code> element when
+         * listing a container
+         */
+        public void push(@Nonnull Node entry) throws CloudException, InternalException;
+
+        /**
+         * Receives a virtual directory that rolls up the blobs whose names continue past the prefix with the
+         * delimiter.
+         * @param name the common prefix of the blobs up to and including the delimiter
+         */
+        public void pushDirectory(@Nonnull String name) throws CloudException, InternalException;
+    }
+
+    private String                  container;
+    private Source                  source;
+    private TreeMap<String,String>  queries = new TreeMap<String, String>();
+
+    /**
+     * @param container the container to list or <code>null</code> to list the containers of the account
+     * @param source where the pages come from
+     * @param pageSize the number of entries to ask for per page, at most {@link #MAX_PAGE_SIZE}
+     */
+    public BlobListing(@Nullable String container, @Nonnull Source source, int pageSize) {
+        this.container = container;
+        this.source = source;
+        if( container != null ) {
+            queries.put("restype", "container");
+        }
+        queries.put("comp", "list");
+        queries.put("maxresults", String.valueOf(Math.min(MAX_PAGE_SIZE, Math.max(1, pageSize))));
+    }
+
+    /**
+     * @param prefix the prefix of the names to list or <code>null</code> to list everything
+     * @throws InternalException the prefix could not be encoded
+     */
+    public void setPrefix(@Nullable String prefix) throws InternalException {
+        set("prefix", prefix);
+    }
+
+    /**
+     * @param delimiter the separator of virtual directories or <code>null</code> to list blobs at every level; only
+     * supported when listing a container
+     * @throws InternalException the delimiter could not be encoded
+     */
+    public void setDelimiter(@Nullable String delimiter) throws InternalException {
+        set("delimiter", delimiter);
+    }
+
+    private void set(@Nonnull String name, @Nullable String value) throws InternalException {
+        if( value == null ) {
+            queries.remove(name);
+        }
+        else {
+            queries.put(name, encode(value));
+        }
+    }
+
+    /**
+     * Fetches every page of the listing and pushes its entries.
+     * @param target where the entries go
+     * @throws CloudException a page could not be fetched or the target failed
+     * @throws InternalException a page could not be requested or the listing was interrupted
+     */
+    public void load(@Nonnull Target target) throws CloudException, InternalException {
+        final String name = (container == null ? "the account" : container);
+        ExecutorService fetcher = null;
+        int count = 0;
+
+        try {
+            Document doc = source.getPage(queries);
+
+            while( doc != null ) {
+                String marker = getText(doc.getDocumentElement(), "NextMarker");
+                Future<Document> next = null;
+
+                if( marker != null ) {
+                    if( fetcher == null ) {
+                        fetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                            public Thread newThread(@Nonnull Runnable r) {
+                                Thread t = new Thread(r, "Azure listing of " + name);
+
+                                t.setDaemon(true);
+                                return t;
+                            }
+                        });
+                    }
+                    next = fetcher.submit(new PageRequest(encode(marker)));
+                }
+                push(doc, target);
+                count++;
+                doc = (next == null ? null : getPage(next));
+            }
+            if( logger.isDebugEnabled() ) {
+                logger.debug("Listed " + name + " in " + count + " pages");
+            }
+        }
+        finally {
+            if( fetcher != null ) {
+                fetcher.shutdownNow();
+            }
+        }
+    }
+
+    private void push(@Nonnull Document doc, @Nonnull Target target) throws CloudException, InternalException {
+        NodeList matches = doc.getElementsByTagName(container == null ? "Container" : "Blob");
+
+        for( int i=0; i<matches.getLength(); i++ ) {
+            target.push(matches.item(i));
+        }
+        matches = doc.getElementsByTagName("BlobPrefix");
+        for( int i=0; i<matches.getLength(); i++ ) {
+            String name = getText(matches.item(i), "Name");
+
+            if( name != null ) {
+                target.pushDirectory(name);
+            }
+        }
+    }
+
+    private class PageRequest implements Callable<Document> {
+        private String marker;
+
+        PageRequest(@Nonnull String marker) {
+            this.marker = marker;
+        }
+
+        public @Nullable Document call() throws CloudException, InternalException {
+            TreeMap<String,String> pageQueries = new TreeMap<String, String>(queries);
+
+            pageQueries.put("marker", marker);
+            return source.getPage(pageQueries);
+        }
+    }
+
+    private @Nullable Document getPage(@Nonnull Future<Document> next) throws CloudException, InternalException {
+        try {
+            return next.get();
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InternalException(e);
+        }
+        catch( ExecutionException e ) {
+            if( e.getCause() instanceof CloudException ) {
+                throw (CloudException)e.getCause();
+            }
+            if( e.getCause() instanceof InternalException ) {
+                throw (InternalException)e.getCause();
+            }
+            throw new InternalException(e.getCause());
+        }
+    }
+
+    static private @Nonnull String encode(@Nonnull String value) throws InternalException {
+        try {
+            return URLEncoder.encode(value, "utf-8");
+        }
+        catch( UnsupportedEncodingException e ) {
+            throw new InternalException(e);
+        }
+    }
+
+    /**
+     * @return the text of the first child of the node with the specified name or <code>null</code> if it has none
+     */
+    static @Nullable String getText(@Nonnull Node node, @Nonnull String childName) {
+        for( Node child = node.getFirstChild(); child != null; child = child.getNextSibling() ) {
+            if( child.getNodeName().equals(childName) ) {
+                String value = child.getTextContent();
+
+                return (value == null || value.trim().length() < 1 ? null : value.trim());
+            }
+        }
+        return null;
+    }
+}
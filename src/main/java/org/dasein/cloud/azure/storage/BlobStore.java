@@ -18,27 +18,33 @@
 
 package org.dasein.cloud.azure.storage;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
 import java.util.TreeMap;
 
-import org.apache.commons.codec.binary.Base64;
 import org.apache.log4j.Logger;
 import org.dasein.cloud.*;
 import org.dasein.cloud.azure.Azure;
+import org.dasein.cloud.azure.AzureBlobPropertyCache;
 import org.dasein.cloud.azure.AzureConfigException;
 import org.dasein.cloud.azure.AzureStorageMethod;
 import org.dasein.cloud.identity.ServiceAction;
@@ -47,7 +53,6 @@ import org.dasein.cloud.storage.Blob;
 import org.dasein.cloud.storage.BlobStoreCapabilities;
 import org.dasein.cloud.storage.FileTransfer;
 import org.dasein.cloud.util.NamingConstraints;
-import org.dasein.util.CalendarWrapper;
 import org.dasein.util.Jiterator;
 import org.dasein.util.JiteratorPopulator;
 import org.dasein.util.PopulatorThread;
@@ -68,6 +73,9 @@ public class BlobStore extends AbstractBlobStoreSupport<Azure> {
     static public final int                                       MAX_OBJECTS     = -1;
     static public final Storage<org.dasein.util.uom.storage.Byte> MAX_OBJECT_SIZE = new Storage<org.dasein.util.uom.storage.Byte>(5000000000L, Storage.BYTE);
 
+    static public final String LIST_PAGE_SIZE     = "listPageSize";
+    static public final int    MAX_LIST_PAGE_SIZE = BlobListing.MAX_PAGE_SIZE;
+
     private Azure provider = null;
 
     public BlobStore(Azure provider) {
@@ -112,13 +120,17 @@ public class BlobStore extends AbstractBlobStoreSupport<Azure> {
         return capabilities;
     }
 
-    private void commitBlocks(@Nonnull String bucket, @Nonnull String object, @Nonnull Collection<String> blockIds) throws InternalException, CloudException {
+    private void commitBlocks(@Nonnull String bucket, @Nonnull String object, @Nonnull Collection<String> blockIds, @Nullable String contentMD5) throws InternalException, CloudException {
         String resource = bucket + "/" + object ;
 
         TreeMap <String, String> headers = new TreeMap <String, String>();
         TreeMap <String, String> queries = new TreeMap <String, String>();
 
         queries.put("comp", "blocklist");
+        if( contentMD5 != null ) {
+            // stored as the blob's Content-MD5 for downloads to check against
+            headers.put("x-ms-blob-content-md5", contentMD5);
+        }
 
         //Create post body
         Document doc = AzureStorageMethod.createDoc();
@@ -139,49 +151,59 @@ public class BlobStore extends AbstractBlobStoreSupport<Azure> {
     public void copyFile(@Nullable String sourceBucket, @Nonnull String sourceObject, @Nullable String targetBucket, @Nonnull String targetObject) throws InternalException, CloudException {
         logger.debug("ENTER - " + BlobStore.class.getName() + ".copyFile(" + sourceBucket + "," + sourceObject + "," + targetBucket + "," + targetObject + ")");
         try {
-            ProviderContext ctx = provider.getContext();
+            startCopy(sourceBucket, sourceObject, targetBucket, targetObject).waitFor();
+        }
+        finally {
+            logger.debug("EXIT - " + BlobStore.class.getName() + ".copyFile()");
+        }
+    }
 
-            if( ctx == null ) {
-                throw new AzureConfigException("No context was set for this request");
-            }
-            String regionId = ctx.getRegionId();
+    /**
+     * Starts a server-side copy of a blob without waiting for it to complete. The returned handle follows the copy
+     * from a shared scheduler, so many copies can be started and then waited for together.
+     * @param sourceBucket the container of the blob to copy
+     * @param sourceObject the name of the blob to copy
+     * @param targetBucket the container to copy to
+     * @param targetObject the name of the copy
+     * @return the copy in progress
+     * @throws CloudException the service did not accept the copy
+     * @throws InternalException no context was set for this request
+     */
+    public @Nonnull BlobCopy startCopy(@Nullable String sourceBucket, @Nonnull String sourceObject, @Nullable String targetBucket, @Nonnull String targetObject) throws InternalException, CloudException {
+        ProviderContext ctx = provider.getContext();
 
-            if( regionId == null ) {
-                throw new AzureConfigException("No region ID was specified for this request");
-            }
-            HashMap<String,String> headers = new HashMap<String,String>();
+        if( ctx == null ) {
+            throw new AzureConfigException("No context was set for this request");
+        }
+        String regionId = ctx.getRegionId();
 
-            String storageService = provider.getStorageService();
-            if( storageService == null || storageService.isEmpty()) {
-                throw new CloudException("Unable to find storage service in the current region: " + ctx.getRegionId());
-            }
+        if( regionId == null ) {
+            throw new AzureConfigException("No region ID was specified for this request");
+        }
+        HashMap<String,String> headers = new HashMap<String,String>();
 
-            headers.put("x-ms-copy-source", "/" + storageService + "/" + sourceBucket + "/" + sourceObject);
-            TreeMap <String, String> queryParams = new TreeMap <String, String>();
-            AzureStorageMethod method = new AzureStorageMethod(provider);
+        String storageService = provider.getStorageService();
+        if( storageService == null || storageService.isEmpty()) {
+            throw new CloudException("Unable to find storage service in the current region: " + ctx.getRegionId());
+        }
 
-            method.invoke(AzureStorageMethod.Storage_OPERATION_PUT, targetBucket + "/" + targetObject, queryParams, null, headers, true);
+        String endpoint = provider.getStorageEndpoint();
 
-            long timeout = System.currentTimeMillis() + (CalendarWrapper.MINUTE * 30L);
+        if( endpoint == null || endpoint.isEmpty() ) {
+            throw new CloudException("Cannot find blob storage endpoint in the current region");
+        }
+        // from this version on the copy may complete asynchronously and the source is named by its URL
+        headers.put("x-ms-version", AzureStorageMethod.COPY_VERSION);
+        headers.put("x-ms-copy-source", (endpoint.endsWith("/") ? endpoint : endpoint + "/") + sourceBucket + "/" + sourceObject);
+        TreeMap <String, String> queryParams = new TreeMap <String, String>();
+        AzureStorageMethod method = new AzureStorageMethod(provider);
 
-            while( timeout > System.currentTimeMillis() ) {
-                try {
-                    Blob blob = getObject(targetBucket, targetObject);
+        method.invoke(AzureStorageMethod.Storage_OPERATION_PUT, targetBucket + "/" + targetObject, queryParams, null, headers, true);
 
-                    if( blob != null ) {
-                        return;
-                    }
-                }
-                catch( Throwable ignore ) {
-                    // ignore
-                }
-                try { Thread.sleep(60000L); }
-                catch( InterruptedException ignore ) { }
-            }
-        }
-        finally {
-            logger.debug("EXIT - " + BlobStore.class.getName() + ".copyFile()");
-        }
+        BlobCopy copy = new BlobCopy(provider, targetBucket + "/" + targetObject);
+
+        copy.track();
+        return copy;
     }
 
     @Override
@@ -232,79 +254,96 @@ public class BlobStore extends AbstractBlobStoreSupport<Azure> {
 
     @Override
     public boolean exists(@Nonnull String bucketName) throws InternalException, CloudException {
-        TreeMap <String, String> queries = new TreeMap <String, String>();
         AzureStorageMethod method = new AzureStorageMethod(provider);
 
-        queries.put("comp", "list");
-
-        Document doc = method.getAsDoc(AzureStorageMethod.Storage_OPERATION_GET, "", queries, null, null, true);
-        NodeList matches = doc.getElementsByTagName("Container");
-
-        if( matches != null ){
-            for( int i=0; i<matches.getLength(); i++ ) {
-                Node bucket = matches.item(i);
-
-                if( bucket.hasChildNodes() ) {
-                    NodeList attributes = bucket.getChildNodes();
-
-                    for( int j=0; j<attributes.getLength(); j++ ) {
-                        Node attr = attributes.item(j);
+        return (method.getCachedContainerProperties(bucketName) != null);
+    }
 
-                        if( attr.getNodeName().equalsIgnoreCase("name") && attr.hasChildNodes() && attr.getFirstChild().getNodeValue().trim().equals(bucketName) ) {
-                            return true;
-                        }
-                    }
-                }
-            }
+    /**
+     * Checks whether a blob exists with a single <code>HEAD</code> request, or none at all if the blob was looked
+     * up or listed within the last few seconds.
+     * @param bucket the container of the blob
+     * @param object the name of the blob
+     * @return true if the blob exists
+     * @throws CloudException the request failed
+     * @throws InternalException no context was set for this request
+     */
+    public boolean exists(@Nullable String bucket, @Nonnull String object) throws InternalException, CloudException {
+        if( bucket == null ) {
+            return false;
         }
-        return false;
+        AzureStorageMethod method = new AzureStorageMethod(provider);
+
+        return (method.getCachedBlobProperties(bucket + "/" + object) != null);
     }
 
-    private @Nonnull Collection<String> getBlocks(@Nonnull String bucket, @Nonnull String object, @Nonnull String blocklistType, @Nonnull String blockTypeTag) throws  InternalException, CloudException{
+    /**
+     * Lists the blocks stored for a blob along with their sizes.
+     * @param bucket the container of the blob
+     * @param object the name of the blob
+     * @param blocklistType committed, uncommitted or all
+     * @param blockTypeTag the element of the block list to read, <code>CommittedBlocks</code> or <code>UncommittedBlocks</code>
+     * @return the size of every block by block ID, empty if the blob does not exist
+     */
+    private @Nonnull Map<String,Long> getBlocks(@Nonnull String bucket, @Nonnull String object, @Nonnull String blocklistType, @Nonnull String blockTypeTag) throws  InternalException, CloudException{
         TreeMap<String, String> queries = new TreeMap <String, String>();
-        ArrayList<String> idList = new ArrayList<String>();
+        HashMap<String,Long> blocks = new HashMap<String, Long>();
         String resource = bucket + "/" + object;
 
         queries.put("comp", "blocklist");
         // committed, uncommitted, or all ; default committed
         queries.put("blocklisttype", blocklistType);
 
-        try {
+        AzureStorageMethod method = new AzureStorageMethod(provider);
 
-            AzureStorageMethod method = new AzureStorageMethod(provider);
+        Document doc = method.getAsDoc(AzureStorageMethod.Storage_OPERATION_GET,
+                resource, queries, null, null, true);
+
+        if( doc == null ) {
+            return blocks;
+        }
+        NodeList matches = doc.getElementsByTagName(blockTypeTag);
+
+        for( int m=0; m<matches.getLength(); m++ ) {
+            NodeList blockAttributes = matches.item(m).getChildNodes();
 
-            Document doc = method.getAsDoc(AzureStorageMethod.Storage_OPERATION_GET,
-                    resource, queries, null, null, true);
-
-            NodeList matches = doc.getElementsByTagName(blockTypeTag);
-
-            if(matches != null){
-                Node block = matches.item(0);
-                NodeList blockAttributes = block.getChildNodes();
-                for( int i=0; i<blockAttributes.getLength(); i++ ) {
-                    Node node = blockAttributes.item(i);
-                    if(node.getNodeType() == Node.TEXT_NODE) continue;
-                    if(!node.getNodeName().equals("Block")) continue;
-                    NodeList attributes = node.getChildNodes();
-                    for( int j=0; j<attributes.getLength(); j++ ) {
-                        Node attribute = attributes.item(j);
-                        if( attribute.getNodeName().equalsIgnoreCase("Name") ) {
-                            idList.add(attribute.getFirstChild().getNodeValue());
+            for( int i=0; i<blockAttributes.getLength(); i++ ) {
+                Node node = blockAttributes.item(i);
+                if(node.getNodeType() == Node.TEXT_NODE) continue;
+                if(!node.getNodeName().equals("Block")) continue;
+                NodeList attributes = node.getChildNodes();
+                String name = null;
+                long size = -1L;
+
+                for( int j=0; j<attributes.getLength(); j++ ) {
+                    Node attribute = attributes.item(j);
+
+                    if( !attribute.hasChildNodes() ) {
+                        continue;
+                    }
+                    if( attribute.getNodeName().equalsIgnoreCase("Name") ) {
+                        name = attribute.getFirstChild().getNodeValue().trim();
+                    }
+                    else if( attribute.getNodeName().equalsIgnoreCase("Size") ) {
+                        try {
+                            size = Long.parseLong(attribute.getFirstChild().getNodeValue().trim());
+                        }
+                        catch( NumberFormatException ignore ) {
+                            // a block of unknown size is never reused
                         }
                     }
                 }
+                if( name != null ) {
+                    blocks.put(name, size);
+                }
             }
-        } catch (AzureConfigException e) {
-            e.printStackTrace();
-        } catch (InternalException e) {
-            e.printStackTrace();
         }
-        return idList;
+        return blocks;
     }
 
     @Override
     public Blob getBucket(@Nonnull String bucketName) throws InternalException, CloudException {
-        for( Blob blob : list(null) ) {
+        for( Blob blob : list(null, bucketName, null) ) {
             if( blob.isContainer() ) {
                 String name = blob.getBucketName();
 
@@ -321,14 +360,27 @@ public class BlobStore extends AbstractBlobStoreSupport<Azure> {
         if( bucketName == null ) {
             return null;
         }
-        for( Blob blob : list(bucketName) ) {
-            String name = blob.getObjectName();
+        ProviderContext ctx = provider.getContext();
 
-            if( name != null && name.equals(objectName) ) {
-                return blob;
-            }
+        if( ctx == null ) {
+            throw new CloudException("No context was specified for this request");
         }
-        return null;
+        String regionId = ctx.getRegionId();
+
+        if( regionId == null ) {
+            throw new CloudException("No region ID was specified");
+        }
+        AzureStorageMethod method = new AzureStorageMethod(provider);
+        Map<String,String> properties = method.getCachedBlobProperties(bucketName + "/" + objectName);
+
+        if( properties == null ) {
+            return null;
+        }
+        String endpoint = provider.getStorageEndpoint();
+        String location = (endpoint == null ? "" : (endpoint.endsWith("/") ? endpoint : endpoint + "/")) + bucketName + "/" + objectName;
+        String length = properties.get("Content-Length");
+
+        return Blob.getInstance(regionId, location, bucketName, objectName, parseDate(properties.get("Last-Modified")), new Storage<Byte>(length == null ? -1L : Long.parseLong(length), Storage.BYTE));
     }
 
     @Nullable
@@ -339,12 +391,12 @@ public class BlobStore extends AbstractBlobStoreSupport<Azure> {
 
     @Override
     public @Nullable Storage<org.dasein.util.uom.storage.Byte> getObjectSize(@Nullable String bucket, @Nullable String object) throws InternalException, CloudException {
-        String resource = bucket + "/" + object;
-
+        if( bucket == null || object == null ) {
+            return null;
+        }
         AzureStorageMethod method = new AzureStorageMethod(provider);
-        String blobProperty = "Content-Length";
-
-        String result = method.getBlobProperty(AzureStorageMethod.Storage_OPERATION_GET, resource, new HashMap<String, String>(), null, null, true, blobProperty);
+        Map<String,String> properties = method.getCachedBlobProperties(bucket + "/" + object);
+        String result = (properties == null ? null : properties.get("Content-Length"));
 
         if( result != null ) {
             return new Storage<org.dasein.util.uom.storage.Byte>(Long.valueOf(result), Storage.BYTE);
@@ -366,18 +418,77 @@ public class BlobStore extends AbstractBlobStoreSupport<Azure> {
             if( bucket == null ) {
                 throw new CloudException("No bucket was specified");
             }
-            StringBuilder resource = new StringBuilder();
+            get(bucket, object, toFile, transfer, provider.getIntProperty(RangeDownloader.DOWNLOAD_THREADS, RangeDownloader.DEFAULT_THREADS), provider.getLongProperty(RangeDownloader.PART_SIZE, RangeDownloader.DEFAULT_PART_SIZE));
+        }
+        finally {
+            if( logger.isTraceEnabled() ) {
+                logger.trace("EXIT - " + BlobStore.class.getName() + ".get()");
+            }
+        }
+    }
 
-            resource.append(bucket);
-            resource.append("/");
-            resource.append(object);
+    /**
+     * Downloads a blob with explicit settings for the ranged download of large blobs, overriding the custom
+     * properties named by {@link RangeDownloader#DOWNLOAD_THREADS} and {@link RangeDownloader#PART_SIZE}. Blobs
+     * no larger than one part, or any blob when <code>threads</code> is 1, are fetched with a single request.
+     * @param bucket the container of the blob
+     * @param object the name of the blob
+     * @param toFile the file to write the blob to
+     * @param transfer the transfer to report progress to, if any
+     * @param threads the number of ranges to fetch at once
+     * @param partSize the size of each range in bytes, at most {@link RangeDownloader#MAX_PART_SIZE}
+     * @throws CloudException the blob does not exist or could not be fetched
+     * @throws InternalException the file could not be written
+     */
+    public void get(@Nullable String bucket, @Nonnull String object, @Nonnull File toFile, @Nullable FileTransfer transfer, int threads, long partSize) throws InternalException, CloudException {
+        if( bucket == null ) {
+            throw new CloudException("No bucket was specified");
+        }
+        String resource = bucket + "/" + object;
+        AzureStorageMethod method = new AzureStorageMethod(provider);
+        Map<String,String> properties = method.getBlobProperties("HEAD", resource, new HashMap<String, String>(), null, null, true);
 
-            AzureStorageMethod method = new AzureStorageMethod(provider);
+        if( properties == null ) {
+            throw new CloudException("No such file: " + bucket + "/" + object);
+        }
+        download(resource, properties, toFile, transfer, threads, partSize);
+    }
+
+    /**
+     * Downloads a blob whose properties are already known, from a <code>HEAD</code> request or a listing.
+     * @param resource the container and name of the blob
+     * @param properties the <code>Content-Length</code>, <code>Content-MD5</code> and <code>ETag</code> of the blob,
+     * as far as they are known
+     * @param toFile the file to write the blob to
+     * @param transfer the transfer to report progress to, if any
+     * @param threads the number of ranges to fetch at once
+     * @param partSize the size of each range in bytes
+     * @throws CloudException the blob does not exist or could not be fetched
+     * @throws InternalException the file could not be written
+     */
+    private void download(@Nonnull String resource, @Nonnull Map<String,String> properties, @Nonnull File toFile, @Nullable FileTransfer transfer, int threads, long partSize) throws InternalException, CloudException {
+        AzureStorageMethod method = new AzureStorageMethod(provider);
+        String contentLength = properties.get("Content-Length");
+        long length = (contentLength == null ? -1L : Long.parseLong(contentLength));
+        RangeDownloader downloader = new RangeDownloader(provider, new BlobRanges(resource, properties.get("ETag")), threads, partSize);
 
-            InputStream input = method.getAsStream(AzureStorageMethod.Storage_OPERATION_GET, resource.toString(), new HashMap<String, String>(), null, null, true);
+        if( length < 0 || !downloader.isRanged(length) ) {
+            TreeMap <String, String> headers = new TreeMap <String, String>();
+
+            if( properties.get("ETag") != null ) {
+                // the length and MD5 describe that version, which may be older than a listing
+                headers.put("If-Match", properties.get("ETag"));
+            }
+            InputStream input = method.getAsStream(AzureStorageMethod.Storage_OPERATION_GET, resource, new HashMap<String, String>(), null, headers, true);
 
             if( input == null ) {
-                throw new CloudException("No such file: " + bucket + "/" + object);
+                throw new CloudException("No such file: " + resource);
+            }
+            String contentMD5 = properties.get("Content-MD5");
+
+            if( contentMD5 != null && length >= 0 ) {
+                // checked as the content streams to the file rather than by reading the file back
+                input = ContentMD5.verify(input, length, contentMD5, resource);
             }
             try {
                 copy(input, new FileOutputStream(toFile), transfer);
@@ -390,11 +501,94 @@ public class BlobStore extends AbstractBlobStoreSupport<Azure> {
                 logger.error("Could not fetch file to " + toFile + ": " + e.getMessage());
                 throw new CloudException(e);
             }
+            return;
+        }
+        RandomAccessFile output;
+
+        try {
+            output = new RandomAccessFile(toFile, "rw");
+        }
+        catch( FileNotFoundException e ) {
+            logger.error("Could not find target file to fetch to " + toFile + ": " + e.getMessage());
+            throw new InternalException(e);
+        }
+        TransferJournal journal = null;
+
+        try {
+            if( TransferJournal.isEnabled(provider) ) {
+                TreeMap<String,String> identity = new TreeMap<String, String>();
+                String etag = properties.get("ETag");
+
+                identity.put("type", "download");
+                identity.put("blob", resource);
+                identity.put("length", String.valueOf(length));
+                identity.put("partSize", String.valueOf(downloader.getPartSize()));
+                identity.put("etag", etag == null ? "" : etag);
+                if( output.length() != length ) {
+                    // the parts an earlier attempt wrote are gone with the file
+                    //noinspection ResultOfMethodCallIgnored
+                    TransferJournal.getJournalFile(toFile).delete();
+                }
+                journal = TransferJournal.open(toFile, identity);
+                downloader.setCheckpoint(journal);
+            }
+            output.setLength(length);
+            downloader.download(output.getChannel(), length, transfer);
+            if( journal != null ) {
+                journal.delete();
+            }
+        }
+        catch( IOException e ) {
+            logger.error("Could not fetch file to " + toFile + ": " + e.getMessage());
+            throw new InternalException(e);
         }
         finally {
-            if( logger.isTraceEnabled() ) {
-                logger.trace("EXIT - " + BlobStore.class.getName() + ".get()");
+            try { output.close(); }
+            catch( Throwable ignore ) { }
+            if( journal != null ) {
+                journal.close();
+            }
+        }
+    }
+
+    /**
+     * Fetches ranges of one version of a blob. A range of a blob that was overwritten since its ETag was read
+     * fails instead of mixing the two versions into one file. Every range is checked against the MD5 the service
+     * returns for it, since the ranges arrive out of order and cannot be digested as one blob without reading the
+     * file again. The service only digests ranges of up to 4 MB, which is why parts are never larger than
+     * {@link RangeDownloader#MAX_PART_SIZE}.
+     */
+    private class BlobRanges implements RangeDownloader.Source {
+        private String resource;
+        private String etag;
+
+        BlobRanges(@Nonnull String resource, @Nullable String etag) {
+            this.resource = resource;
+            this.etag = etag;
+        }
+
+        public @Nonnull InputStream getRange(long offset, long length) throws CloudException, InternalException {
+            TreeMap <String, String> headers = new TreeMap <String, String>();
+            AzureStorageMethod method = new AzureStorageMethod(provider);
+
+            TreeMap <String, String> properties = new TreeMap <String, String>(String.CASE_INSENSITIVE_ORDER);
+
+            headers.put("x-ms-range", "bytes=" + offset + "-" + (offset + length - 1));
+            headers.put("x-ms-range-get-content-md5", "true");
+            if( etag != null ) {
+                headers.put("If-Match", etag);
+            }
+            InputStream input = method.getAsStream(AzureStorageMethod.Storage_OPERATION_GET, resource, new HashMap<String, String>(), null, headers, true, properties);
+
+            if( input == null ) {
+                throw new CloudException("No such file: " + resource);
+            }
+            String contentMD5 = properties.get("Content-MD5");
+
+            if( contentMD5 != null ) {
+                input = ContentMD5.verify(input, length, contentMD5, resource + " at " + offset);
             }
+            return input;
         }
     }
 
@@ -438,9 +632,11 @@ public class BlobStore extends AbstractBlobStoreSupport<Azure> {
             resource = bucket;
         }
 
-        InputStream input = method.getAsStream(AzureStorageMethod.Storage_OPERATION_GET, resource, queries, null, null, false);
+        // an anonymous HEAD answers the same question as a GET without downloading the object or leaving
+        // its body on a pooled connection
+        String requestId = method.getBlobProperty("HEAD", resource, queries, null, null, false, "x-ms-request-id");
 
-        return (input != null);
+        return (requestId != null);
     }
 
     @Override
@@ -460,6 +656,24 @@ public class BlobStore extends AbstractBlobStoreSupport<Azure> {
 
     @Override
     public @Nonnull Collection<Blob> list(final @Nullable String bucket) throws CloudException, InternalException {
+        return list(bucket, null, null);
+    }
+
+    /**
+     * Lists the blobs in a container, or the containers if no container is specified, whose names start with a
+     * prefix. The service does the filtering and the listing is fetched a page at a time as it is iterated, so
+     * listing a container with millions of blobs holds no more than a page of them in memory. With a delimiter,
+     * blobs whose names continue past the prefix with the delimiter are rolled up into one entry per virtual
+     * directory, named by the common prefix up to and including the delimiter, with a size of 0.
+     * @param bucket the container to list or <code>null</code> to list the containers
+     * @param prefix the prefix of the names to list or <code>null</code> to list everything
+     * @param delimiter the separator of virtual directories or <code>null</code> to list blobs at every level; not
+     * supported for containers
+     * @return the matching blobs, or containers, in name order
+     * @throws CloudException the listing could not be fetched
+     * @throws InternalException no context was set for this request
+     */
+    public @Nonnull Collection<Blob> list(final @Nullable String bucket, final @Nullable String prefix, final @Nullable String delimiter) throws CloudException, InternalException {
         final ProviderContext ctx = provider.getContext();
         PopulatorThread <Blob> populator;
 
@@ -475,7 +689,7 @@ public class BlobStore extends AbstractBlobStoreSupport<Azure> {
         populator = new PopulatorThread<Blob>(new JiteratorPopulator<Blob>() {
             public void populate(@Nonnull Jiterator<Blob> iterator) throws CloudException, InternalException {
                 try {
-                    list(regionId, bucket, iterator);
+                    list(regionId, bucket, prefix, delimiter, iterator);
                 }
                 finally {
                     provider.release();
@@ -486,38 +700,36 @@ public class BlobStore extends AbstractBlobStoreSupport<Azure> {
         return populator.getResult();
     }
 
-    private void list(@Nonnull String regionId, @Nullable String bucket, @Nonnull Jiterator<Blob> iterator) throws CloudException, InternalException {
+    private void list(@Nonnull String regionId, @Nullable String bucket, @Nullable String prefix, @Nullable String delimiter, @Nonnull Jiterator<Blob> iterator) throws CloudException, InternalException {
         if( bucket == null ) {
-            loadBuckets(regionId, iterator);
+            loadBuckets(regionId, prefix, iterator);
         }
         else {
-            loadObjects(regionId, bucket, iterator);
+            loadObjects(regionId, bucket, prefix, delimiter, iterator);
         }
     }
 
-    private void loadBuckets(@Nonnull String regionId, @Nonnull Jiterator<Blob> iterator) throws CloudException, InternalException {
+    private void loadBuckets(@Nonnull final String regionId, @Nullable String prefix, @Nonnull final Jiterator<Blob> iterator) throws CloudException, InternalException {
         if( logger.isTraceEnabled() ) {
             logger.trace("ENTER - " + BlobStore.class.getName() + ".listBuckets()");
         }
         try {
-            TreeMap <String, String> queries = new TreeMap <String, String>();
-            AzureStorageMethod method = new AzureStorageMethod(provider);
-
-            queries.put("comp", "list");
+            BlobListing listing = newListing(null);
 
-            Document doc = method.getAsDoc(AzureStorageMethod.Storage_OPERATION_GET, "", queries, null, null, true);
-            NodeList matches = doc.getElementsByTagName("Container");
-
-            if( matches != null ){
-                for( int i=0; i<matches.getLength(); i++ ) {
-                    Blob bucket = toBlob(regionId, matches.item(i), "/", true);
+            listing.setPrefix(prefix);
+            listing.load(new BlobListing.Target() {
+                public void push(@Nonnull Node entry) {
+                    Blob bucket = toBlob(regionId, entry, "/", true);
 
                     if( bucket != null ) {
-
                         iterator.push(bucket);
                     }
                 }
-            }
+
+                public void pushDirectory(@Nonnull String name) {
+                    // containers are never rolled up
+                }
+            });
         }
         finally {
             if( logger.isTraceEnabled() ) {
@@ -526,30 +738,79 @@ public class BlobStore extends AbstractBlobStoreSupport<Azure> {
         }
     }
 
-    private void loadObjects(@Nonnull String regionId, @Nonnull String bucket, @Nonnull Jiterator<Blob> iterator) throws CloudException, InternalException {
-        TreeMap <String, String> queries = new TreeMap <String, String>();
-        AzureStorageMethod method = new AzureStorageMethod(provider);
+    private void loadObjects(@Nonnull final String regionId, @Nonnull final String bucket, @Nullable String prefix, @Nullable String delimiter, @Nonnull final Jiterator<Blob> iterator) throws CloudException, InternalException {
+        BlobListing listing = newListing(bucket);
+        final String endpoint = provider.getStorageEndpoint();
+        final String account = provider.getStorageService();
 
-        queries.put("restype", "container");
-        queries.put("comp", "list");
+        listing.setPrefix(prefix);
+        listing.setDelimiter(delimiter);
+        listing.load(new BlobListing.Target() {
+            public void push(@Nonnull Node entry) {
+                Blob file = toBlob(regionId, entry, bucket, false);
 
+                if( file != null ) {
+                    iterator.push(file);
+                    if( account != null ) {
+                        cacheProperties(account, bucket, entry);
+                    }
+                }
+            }
 
-        Document doc = method.getAsDoc(AzureStorageMethod.Storage_OPERATION_GET, bucket, queries, null, null, true);
-        if(doc == null) return;
+            public void pushDirectory(@Nonnull String name) {
+                String location = (endpoint == null ? "" : (endpoint.endsWith("/") ? endpoint : endpoint + "/")) + bucket + "/" + name;
 
-        NodeList matches = doc.getElementsByTagName("Blob");
+                iterator.push(Blob.getInstance(regionId, location, bucket, name, 0L, new Storage<Byte>(0, Storage.BYTE)));
+            }
+        });
+    }
 
-        if(matches != null){
-            for( int i=0; i<matches.getLength(); i++ ) {
-                Blob file = toBlob(regionId, matches.item(i), bucket, false);
+    /**
+     * Remembers the properties a listing returned for a blob, so that looking the blob up right after listing it
+     * costs no request.
+     */
+    private void cacheProperties(@Nonnull String account, @Nonnull String bucket, @Nonnull Node blob) {
+        String name = BlobListing.getText(blob, "Name");
 
-                if( file != null ) {
-                    iterator.push(file);
+        if( name == null ) {
+            return;
+        }
+        for( Node child = blob.getFirstChild(); child != null; child = child.getNextSibling() ) {
+            if( child.getNodeName().equals("Properties") ) {
+                TreeMap<String,String> properties = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+
+                for( Node property = child.getFirstChild(); property != null; property = property.getNextSibling() ) {
+                    if( property.getNodeType() == Node.ELEMENT_NODE ) {
+                        String value = BlobListing.getText(child, property.getNodeName());
+
+                        if( value != null ) {
+                            properties.put(property.getNodeName(), value);
+                        }
+                    }
                 }
+                AzureBlobPropertyCache.getInstance().put(provider, account, bucket + "/" + name, properties);
+                return;
             }
         }
     }
 
+    /**
+     * Sets up a listing of a container, or of the containers of the account, with the configured page size.
+     * @param bucket the container to list or <code>null</code> to list the containers
+     * @return the listing
+     */
+    private @Nonnull BlobListing newListing(@Nullable String bucket) {
+        final String resource = (bucket == null ? "" : bucket);
+
+        return new BlobListing(bucket, new BlobListing.Source() {
+            public @Nullable Document getPage(@Nonnull Map<String,String> queries) throws CloudException, InternalException {
+                AzureStorageMethod method = new AzureStorageMethod(provider);
+
+                return method.getAsDoc(AzureStorageMethod.Storage_OPERATION_GET, resource, queries, null, null, true);
+            }
+        }, provider.getIntProperty(LIST_PAGE_SIZE, MAX_LIST_PAGE_SIZE));
+    }
+
     @Override
     public void makePublic(@Nonnull String bucket) throws InternalException, CloudException {
         makePublic(bucket, null);
@@ -593,51 +854,373 @@ public class BlobStore extends AbstractBlobStoreSupport<Azure> {
         removeObject(sourceBucket, object);
     }
 
+    /**
+     * Uploads a file with a single request if it fits in one block and as a block blob otherwise. Either way the
+     * file is read once, into buffers that are digested and sent as they are, so the service checks the content
+     * against its <code>Content-MD5</code> without a second pass over the file.
+     */
     @Override
     protected void put(@Nullable String bucket, @Nonnull String object, @Nonnull File file) throws CloudException, InternalException {
         if( bucket == null ) {
             throw new CloudException("No bucket was specified");
         }
+        if( file.length() > BlockUploader.MAX_BLOCK_SIZE ) {
+            putBlocks(bucket, object, file, false);
+        }
+        else {
+            TreeMap <String, String> queries = new TreeMap <String, String>();
+            TreeMap <String, String> headers = new TreeMap <String, String>();
+            AzureStorageMethod method = new AzureStorageMethod(provider);
+            String resource = bucket + "/" + object ;
+            ByteBuffer content = read(file);
+
+            queries.put("timeout", "600");
 
+            headers.put("x-ms-blob-type", "BlockBlob");
+            headers.put("content-type", "application/octet-stream");
+            headers.put("Content-MD5", ContentMD5.of(content));
+            method.putWithBuffer(AzureStorageMethod.Storage_OPERATION_PUT, resource, queries, content, headers, true);
+        }
+    }
+
+    /**
+     * @param file a file no larger than one block
+     * @return the content of the file in a heap buffer, which the request writes straight from its backing array
+     * @throws InternalException the file could not be read
+     */
+    private @Nonnull ByteBuffer read(@Nonnull File file) throws InternalException {
+        try {
+            FileInputStream input = new FileInputStream(file);
+
+            try {
+                FileChannel channel = input.getChannel();
+                ByteBuffer content = ByteBuffer.allocate((int)channel.size());
+
+                while( content.hasRemaining() ) {
+                    if( channel.read(content) == -1 ) {
+                        throw new InternalException("The file " + file + " ended after " + content.position() + " bytes");
+                    }
+                }
+                content.flip();
+                return content;
+            }
+            finally {
+                try { input.close(); }
+                catch( Throwable ignore ) { }
+            }
+        }
+        catch( IOException e ) {
+            logger.error("Error reading input file " + file + ": " + e.getMessage());
+            throw new InternalException(e);
+        }
+    }
+
+    /**
+     * Uploads a file as a block blob, reusing the uncommitted blocks an earlier, interrupted upload of the same
+     * file to the same blob left behind. Only the blocks recorded in that upload's {@link TransferJournal journal}
+     * are skipped, and only if the file and the blob are unchanged; without a matching journal every block is sent
+     * again, since a block ID and size say nothing about the content.
+     * @param bucket the container to upload to
+     * @param object the name of the blob
+     * @param file the file to upload
+     * @throws CloudException the upload failed
+     * @throws InternalException the file could not be read
+     */
+    public void resumeUpload(@Nullable String bucket, @Nonnull String object, @Nonnull File file) throws CloudException, InternalException {
+        if( bucket == null ) {
+            throw new CloudException("No bucket was specified");
+        }
+        putBlocks(bucket, object, file, true);
+    }
+
+    /**
+     * Uploads a file as a page blob, as virtual machine disks must be stored. The blob is created empty at the full
+     * size of the file and only the 512-byte pages that are not entirely zero are written, so a fixed-size VHD costs
+     * only as much as the data it actually holds.
+     * @param bucket the container to upload to
+     * @param object the name of the blob
+     * @param file the file to upload, a multiple of 512 bytes in size
+     * @return the number of bytes actually sent, out of the {@link File#length()} bytes of the blob
+     * @throws CloudException the upload failed
+     * @throws InternalException the file could not be read or its size is not a whole number of pages
+     */
+    public long putPageBlob(@Nullable String bucket, @Nonnull String object, @Nonnull File file) throws CloudException, InternalException {
+        if( logger.isTraceEnabled() ) {
+            logger.trace("ENTER - " + BlobStore.class.getName() + ".putPageBlob(" + bucket + "," + object + "," + file + ")");
+        }
         try {
-            InputStream input;
+            if( bucket == null ) {
+                throw new CloudException("No bucket was specified");
+            }
+            long length = file.length();
+
+            if( length % PageUploader.PAGE_SIZE != 0 ) {
+                throw new InternalException("Page blobs must be a multiple of " + PageUploader.PAGE_SIZE + " bytes, not " + length);
+            }
+            FileInputStream input;
 
             try {
-                input =  new FileInputStream(file);
+                input = new FileInputStream(file);
             }
             catch( IOException e ) {
                 logger.error("Error reading input file " + file + ": " + e.getMessage());
                 throw new InternalException(e);
             }
+            try {
+                TreeMap <String, String> headers = new TreeMap <String, String>();
+                AzureStorageMethod method = new AzureStorageMethod(provider);
 
-            int fileSize = input.available();
+                headers.put("x-ms-blob-type", "PageBlob");
+                headers.put("x-ms-blob-content-length", String.valueOf(length));
+                headers.put("content-type", "application/octet-stream");
+                method.invoke(AzureStorageMethod.Storage_OPERATION_PUT, bucket + "/" + object, new HashMap<String, String>(), null, headers, true);
 
-            if( fileSize > (63 * 1024 * 1024) ) {
-                putBlocks(bucket, object, input);
+                long written = new PageUploader(provider, new BlobPages(bucket + "/" + object)).upload(input.getChannel(), length);
+
+                if( logger.isInfoEnabled() ) {
+                    logger.info("Uploaded " + written + " of " + length + " bytes to page blob " + bucket + "/" + object);
+                }
+                return written;
             }
-            else {
-                TreeMap <String, String> queries = new TreeMap <String, String>();
-                TreeMap <String, String> headers = new TreeMap <String, String>();
-                AzureStorageMethod method = new AzureStorageMethod(provider);
-                String resource = bucket + "/" + object ;
+            finally {
+                try { input.close(); }
+                catch( Throwable ignore ) { }
+            }
+        }
+        finally {
+            if( logger.isTraceEnabled() ) {
+                logger.trace("EXIT - " + BlobStore.class.getName() + ".putPageBlob()");
+            }
+        }
+    }
 
-                queries.put("timeout", "600");
+    /**
+     * Writes runs of pages into a page blob.
+     */
+    private class BlobPages implements PageUploader.Target {
+        private String resource;
 
-                headers.put("x-ms-blob-type", "BlockBlob");
-                headers.put("content-type", "application/octet-stream");
-                method.putWithFile(AzureStorageMethod.Storage_OPERATION_PUT, resource, queries, file, headers, true);
+        BlobPages(@Nonnull String resource) {
+            this.resource = resource;
+        }
+
+        public void putPages(long offset, @Nonnull ByteBuffer content) throws CloudException, InternalException {
+            TreeMap <String, String> queries = new TreeMap <String, String>();
+            TreeMap <String, String> headers = new TreeMap <String, String>();
+            AzureStorageMethod method = new AzureStorageMethod(provider);
+
+            queries.put("comp", "page");
+
+            headers.put("x-ms-page-write", "update");
+            headers.put("x-ms-range", "bytes=" + offset + "-" + (offset + content.remaining() - 1));
+            headers.put("content-type", "application/octet-stream");
+            headers.put("Content-MD5", ContentMD5.of(content));
+            method.putWithBuffer(AzureStorageMethod.Storage_OPERATION_PUT, resource, queries, content, headers, true);
+        }
+    }
+
+    /**
+     * Uploads every file under a directory at once, naming each blob after the file's path relative to the
+     * directory. Files whose blob already has the same size and MD5 are skipped, and large files go through the
+     * block upload. A file that fails does not stop the others.
+     * @param directory the directory to upload
+     * @param bucket the container to upload to
+     * @param prefix the prefix of every blob name, if any, typically ending in a slash
+     * @param transfer the transfer to report the progress of all files to, if any
+     * @return the outcome of every file
+     * @throws CloudException the existing blobs could not be listed
+     * @throws InternalException the transfer was interrupted
+     */
+    public @Nonnull BulkTransfer.Result uploadAll(@Nonnull File directory, @Nullable String bucket, @Nullable String prefix, @Nullable FileTransfer transfer) throws CloudException, InternalException {
+        if( !directory.isDirectory() ) {
+            throw new InternalException("Not a directory: " + directory);
+        }
+        TreeMap<String,File> files = new TreeMap<String, File>();
+
+        addFiles(directory, (prefix == null ? "" : prefix), files);
+        return uploadAll(bucket, prefix, files, transfer);
+    }
+
+    /**
+     * Uploads a list of files at once, naming each blob after the file. Files whose blob already has the same size
+     * and MD5 are skipped, and large files go through the block upload. A file that fails does not stop the others.
+     * @param files the files to upload
+     * @param bucket the container to upload to
+     * @param prefix the prefix of every blob name, if any, typically ending in a slash
+     * @param transfer the transfer to report the progress of all files to, if any
+     * @return the outcome of every file
+     * @throws CloudException the existing blobs could not be listed
+     * @throws InternalException the transfer was interrupted
+     */
+    public @Nonnull BulkTransfer.Result uploadAll(@Nonnull Collection<File> files, @Nullable String bucket, @Nullable String prefix, @Nullable FileTransfer transfer) throws CloudException, InternalException {
+        TreeMap<String,File> objects = new TreeMap<String, File>();
+
+        for( File file : files ) {
+            objects.put((prefix == null ? "" : prefix) + file.getName(), file);
+        }
+        return uploadAll(bucket, prefix, objects, transfer);
+    }
+
+    private @Nonnull BulkTransfer.Result uploadAll(@Nullable String bucket, @Nullable String prefix, @Nonnull Map<String,File> files, @Nullable FileTransfer transfer) throws CloudException, InternalException {
+        if( bucket == null ) {
+            throw new CloudException("No bucket was specified");
+        }
+        return new BulkTransfer(provider, new BulkStore(bucket)).upload(files, getFingerprints(bucket, prefix), transfer);
+    }
+
+    private void addFiles(@Nonnull File directory, @Nonnull String prefix, @Nonnull Map<String,File> files) {
+        File[] children = directory.listFiles();
+
+        if( children == null ) {
+            logger.warn("Unable to list " + directory);
+            return;
+        }
+        for( File child : children ) {
+            if( child.isDirectory() ) {
+                addFiles(child, prefix + child.getName() + "/", files);
+            }
+            else if( child.isFile() ) {
+                files.put(prefix + child.getName(), child);
             }
         }
+    }
+
+    /**
+     * Downloads every blob under a prefix at once into a directory, placing each one at the path its name has
+     * relative to the prefix. Blobs whose file already has the same size and MD5 are skipped, and large blobs are
+     * fetched as ranges. A blob that fails does not stop the others.
+     * @param bucket the container to download from
+     * @param prefix the prefix of the blobs to download, if any, typically ending in a slash
+     * @param directory the directory to download to
+     * @param transfer the transfer to report the progress of all blobs to, if any
+     * @return the outcome of every blob
+     * @throws CloudException the blobs could not be listed
+     * @throws InternalException the directory is not usable or the transfer was interrupted
+     */
+    public @Nonnull BulkTransfer.Result downloadAll(@Nullable String bucket, @Nullable String prefix, @Nonnull File directory, @Nullable FileTransfer transfer) throws CloudException, InternalException {
+        if( bucket == null ) {
+            throw new CloudException("No bucket was specified");
+        }
+        Map<String,BulkTransfer.Fingerprint> stored = getFingerprints(bucket, prefix);
+        TreeMap<String,File> files = new TreeMap<String, File>();
+        String root;
+
+        try {
+            root = directory.getCanonicalPath() + File.separator;
+        }
         catch( IOException e ) {
-            logger.error("Error uploading file " + file + ": " + e.getMessage());
-            throw new CloudException(e);
+            throw new InternalException(e);
         }
+        for( String object : stored.keySet() ) {
+            String path = object.substring(prefix == null ? 0 : prefix.length());
 
+            if( path.length() < 1 || path.endsWith("/") ) {
+                continue;
+            }
+            File file = new File(directory, path.replace('/', File.separatorChar));
 
+            try {
+                if( !file.getCanonicalPath().startsWith(root) ) {
+                    logger.warn("Skipping " + object + " as it would be written outside of " + directory);
+                    continue;
+                }
+            }
+            catch( IOException e ) {
+                throw new InternalException(e);
+            }
+            files.put(object, file);
+        }
+        return new BulkTransfer(provider, new BulkStore(bucket)).download(files, stored, transfer);
     }
 
+    /**
+     * Moves the single files of a bulk transfer through the regular upload and download of this store.
+     */
+    private class BulkStore implements BulkTransfer.Store {
+        private String bucket;
+
+        BulkStore(@Nonnull String bucket) {
+            this.bucket = bucket;
+        }
+
+        public void put(@Nonnull String object, @Nonnull File file) throws CloudException, InternalException {
+            BlobStore.this.put(bucket, object, file);
+        }
+
+        public void get(@Nonnull String object, @Nonnull File file, @Nonnull BulkTransfer.Fingerprint fingerprint) throws CloudException, InternalException {
+            if( fingerprint.getLength() < 0 ) {
+                BlobStore.this.get(bucket, object, file, null);
+                return;
+            }
+            // the listing already has what a HEAD would return, so every blob costs one request less
+            TreeMap<String,String> properties = new TreeMap<String, String>();
+
+            properties.put("Content-Length", String.valueOf(fingerprint.getLength()));
+            if( fingerprint.getContentMD5() != null ) {
+                properties.put("Content-MD5", fingerprint.getContentMD5());
+            }
+            if( fingerprint.getETag() != null ) {
+                properties.put("ETag", fingerprint.getETag());
+            }
+            download(bucket + "/" + object, properties, file, null, provider.getIntProperty(RangeDownloader.DOWNLOAD_THREADS, RangeDownloader.DEFAULT_THREADS), provider.getLongProperty(RangeDownloader.PART_SIZE, RangeDownloader.DEFAULT_PART_SIZE));
+        }
+    }
+
+    /**
+     * Lists the size, MD5 and ETag of every blob under a prefix.
+     * @return the blobs by name
+     */
+    private @Nonnull Map<String,BulkTransfer.Fingerprint> getFingerprints(@Nonnull String bucket, @Nullable String prefix) throws CloudException, InternalException {
+        final TreeMap<String,BulkTransfer.Fingerprint> fingerprints = new TreeMap<String, BulkTransfer.Fingerprint>();
+        BlobListing listing = newListing(bucket);
+
+        listing.setPrefix(prefix);
+        listing.load(new BlobListing.Target() {
+            public void push(@Nonnull Node blob) {
+                String name = BlobListing.getText(blob, "Name");
+
+                for( Node child = blob.getFirstChild(); name != null && child != null; child = child.getNextSibling() ) {
+                    if( child.getNodeName().equals("Properties") ) {
+                        String length = BlobListing.getText(child, "Content-Length");
+
+                        try {
+                            fingerprints.put(name, new BulkTransfer.Fingerprint(length == null ? -1L : Long.parseLong(length), BlobListing.getText(child, "Content-MD5"), BlobListing.getText(child, "Etag")));
+                        }
+                        catch( NumberFormatException e ) {
+                            logger.warn("Invalid size for " + name + ": " + length);
+                        }
+                    }
+                }
+            }
+
+            public void pushDirectory(@Nonnull String name) {
+                // listed without a delimiter
+            }
+        });
+        return fingerprints;
+    }
+
+    /**
+     * Stores a string as a block blob, encoded as UTF-8. Content larger than a single block is uploaded in blocks
+     * like a large file rather than in one request.
+     */
     @Override
     protected void put(@Nullable String bucket, @Nonnull String object, @Nonnull String content) throws CloudException, InternalException {
+        if( bucket == null ) {
+            throw new CloudException("No bucket was specified");
+        }
+        byte[] bytes;
+
+        try {
+            bytes = content.getBytes("utf-8");
+        }
+        catch( UnsupportedEncodingException e ) {
+            throw new InternalException(e);
+        }
+        if( bytes.length > BlockUploader.MAX_BLOCK_SIZE ) {
+            new BlockUploader(provider, new BlobBlocks(bucket, object)).upload(new ByteArrayInputStream(bytes));
+            return;
+        }
         TreeMap <String, String> headers = new TreeMap <String, String>();
 
         headers.put("x-ms-blob-type", "BlockBlob");
@@ -645,46 +1228,63 @@ public class BlobStore extends AbstractBlobStoreSupport<Azure> {
 
         AzureStorageMethod method = new AzureStorageMethod(provider);
 
-        method.invoke(AzureStorageMethod.Storage_OPERATION_PUT, bucket + "/" + object, new HashMap<String, String>(), content, headers, true);
+        method.putWithBytes(AzureStorageMethod.Storage_OPERATION_PUT, bucket + "/" + object, new HashMap<String, String>(), bytes, headers, true);
     }
 
-    private void putBlocks(@Nonnull String bucket, @Nonnull String object, @Nonnull InputStream input) throws  InternalException, CloudException {
+    private void putBlocks(@Nonnull String bucket, @Nonnull String object, @Nonnull File file, boolean resume) throws  InternalException, CloudException {
         if( logger.isTraceEnabled() ) {
-            logger.trace("ENTER - " + BlobStore.class.getName() + ".putBlocks(" + bucket + "," + object + ",<<INPUT STREAM>>)");
+            logger.trace("ENTER - " + BlobStore.class.getName() + ".putBlocks(" + bucket + "," + object + "," + file + "," + resume + ")");
         }
         try {
-            int basicId = 1000;
-            int blockSize = 4 * 1024 * 1024;
-            byte[] bytes = new byte[blockSize];
-            int read;
-
-            try{
-                try {
-                    while ((read = input.read(bytes)) != -1) {
-                        String blockId = Base64.encodeBase64String(String.valueOf(basicId).getBytes());
+            BlobBlocks target = new BlobBlocks(bucket, object);
+            BlockUploader uploader = new BlockUploader(provider, target);
+
+            if( resume || TransferJournal.isEnabled(provider) ) {
+                TreeMap<String,String> identity = new TreeMap<String, String>();
+
+                identity.put("type", "upload");
+                identity.put("blob", bucket + "/" + object);
+                identity.put("length", String.valueOf(file.length()));
+                identity.put("modified", String.valueOf(file.lastModified()));
+                identity.put("blockSize", String.valueOf(uploader.getBlockSize()));
+                identity.put("etag", getETag(bucket, object));
+                target.journal = TransferJournal.open(file, identity);
+            }
+            FileInputStream input;
 
-                        if( read < blockSize ) {
-                            byte [] subArray = Arrays.copyOfRange(bytes, 0, read);
+            try {
+                input = new FileInputStream(file);
+            }
+            catch( IOException e ) {
+                logger.error("Error reading input file " + file + ": " + e.getMessage());
+                if( target.journal != null ) {
+                    target.journal.close();
+                }
+                throw new InternalException(e);
+            }
+            try {
+                if( target.journal != null && target.journal.isResumed() ) {
+                    // only blocks this file put there and the service still holds can be skipped
+                    Map<String,Long> stored = getBlocks(bucket, object, "uncommitted", "UncommittedBlocks");
 
-                            putBlocks(bucket, object, subArray, blockId);
-                        }
-                        else {
-                            putBlocks(bucket, object, bytes, blockId);
+                    for( Iterator<String> it = stored.keySet().iterator(); it.hasNext(); ) {
+                        if( !target.journal.isDone(it.next()) ) {
+                            it.remove();
                         }
-                        basicId ++;
                     }
+                    uploader.setStoredBlocks(stored);
                 }
-                catch( IOException e ) {
-                    throw new CloudException(e);
+                uploader.upload(input.getChannel(), 0L);
+                if( target.journal != null ) {
+                    target.journal.delete();
                 }
             }
-            finally{
+            finally {
                 try { input.close(); }
                 catch( Throwable ignore ) { }
-
-                ArrayList<String> blockIds = (ArrayList<String>)getBlocks(object, bucket, "all", "UncommittedBlocks");
-
-                commitBlocks(object, bucket, blockIds);
+                if( target.journal != null ) {
+                    target.journal.close();
+                }
             }
         }
         finally{
@@ -694,7 +1294,47 @@ public class BlobStore extends AbstractBlobStoreSupport<Azure> {
         }
     }
 
-    private void putBlocks(@Nonnull String bucket, @Nonnull String object, @Nonnull byte[] content, @Nonnull String blockId) throws  InternalException, CloudException {
+    /**
+     * Puts the blocks of an upload into a blob, recording each one in the upload's journal if it keeps one.
+     */
+    private class BlobBlocks implements BlockUploader.Target {
+        private String          bucket;
+        private String          object;
+        private TransferJournal journal;
+
+        BlobBlocks(@Nonnull String bucket, @Nonnull String object) {
+            this.bucket = bucket;
+            this.object = object;
+        }
+
+        public void putBlock(@Nonnull String blockId, @Nonnull ByteBuffer content) throws CloudException, InternalException {
+            putBlocks(bucket, object, content, blockId);
+            if( journal != null ) {
+                journal.done(blockId);
+            }
+        }
+
+        public void commit(@Nonnull List<String> blockIds, @Nonnull String contentMD5) throws CloudException, InternalException {
+            if( journal != null && !getETag(bucket, object).equals(journal.get("etag")) ) {
+                // committing the blob elsewhere discards uncommitted blocks, so the journal no longer holds
+                journal.delete();
+                throw new CloudException("The blob " + bucket + "/" + object + " changed while it was being uploaded");
+            }
+            commitBlocks(bucket, object, blockIds, contentMD5);
+        }
+    }
+
+    /**
+     * @return the ETag of the blob or an empty string if it does not exist
+     */
+    private @Nonnull String getETag(@Nonnull String bucket, @Nonnull String object) throws InternalException, CloudException {
+        AzureStorageMethod method = new AzureStorageMethod(provider);
+        String etag = method.getBlobProperty("HEAD", bucket + "/" + object, new HashMap<String, String>(), null, null, true, "ETag");
+
+        return (etag == null ? "" : etag);
+    }
+
+    private void putBlocks(@Nonnull String bucket, @Nonnull String object, @Nonnull ByteBuffer content, @Nonnull String blockId) throws  InternalException, CloudException {
         TreeMap <String, String> queries = new TreeMap <String, String>();
         TreeMap <String, String> headers = new TreeMap <String, String>();
         AzureStorageMethod method = new AzureStorageMethod(provider);
@@ -705,9 +1345,10 @@ public class BlobStore extends AbstractBlobStoreSupport<Azure> {
 
         headers.put("x-ms-blob-type", "BlockBlob");
         headers.put("content-type", "text/plain");
+        headers.put("Content-MD5", ContentMD5.of(content));
 
 
-        method.putWithBytes(AzureStorageMethod.Storage_OPERATION_PUT, resource, queries, content, headers, true);
+        method.putWithBuffer(AzureStorageMethod.Storage_OPERATION_PUT, resource, queries, content, headers, true);
     }
 
     @Override
@@ -735,22 +1376,8 @@ public class BlobStore extends AbstractBlobStoreSupport<Azure> {
         Blob bucket = createBucket(newName, findFreeName);
 
         for( Blob file : list(oldName) ) {
-            int retries = 10;
-
-            while( true ) {
-                retries--;
-                try {
-                    move(oldName, file.getObjectName(), bucket.getBucketName());
-                    break;
-                }
-                catch( CloudException e ) {
-                    if( retries < 1 ) {
-                        throw e;
-                    }
-                }
-                try { Thread.sleep(retries * 10000L); }
-                catch( InterruptedException ignore ) { }
-            }
+            // transient storage errors are retried by AzureStorageMethod
+            move(oldName, file.getObjectName(), bucket.getBucketName());
         }
         boolean ok = true;
         for( Blob file : list(oldName ) ) {
@@ -797,6 +1424,27 @@ public class BlobStore extends AbstractBlobStoreSupport<Azure> {
         return NamingConstraints.getAlphaNumeric(1, 255).constrainedBy(new char[] { '-', '.', ',', '#', '+' }).limitedToLatin1().lowerCaseOnly();
     }
 
+    /**
+     * @param value an RFC 1123 date as found in <code>Last-Modified</code>
+     * @return the date in milliseconds since the epoch or 0 if there is none
+     */
+    static private long parseDate(@Nullable String value) {
+        if( value == null ) {
+            return 0L;
+        }
+        String RFC1123_PATTERN = "EEE, dd MMM yyyy HH:mm:ss z";
+        DateFormat rfc1123Format = new SimpleDateFormat(RFC1123_PATTERN, Locale.US);
+
+        rfc1123Format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return rfc1123Format.parse(value).getTime();
+        }
+        catch (ParseException e) {
+            logger.warn("Invalid date: " + value);
+            return 0L;
+        }
+    }
+
     private @Nullable Blob toBlob(@Nonnull String regionId, @Nullable Node node, @Nonnull String bucket, boolean isContainer) {
         if( node == null ) {
             return null;
@@ -845,16 +1493,7 @@ public class BlobStore extends AbstractBlobStoreSupport<Azure> {
                         size = Long.valueOf(propertyValue);
                     }
                     else if( propertyName.equalsIgnoreCase("Last-Modified") ) {
-                        String RFC1123_PATTERN = "EEE, dd MMM yyyy HH:mm:ss z";
-                        DateFormat rfc1123Format = new SimpleDateFormat(RFC1123_PATTERN);
-
-                        rfc1123Format.setTimeZone(TimeZone.getTimeZone("GMT"));
-                        try {
-                            creationDate = rfc1123Format.parse(propertyValue).getTime();
-                        }
-                        catch (ParseException e) {
-                            logger.warn("Invalid date: " + propertyValue);
-                        }
+                        creationDate = parseDate(propertyValue);
                     }
                 }
             }
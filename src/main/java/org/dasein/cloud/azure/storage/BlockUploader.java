@@ -0,0 +1,286 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.storage;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.azure.Azure;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Uploads a block blob from a stream or a file with several blocks in flight at once. The calling thread reads the
+ * content into a small pool of reusable buffers, a fixed number of workers put the blocks, and the block list is
+ * committed in the order the blocks were read once every block has been stored. Nothing is committed if any
+ * block fails, so a failed upload never replaces the blob with a truncated one. The MD5 digest of the whole
+ * content is computed as each block is read and handed to the target with the block list.
+ * <p>
+ * Block IDs are the zero-padded block index, so every ID of a blob has the same length as the service requires.
+ * An upload that resumes an interrupted one skips the blocks {@link #setStoredBlocks(Map) already stored} with the
+ * same ID and size; otherwise the block list is never read back from the service.
+ * </p>
+ * <p>
+ * Blocks are read into a {@link TransferWorkers.BufferPool}, which bounds the memory an upload uses. The settings
+ * are read from the custom properties named by {@link #UPLOAD_THREADS} (4) and {@link #BLOCK_SIZE} (4 MB, the
+ * largest block the service accepts).
+ * </p>
+ * @since 2015.06.2
+ * @version 2015.06.2
+ */
+public class BlockUploader {
+    static private final Logger logger = Azure.getLogger(BlockUploader.class);
+
+    static public final String UPLOAD_THREADS = "blockUploadThreads";
+    static public final String BLOCK_SIZE     = "blockSize";
+
+    static public final int MAX_BLOCK_SIZE = 4 * 1024 * 1024;
+    static public final int MAX_BLOCKS     = 50000;
+
+    static private final String BLOCK_ID_PADDING = "00000000";
+
+    /**
+     * Where the blocks of an upload go.
+     */
+    public interface Target {
+        /**
+         * Stores one uncommitted block. Called from the {@link TransferWorkers workers}.
+         * @param blockId the ID of the block
+         * @param content the block, from the buffer's position to its limit; the buffer is reused once this
+         * method returns
+         */
+        public void putBlock(@Nonnull String blockId, @Nonnull ByteBuffer content) throws CloudException, InternalException;
+
+        /**
+         * Commits the blocks of the upload as the content of the blob.
+         * @param blockIds the IDs of every block in the order they make up the blob
+         * @param contentMD5 the Base64 encoded MD5 digest of the whole content
+         */
+        public void commit(@Nonnull List<String> blockIds, @Nonnull String contentMD5) throws CloudException, InternalException;
+    }
+
+    private Target           target;
+    private int              threads;
+    private int              blockSize;
+    private Map<String,Long> storedBlocks = Collections.emptyMap();
+
+    /**
+     * Constructs an uploader configured from the provider's custom properties.
+     * @param provider the provider whose context supplies the configuration
+     * @param target where the blocks go
+     */
+    public BlockUploader(@Nonnull Azure provider, @Nonnull Target target) {
+        this(target, provider.getIntProperty(UPLOAD_THREADS, 4), provider.getIntProperty(BLOCK_SIZE, MAX_BLOCK_SIZE));
+    }
+
+    /**
+     * Constructs an uploader with explicit settings.
+     * @param target where the blocks go
+     * @param threads the number of blocks to put at once
+     * @param blockSize the size of every block but the last in bytes, at most {@link #MAX_BLOCK_SIZE}
+     */
+    public BlockUploader(@Nonnull Target target, int threads, int blockSize) {
+        this.target = target;
+        this.threads = Math.max(1, threads);
+        this.blockSize = Math.min(MAX_BLOCK_SIZE, Math.max(1, blockSize));
+    }
+
+    /**
+     * @return the size of every block but the last in bytes
+     */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Identifies the uncommitted blocks an interrupted upload of the same content already stored, so that they are
+     * not sent again. Only blocks known to hold the same content, such as those a {@link TransferJournal} recorded,
+     * may be passed, since the upload compares nothing but their ID and size.
+     * @param storedBlocks the size of every stored block by block ID
+     */
+    public void setStoredBlocks(@Nonnull Map<String,Long> storedBlocks) {
+        this.storedBlocks = storedBlocks;
+    }
+
+    /**
+     * Uploads everything that remains in the stream and commits it. The stream is not closed.
+     * @param input the content of the blob
+     * @return the number of bytes uploaded
+     * @throws CloudException a block could not be stored or the block list could not be committed
+     * @throws InternalException the stream could not be read or the upload was interrupted
+     */
+    public long upload(@Nonnull final InputStream input) throws CloudException, InternalException {
+        return upload(new Source() {
+            public int fill(@Nonnull ByteBuffer buffer) throws IOException {
+                byte[] bytes = buffer.array();
+                int length = 0;
+
+                while( length < blockSize ) {
+                    int read = input.read(bytes, buffer.arrayOffset() + length, blockSize - length);
+
+                    if( read == -1 ) {
+                        break;
+                    }
+                    length += read;
+                }
+                buffer.position(length);
+                return length;
+            }
+        });
+    }
+
+    /**
+     * Uploads a file, or the part of it past a position, and commits it. The channel is not closed.
+     * @param channel the content of the blob
+     * @param position the offset in the file at which the blob starts
+     * @return the number of bytes uploaded
+     * @throws CloudException a block could not be stored or the block list could not be committed
+     * @throws InternalException the file could not be read or the upload was interrupted
+     */
+    public long upload(@Nonnull final FileChannel channel, final long position) throws CloudException, InternalException {
+        return upload(new Source() {
+            private long offset = position;
+
+            public int fill(@Nonnull ByteBuffer buffer) throws IOException {
+                int length = 0;
+
+                while( buffer.hasRemaining() ) {
+                    int read = channel.read(buffer, offset + length);
+
+                    if( read == -1 ) {
+                        break;
+                    }
+                    length += read;
+                }
+                offset += length;
+                return length;
+            }
+        });
+    }
+
+    /**
+     * Reads the content of an upload one block at a time.
+     */
+    private interface Source {
+        /**
+         * Fills the buffer unless the content ends first, leaving its position after the last byte read.
+         * @return the number of bytes read, 0 at the end of the content
+         */
+        public int fill(@Nonnull ByteBuffer buffer) throws IOException;
+    }
+
+    private long upload(@Nonnull Source source) throws CloudException, InternalException {
+        TransferWorkers workers = new TransferWorkers("Azure block upload", threads);
+        TransferWorkers.BufferPool buffers = new TransferWorkers.BufferPool(threads, blockSize);
+        List<String> blockIds = new ArrayList<String>();
+        MessageDigest digest = ContentMD5.newDigest();
+        long total = 0L;
+
+        try {
+            while( !workers.isFailed() ) {
+                ByteBuffer buffer = buffers.take();
+                int length = source.fill(buffer);
+
+                if( length < 1 ) {
+                    buffers.release(buffer);
+                    break;
+                }
+                if( blockIds.size() >= MAX_BLOCKS ) {
+                    throw new CloudException("The content exceeds the maximum of " + MAX_BLOCKS + " blocks of " + blockSize + " bytes");
+                }
+                String blockId = getBlockId(blockIds.size());
+
+                buffer.flip();
+                // the blocks are read in order, so the whole content is digested as it goes by
+                digest.update(buffer.duplicate());
+                blockIds.add(blockId);
+                total += length;
+                workers.submit("upload block " + blockId, new BlockTask(blockId, buffer, buffers, workers));
+                if( length < blockSize ) {
+                    break;
+                }
+            }
+            workers.await();
+        }
+        catch( IOException e ) {
+            logger.error("Unable to read the content to upload: " + e.getMessage());
+            throw new InternalException(e);
+        }
+        finally {
+            workers.close();
+        }
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Uploaded " + blockIds.size() + " blocks (" + total + " bytes) with " + threads + " threads");
+        }
+        target.commit(blockIds, ContentMD5.toString(digest));
+        return total;
+    }
+
+    /**
+     * @param index the position of the block in the blob, starting at 0
+     * @return the fixed-width ID of the block
+     */
+    static public @Nonnull String getBlockId(int index) {
+        String id = String.valueOf(index);
+
+        return Base64.encodeBase64String((BLOCK_ID_PADDING.substring(id.length()) + id).getBytes());
+    }
+
+    private class BlockTask implements TransferWorkers.Task {
+        private String                     blockId;
+        private ByteBuffer                 buffer;
+        private TransferWorkers.BufferPool buffers;
+        private TransferWorkers            workers;
+
+        BlockTask(@Nonnull String blockId, @Nonnull ByteBuffer buffer, @Nonnull TransferWorkers.BufferPool buffers, @Nonnull TransferWorkers workers) {
+            this.blockId = blockId;
+            this.buffer = buffer;
+            this.buffers = buffers;
+            this.workers = workers;
+        }
+
+        public void run() throws CloudException, InternalException {
+            try {
+                Long stored = storedBlocks.get(blockId);
+
+                if( stored != null && stored == buffer.remaining() ) {
+                    if( logger.isDebugEnabled() ) {
+                        logger.debug("Block " + blockId + " is already stored");
+                    }
+                }
+                else if( !workers.isFailed() ) {
+                    target.putBlock(blockId, buffer);
+                }
+            }
+            finally {
+                buffers.release(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.storage;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.azure.Azure;
+import org.dasein.cloud.storage.FileTransfer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Transfers many files between a directory and a container at once. Each file is one task on a fixed pool of
+ * workers, so the per-request latency of many small blobs overlaps instead of adding up, while every request
+ * still goes through the shared connection pool. A file whose size and MD5 already match the other side is
+ * skipped; its MD5 is only computed when the sizes match and the blob has a <code>Content-MD5</code> to compare.
+ * <p>
+ * A file that fails does not stop the others. Every outcome is collected in the {@link Result} and progress is
+ * reported to a single {@link FileTransfer} as files complete. The number of workers is read from the custom
+ * property named by {@link #TRANSFER_THREADS} (8).
+ * </p>
+ * <p>
+ * Files larger than {@link #LARGE_FILE_SIZE} are split into parts that the store moves on workers of its own, so
+ * they are not given to the pool: they follow one at a time once the smaller files are done, and the two kinds of
+ * workers never multiply. The smaller files are each sent in a single request read whole into memory, so the
+ * first pass holds at most <code>threads * 4 MB</code> of content and has <code>threads</code> requests in flight;
+ * the second holds and sends only what the one {@link BlockUploader} or {@link RangeDownloader} running at the
+ * time allows. With the default settings a bulk transfer never holds more than 32 MB of content or has more than
+ * 8 requests in flight.
+ * </p>
+ * @since 2015.06.2
+ * @version 2015.06.2
+ */
+public class BulkTransfer {
+    static private final Logger logger = Azure.getLogger(BulkTransfer.class);
+
+    static public final String TRANSFER_THREADS = "bulkTransferThreads";
+    static public final int    DEFAULT_THREADS  = 8;
+
+    static public final long LARGE_FILE_SIZE = BlockUploader.MAX_BLOCK_SIZE;
+
+    /**
+     * Moves single files to and from the container.
+     */
+    public interface Store {
+        /**
+         * Uploads one file. Called from the {@link TransferWorkers workers}, or from the calling thread for a large file.
+         * @param object the name of the blob
+         * @param file the file to upload
+         */
+        public void put(@Nonnull String object, @Nonnull File file) throws CloudException, InternalException;
+
+        /**
+         * Downloads one blob. Called from the {@link TransferWorkers workers}, or from the calling thread for a large file.
+         * @param object the name of the blob
+         * @param file the file to write the blob to
+         * @param fingerprint the blob as it was listed, so that its properties need not be fetched again
+         */
+        public void get(@Nonnull String object, @Nonnull File file, @Nonnull Fingerprint fingerprint) throws CloudException, InternalException;
+    }
+
+    /**
+     * The size, MD5 and ETag of a blob as listed by the service.
+     */
+    static public class Fingerprint {
+        private long   length;
+        private String contentMD5;
+        private String etag;
+
+        /**
+         * @param length the size of the blob in bytes
+         * @param contentMD5 the Base64 encoded MD5 digest of the blob, if the service has one
+         */
+        public Fingerprint(long length, @Nullable String contentMD5) {
+            this(length, contentMD5, null);
+        }
+
+        /**
+         * @param length the size of the blob in bytes
+         * @param contentMD5 the Base64 encoded MD5 digest of the blob, if the service has one
+         * @param etag the ETag of the listed version of the blob, if known
+         */
+        public Fingerprint(long length, @Nullable String contentMD5, @Nullable String etag) {
+            this.length = length;
+            this.contentMD5 = contentMD5;
+            this.etag = etag;
+        }
+
+        /**
+         * @return the size of the blob in bytes
+         */
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * @return the Base64 encoded MD5 digest of the blob or <code>null</code> if the service has none
+         */
+        public @Nullable String getContentMD5() {
+            return contentMD5;
+        }
+
+        /**
+         * @return the ETag of the listed version of the blob or <code>null</code> if it is not known
+         */
+        public @Nullable String getETag() {
+            return etag;
+        }
+    }
+
+    /**
+     * The outcome of every file of a bulk transfer.
+     */
+    static public class Result {
+        private List<String>          transferred = new ArrayList<String>();
+        private List<String>          skipped     = new ArrayList<String>();
+        private Map<String,Exception> failures    = new TreeMap<String, Exception>();
+        private long                  bytesTransferred;
+
+        synchronized void transferred(@Nonnull String object, long bytes) {
+            transferred.add(object);
+            bytesTransferred += bytes;
+        }
+
+        synchronized void skipped(@Nonnull String object) {
+            skipped.add(object);
+        }
+
+        synchronized void failed(@Nonnull String object, @Nonnull Exception error) {
+            failures.put(object, error);
+        }
+
+        /**
+         * @return the blobs that were uploaded or downloaded, in the order they completed
+         */
+        public synchronized @Nonnull List<String> getTransferred() {
+            return Collections.unmodifiableList(new ArrayList<String>(transferred));
+        }
+
+        /**
+         * @return the blobs that already matched their files and were not transferred
+         */
+        public synchronized @Nonnull List<String> getSkipped() {
+            return Collections.unmodifiableList(new ArrayList<String>(skipped));
+        }
+
+        /**
+         * @return the error of every blob that could not be transferred, by blob name
+         */
+        public synchronized @Nonnull Map<String,Exception> getFailures() {
+            return Collections.unmodifiableMap(new TreeMap<String, Exception>(failures));
+        }
+
+        /**
+         * @return the number of bytes actually sent or received, not counting skipped files
+         */
+        public synchronized long getBytesTransferred() {
+            return bytesTransferred;
+        }
+
+        /**
+         * @return true if no file failed
+         */
+        public synchronized boolean isSuccessful() {
+            return failures.isEmpty();
+        }
+    }
+
+    private Store store;
+    private int   threads;
+
+    /**
+     * Constructs a bulk transfer configured from the provider's custom properties.
+     * @param provider the provider whose context supplies the configuration
+     * @param store where the files go to and come from
+     */
+    public BulkTransfer(@Nonnull Azure provider, @Nonnull Store store) {
+        this(store, provider.getIntProperty(TRANSFER_THREADS, DEFAULT_THREADS));
+    }
+
+    /**
+     * Constructs a bulk transfer with explicit settings.
+     * @param store where the files go to and come from
+     * @param threads the number of files to transfer at once
+     */
+    public BulkTransfer(@Nonnull Store store, int threads) {
+        this.store = store;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Uploads files, skipping those whose blob already has the same size and MD5.
+     * @param files the file to upload for each blob name
+     * @param stored the blobs that already exist, by name
+     * @param transfer the transfer to report the progress of all files to, if any
+     * @return the outcome of every file
+     * @throws InternalException the transfer was interrupted
+     */
+    public @Nonnull Result upload(@Nonnull Map<String,File> files, @Nonnull Map<String,Fingerprint> stored, @Nullable FileTransfer transfer) throws InternalException {
+        long total = 0L;
+
+        for( File file : files.values() ) {
+            total += file.length();
+        }
+        return run(files, stored, true, total, transfer);
+    }
+
+    /**
+     * Downloads blobs, skipping those whose file already has the same size and MD5.
+     * @param files the file to write each blob to, by blob name
+     * @param stored the blobs to download, by name
+     * @param transfer the transfer to report the progress of all files to, if any
+     * @return the outcome of every file
+     * @throws InternalException the transfer was interrupted
+     */
+    public @Nonnull Result download(@Nonnull Map<String,File> files, @Nonnull Map<String,Fingerprint> stored, @Nullable FileTransfer transfer) throws InternalException {
+        long total = 0L;
+
+        for( String object : files.keySet() ) {
+            Fingerprint fingerprint = stored.get(object);
+
+            if( fingerprint != null ) {
+                total += fingerprint.getLength();
+            }
+        }
+        return run(files, stored, false, total, transfer);
+    }
+
+    private @Nonnull Result run(@Nonnull Map<String,File> files, @Nonnull Map<String,Fingerprint> stored, boolean upload, long total, @Nullable FileTransfer transfer) throws InternalException {
+        Result result = new Result();
+        TransferWorkers.Progress progress = new TransferWorkers.Progress(transfer, total);
+        TransferWorkers workers = new TransferWorkers("Azure bulk transfer", threads);
+
+        TreeMap<String,File> large = new TreeMap<String, File>();
+
+        try {
+            for( Map.Entry<String,File> entry : files.entrySet() ) {
+                Fingerprint fingerprint = stored.get(entry.getKey());
+
+                if( getLength(entry.getValue(), fingerprint, upload) > LARGE_FILE_SIZE ) {
+                    large.put(entry.getKey(), entry.getValue());
+                }
+                else {
+                    workers.submit("transfer " + entry.getKey(), new FileTask(entry.getKey(), entry.getValue(), fingerprint, upload, result, progress));
+                }
+            }
+            workers.await();
+        }
+        catch( CloudException e ) {
+            // every file records its own failure, so this never happens
+            throw new InternalException(e);
+        }
+        finally {
+            workers.close();
+        }
+        for( Map.Entry<String,File> entry : large.entrySet() ) {
+            if( Thread.currentThread().isInterrupted() ) {
+                throw new InternalException("The transfer was interrupted");
+            }
+            new FileTask(entry.getKey(), entry.getValue(), stored.get(entry.getKey()), upload, result, progress).run();
+        }
+        if( logger.isDebugEnabled() ) {
+            logger.debug((upload ? "Uploaded " : "Downloaded ") + result.getTransferred().size() + " files (" + result.getBytesTransferred() + " bytes), skipped " + result.getSkipped().size() + ", failed " + result.getFailures().size());
+        }
+        return result;
+    }
+
+    /**
+     * @param file the local copy
+     * @param fingerprint the blob, if it exists
+     * @param upload true if the file is the source of the transfer
+     * @return the number of bytes the transfer of the file moves
+     */
+    static private long getLength(@Nonnull File file, @Nullable Fingerprint fingerprint, boolean upload) {
+        return (upload ? file.length() : (fingerprint == null ? 0L : fingerprint.getLength()));
+    }
+
+    /**
+     * @param file the local copy
+     * @param fingerprint the blob, if it exists
+     * @return true if the file and the blob have the same size and MD5
+     * @throws InternalException the file could not be read
+     */
+    static boolean isCurrent(@Nonnull File file, @Nullable Fingerprint fingerprint) throws InternalException {
+        if( fingerprint == null || fingerprint.getContentMD5() == null || !file.isFile() || file.length() != fingerprint.getLength() ) {
+            return false;
+        }
+        return ContentMD5.of(file).equals(fingerprint.getContentMD5().trim());
+    }
+
+    private class FileTask implements TransferWorkers.Task {
+        private String                   object;
+        private File                     file;
+        private Fingerprint              fingerprint;
+        private boolean                  upload;
+        private Result                   result;
+        private TransferWorkers.Progress progress;
+
+        FileTask(@Nonnull String object, @Nonnull File file, @Nullable Fingerprint fingerprint, boolean upload, @Nonnull Result result, @Nonnull TransferWorkers.Progress progress) {
+            this.object = object;
+            this.file = file;
+            this.fingerprint = fingerprint;
+            this.upload = upload;
+            this.result = result;
+            this.progress = progress;
+        }
+
+        public void run() {
+            long length = getLength(file, fingerprint, upload);
+
+            try {
+                if( isCurrent(file, fingerprint) ) {
+                    if( logger.isDebugEnabled() ) {
+                        logger.debug(object + " is already up to date");
+                    }
+                    result.skipped(object);
+                }
+                else {
+                    if( upload ) {
+                        store.put(object, file);
+                    }
+                    else if( fingerprint == null ) {
+                        throw new CloudException("No such file: " + object);
+                    }
+                    else {
+                        File directory = file.getParentFile();
+
+                        if( directory != null && !directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory() ) {
+                            throw new InternalException("Unable to create " + directory);
+                        }
+                        store.get(object, file, fingerprint);
+                    }
+                    result.transferred(object, length);
+                }
+            }
+            catch( CloudException e ) {
+                logger.error("Unable to transfer " + object + ": " + e.getMessage());
+                result.failed(object, e);
+            }
+            catch( InternalException e ) {
+                logger.error("Unable to transfer " + object + ": " + e.getMessage());
+                result.failed(object, e);
+            }
+            catch( RuntimeException e ) {
+                logger.error("Unable to transfer " + object + ": " + e.getMessage());
+                result.failed(object, new InternalException(e));
+            }
+            finally {
+                // failed files count as done, so the progress still reaches the total
+                progress.add(length);
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.storage;
+
+import org.apache.commons.codec.binary.Base64;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnull;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes and checks the Base64 encoded MD5 digests the blob service uses for <code>Content-MD5</code> and
+ * <code>x-ms-blob-content-md5</code>. Digests of transferred content are always computed from content already in
+ * memory on its way to or from the service, never by reading a file again. Each thread reuses its own <code>MessageDigest</code> for
+ * buffers, as blocks and pages are digested by the upload workers.
+ * @since 2015.06.2
+ * @version 2015.06.2
+ */
+public class ContentMD5 {
+    static private final String ALGORITHM   = "MD5";
+    static private final int    BUFFER_SIZE = 64 * 1024;
+
+    static private final ThreadLocal<MessageDigest> digests = new ThreadLocal<MessageDigest>();
+
+    /**
+     * Signals content that does not match the digest the service reported for it.
+     */
+    static public class MismatchException extends IOException {
+        public MismatchException(@Nonnull String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * @return a new MD5 digest
+     * @throws InternalException the JVM has no MD5 support
+     */
+    static public @Nonnull MessageDigest newDigest() throws InternalException {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        }
+        catch( NoSuchAlgorithmException e ) {
+            throw new InternalException(e);
+        }
+    }
+
+    /**
+     * Digests the content of a buffer, from its position to its limit, without moving its position.
+     * @param content the content to digest
+     * @return the Base64 encoded MD5 digest of the content
+     * @throws InternalException the JVM has no MD5 support
+     */
+    static public @Nonnull String of(@Nonnull ByteBuffer content) throws InternalException {
+        MessageDigest digest = digests.get();
+
+        if( digest == null ) {
+            digest = newDigest();
+            digests.set(digest);
+        }
+        digest.reset();
+        digest.update(content.duplicate());
+        return toString(digest);
+    }
+
+    /**
+     * Digests a file. This reads the whole file, so it is only meant for deciding whether a file needs to be
+     * transferred at all, never for checking content that is being transferred anyway.
+     * @param file the file to digest
+     * @return the Base64 encoded MD5 digest of the file
+     * @throws InternalException the file could not be read
+     */
+    static public @Nonnull String of(@Nonnull File file) throws InternalException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        FileInputStream input = null;
+
+        try {
+            input = new FileInputStream(file);
+            FileChannel channel = input.getChannel();
+
+            while( channel.read(buffer) != -1 ) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        catch( IOException e ) {
+            throw new InternalException(e);
+        }
+        finally {
+            if( input != null ) {
+                try { input.close(); }
+                catch( Throwable ignore ) { }
+            }
+        }
+        return toString(digest);
+    }
+
+    /**
+     * Completes a digest and resets it.
+     * @param digest the digest of the content
+     * @return the Base64 encoded MD5 digest of the content
+     */
+    static public @Nonnull String toString(@Nonnull MessageDigest digest) {
+        return Base64.encodeBase64String(digest.digest());
+    }
+
+    /**
+     * Wraps a stream so that its content is digested as it is read and checked once the expected number of bytes
+     * has gone by. The read that completes the content fails with a {@link MismatchException} if it does not match,
+     * and content that ends early fails with an <code>EOFException</code>.
+     * @param input the content to check
+     * @param length the number of bytes of content
+     * @param expected the Base64 encoded MD5 digest the content must have
+     * @param description what the content is, for the error message
+     * @return a stream of the same content
+     * @throws InternalException the JVM has no MD5 support
+     */
+    static public @Nonnull InputStream verify(@Nonnull InputStream input, long length, @Nonnull String expected, @Nonnull String description) throws InternalException {
+        return new Verifier(input, length, expected, description, newDigest());
+    }
+
+    static private class Verifier extends FilterInputStream {
+        private long          remaining;
+        private String        expected;
+        private String        description;
+        private MessageDigest digest;
+
+        Verifier(@Nonnull InputStream input, long length, @Nonnull String expected, @Nonnull String description, @Nonnull MessageDigest digest) {
+            super(input);
+            this.remaining = length;
+            this.expected = expected.trim();
+            this.description = description;
+            this.digest = digest;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+
+            return (read(b, 0, 1) == -1 ? -1 : b[0] & 0xff);
+        }
+
+        @Override
+        public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+
+            if( read == -1 && remaining > 0 ) {
+                throw new EOFException(description + " ended " + remaining + " bytes short");
+            }
+            if( read > 0 && remaining > 0 ) {
+                digest.update(b, off, (int)Math.min(read, remaining));
+                remaining -= read;
+                if( remaining <= 0 ) {
+                    String actual = ContentMD5.toString(digest);
+
+                    if( !actual.equals(expected) ) {
+                        throw new MismatchException("The MD5 of " + description + " is " + actual + ", not " + expected);
+                    }
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped content cannot be digested, so read through it
+            byte[] buffer = new byte[(int)Math.min(8192, Math.max(1, n))];
+            long skipped = 0L;
+
+            while( skipped < n ) {
+                int read = read(buffer, 0, (int)Math.min(buffer.length, n - skipped));
+
+                if( read == -1 ) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
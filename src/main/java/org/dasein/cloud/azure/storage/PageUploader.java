@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.storage;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.azure.Azure;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Uploads a file into an existing page blob, writing only the pages that hold data. A new page blob reads as zeros,
+ * so the all-zero 512-byte pages that make up most of a fixed-size VHD never need to be sent. The calling thread
+ * reads the file in chunks into a small pool of heap buffers and a fixed number of workers scan each chunk for
+ * runs of pages with data, writing each run with one <code>comp=page</code> request.
+ * <p>
+ * Chunks are read into a {@link TransferWorkers.BufferPool}, which bounds the memory an upload uses. The number
+ * of workers is read from the custom property named by {@link #UPLOAD_THREADS} (4); chunks are as large as a
+ * single write can be (4 MB).
+ * </p>
+ * @since 2015.06.2
+ * @version 2015.06.2
+ */
+public class PageUploader {
+    static private final Logger logger = Azure.getLogger(PageUploader.class);
+
+    static public final String UPLOAD_THREADS = "pageUploadThreads";
+
+    static public final int PAGE_SIZE      = 512;
+    static public final int MAX_WRITE_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Where the pages of an upload go.
+     */
+    public interface Target {
+        /**
+         * Writes a run of pages. Called from the {@link TransferWorkers workers}.
+         * @param offset the offset of the first page in the blob, a multiple of {@link #PAGE_SIZE}
+         * @param content the pages, from the buffer's position to its limit; the buffer is reused once this method
+         * returns
+         */
+        public void putPages(long offset, @Nonnull ByteBuffer content) throws CloudException, InternalException;
+    }
+
+    private Target     target;
+    private int        threads;
+    private int        chunkSize;
+    private AtomicLong written = new AtomicLong();
+
+    /**
+     * Constructs an uploader configured from the provider's custom properties.
+     * @param provider the provider whose context supplies the configuration
+     * @param target where the pages go
+     */
+    public PageUploader(@Nonnull Azure provider, @Nonnull Target target) {
+        this(target, provider.getIntProperty(UPLOAD_THREADS, 4), MAX_WRITE_SIZE);
+    }
+
+    /**
+     * Constructs an uploader with explicit settings.
+     * @param target where the pages go
+     * @param threads the number of chunks to scan and write at once
+     * @param chunkSize the number of bytes read at a time, rounded down to whole pages and at most {@link #MAX_WRITE_SIZE}
+     */
+    public PageUploader(@Nonnull Target target, int threads, int chunkSize) {
+        this.target = target;
+        this.threads = Math.max(1, threads);
+        this.chunkSize = Math.max(PAGE_SIZE, Math.min(MAX_WRITE_SIZE, chunkSize) / PAGE_SIZE * PAGE_SIZE);
+    }
+
+    /**
+     * Writes the pages of a file that hold data into a page blob of the same size. The channel is not closed.
+     * @param channel the content of the blob
+     * @param length the size of the file, a multiple of {@link #PAGE_SIZE}
+     * @return the number of bytes actually sent, out of the <code>length</code> bytes of the blob
+     * @throws CloudException a run of pages could not be written
+     * @throws InternalException the file could not be read or the upload was interrupted
+     */
+    public long upload(@Nonnull FileChannel channel, long length) throws CloudException, InternalException {
+        if( length % PAGE_SIZE != 0 ) {
+            throw new InternalException("Page blobs must be a multiple of " + PAGE_SIZE + " bytes, not " + length);
+        }
+        TransferWorkers workers = new TransferWorkers("Azure page upload", threads);
+        TransferWorkers.BufferPool buffers = new TransferWorkers.BufferPool(threads, chunkSize);
+        long offset = 0L;
+
+        written.set(0L);
+        try {
+            while( !workers.isFailed() && offset < length ) {
+                ByteBuffer buffer = buffers.take();
+
+                buffer.limit((int)Math.min(chunkSize, length - offset));
+                while( buffer.hasRemaining() ) {
+                    if( channel.read(buffer, offset + buffer.position()) == -1 ) {
+                        throw new InternalException("The file ended after " + (offset + buffer.position()) + " of " + length + " bytes");
+                    }
+                }
+                buffer.flip();
+                workers.submit("upload pages at " + offset, new ChunkTask(offset, buffer, buffers, workers));
+                offset += buffer.limit();
+            }
+            workers.await();
+        }
+        catch( IOException e ) {
+            logger.error("Unable to read the content to upload: " + e.getMessage());
+            throw new InternalException(e);
+        }
+        finally {
+            workers.close();
+        }
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Uploaded " + written.get() + " of " + length + " bytes of page blob content; the rest was empty");
+        }
+        return written.get();
+    }
+
+    /**
+     * @param buffer the pages to check
+     * @param page the position of the page in the buffer
+     * @return true if every byte of the page is zero
+     */
+    static boolean isEmpty(@Nonnull ByteBuffer buffer, int page) {
+        for( int i=page; i<page + PAGE_SIZE; i += 8 ) {
+            if( buffer.getLong(i) != 0L ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private class ChunkTask implements TransferWorkers.Task {
+        private long                       offset;
+        private ByteBuffer                 buffer;
+        private TransferWorkers.BufferPool buffers;
+        private TransferWorkers            workers;
+
+        ChunkTask(long offset, @Nonnull ByteBuffer buffer, @Nonnull TransferWorkers.BufferPool buffers, @Nonnull TransferWorkers workers) {
+            this.offset = offset;
+            this.buffer = buffer;
+            this.buffers = buffers;
+            this.workers = workers;
+        }
+
+        public void run() throws CloudException, InternalException {
+            try {
+                int limit = buffer.limit();
+                int start = -1;
+
+                for( int page=0; page<limit && !workers.isFailed(); page += PAGE_SIZE ) {
+                    boolean empty = isEmpty(buffer, page);
+
+                    if( !empty && start == -1 ) {
+                        start = page;
+                    }
+                    else if( empty && start != -1 ) {
+                        put(start, page);
+                        start = -1;
+                    }
+                }
+                if( start != -1 && !workers.isFailed() ) {
+                    put(start, limit);
+                }
+            }
+            finally {
+                buffers.release(buffer);
+            }
+        }
+
+        private void put(int start, int end) throws CloudException, InternalException {
+            ByteBuffer run = buffer.duplicate();
+
+            run.limit(end);
+            run.position(start);
+            target.putPages(offset + start, run);
+            written.addAndGet(end - start);
+        }
+    }
+}
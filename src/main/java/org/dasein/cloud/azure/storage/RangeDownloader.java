@@ -0,0 +1,262 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.storage;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.azure.Azure;
+import org.dasein.cloud.azure.AzureRetryPolicy;
+import org.dasein.cloud.storage.FileTransfer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Downloads a blob as a number of byte ranges fetched at once, each written straight to its offset in the target
+ * file with positional channel writes, so the parts may complete in any order. Each part is a task on a fixed
+ * pool of {@link TransferWorkers} and is copied through a small buffer of its own, so memory use does not depend on
+ * the part size or on the size of the blob.
+ * <p>
+ * A part that fails part way is requested again from the first byte not yet written, as often as the storage
+ * retry policy allows. A request whose content fails a {@link ContentMD5} check is repeated in full instead. The
+ * first part that cannot be fetched stops the other workers and fails the download. With a {@link Checkpoint}, a
+ * later attempt skips the parts an earlier one wrote.
+ * The settings are read from the custom properties named by {@link #DOWNLOAD_THREADS} (4) and
+ * {@link #PART_SIZE} (4 MB). Parts are never larger than {@link #MAX_PART_SIZE}, the largest range the service
+ * returns an MD5 digest for, so every byte of the blob is checked.
+ * </p>
+ * @since 2015.06.2
+ * @version 2015.06.2
+ */
+public class RangeDownloader {
+    static private final Logger logger = Azure.getLogger(RangeDownloader.class);
+
+    static public final String DOWNLOAD_THREADS = "rangeDownloadThreads";
+    static public final String PART_SIZE        = "downloadPartSize";
+
+    static public final int  DEFAULT_THREADS   = 4;
+    static public final long DEFAULT_PART_SIZE = 4L * 1024L * 1024L;
+    static public final long MAX_PART_SIZE     = 4L * 1024L * 1024L;
+
+    static private final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Where the ranges of a download come from.
+     */
+    public interface Source {
+        /**
+         * Opens a range of the blob. Called from the {@link TransferWorkers workers}.
+         * @param offset the first byte of the range
+         * @param length the number of bytes in the range
+         * @return a stream over exactly the bytes of the range, which the caller closes
+         */
+        public @Nonnull InputStream getRange(long offset, long length) throws CloudException, InternalException;
+    }
+
+    /**
+     * Keeps track of the parts written so far, so that a download that fails can be resumed.
+     */
+    public interface Checkpoint {
+        /**
+         * @param part the index of a part of the blob
+         * @return true if an earlier attempt at the download already wrote the part
+         */
+        public boolean isDone(long part);
+
+        /**
+         * Records a part written to the file. Called from the {@link TransferWorkers workers}.
+         * @param part the index of the part
+         */
+        public void done(long part);
+    }
+
+    private Source           source;
+    private int              threads;
+    private long             partSize;
+    private AzureRetryPolicy policy;
+    private Checkpoint       checkpoint;
+
+    /**
+     * Constructs a downloader configured from the provider's custom properties that retries failed parts under
+     * the provider's storage retry policy.
+     * @param provider the provider whose context supplies the configuration
+     * @param source where the ranges come from
+     */
+    public RangeDownloader(@Nonnull Azure provider, @Nonnull Source source) {
+        this(provider, source, provider.getIntProperty(DOWNLOAD_THREADS, DEFAULT_THREADS), provider.getLongProperty(PART_SIZE, DEFAULT_PART_SIZE));
+    }
+
+    /**
+     * Constructs a downloader with explicit settings that retries failed parts under the provider's storage retry
+     * policy.
+     * @param provider the provider whose context supplies the retry policy
+     * @param source where the ranges come from
+     * @param threads the number of ranges to fetch at once
+     * @param partSize the size of every range but the last in bytes, at most {@link #MAX_PART_SIZE}
+     */
+    public RangeDownloader(@Nonnull Azure provider, @Nonnull Source source, int threads, long partSize) {
+        this(source, threads, partSize);
+        this.policy = AzureRetryPolicy.getInstance(provider, "storage");
+    }
+
+    /**
+     * Constructs a downloader with explicit settings that does not retry failed parts.
+     * @param source where the ranges come from
+     * @param threads the number of ranges to fetch at once
+     * @param partSize the size of every range but the last in bytes, at most {@link #MAX_PART_SIZE}
+     */
+    public RangeDownloader(@Nonnull Source source, int threads, long partSize) {
+        if( partSize > MAX_PART_SIZE ) {
+            logger.warn("Ignoring a " + PART_SIZE + " of " + partSize + " bytes; ranges larger than " + MAX_PART_SIZE + " bytes cannot be checked");
+        }
+        this.source = source;
+        this.threads = Math.max(1, threads);
+        this.partSize = Math.min(MAX_PART_SIZE, Math.max(1L, partSize));
+    }
+
+    /**
+     * Resumes an earlier attempt at the same download, skipping the parts it already wrote and recording each
+     * part as it is written.
+     * @param checkpoint the parts written so far
+     */
+    public void setCheckpoint(@Nullable Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * @return the size of every range but the last in bytes
+     */
+    public long getPartSize() {
+        return partSize;
+    }
+
+    /**
+     * @param length the size of the blob in bytes
+     * @return true if the blob is large enough to be worth fetching in more than one range at once
+     */
+    public boolean isRanged(long length) {
+        return (threads > 1 && length > partSize);
+    }
+
+    /**
+     * Downloads the blob into a file. The channel is neither truncated nor closed.
+     * @param channel the file to write to
+     * @param length the size of the blob in bytes
+     * @param transfer the transfer to report the bytes written to, if any
+     * @return the number of bytes written
+     * @throws CloudException a range could not be fetched
+     * @throws InternalException the file could not be written or the download was interrupted
+     */
+    public long download(@Nonnull final FileChannel channel, final long length, @Nullable final FileTransfer transfer) throws CloudException, InternalException {
+        long parts = (length + partSize - 1) / partSize;
+        final TransferWorkers.Progress progress = new TransferWorkers.Progress(transfer, -1L);
+        int count = (int)Math.min(threads, Math.max(1L, parts));
+        final TransferWorkers workers = new TransferWorkers("Azure range download", count);
+
+        try {
+            for( long part=0; part<parts && !workers.isFailed(); part++ ) {
+                final long offset = part * partSize;
+                final long size = Math.min(partSize, length - offset);
+                final long index = part;
+
+                if( checkpoint != null && checkpoint.isDone(part) ) {
+                    progress.add(size);
+                    continue;
+                }
+                workers.submit("download range at " + offset, new TransferWorkers.Task() {
+                    public void run() throws CloudException, InternalException {
+                        if( !workers.isFailed() ) {
+                            fetch(channel, offset, size, new byte[COPY_BUFFER_SIZE], progress);
+                            if( checkpoint != null ) {
+                                checkpoint.done(index);
+                            }
+                        }
+                    }
+                });
+            }
+            workers.await();
+        }
+        finally {
+            workers.close();
+        }
+        if( logger.isDebugEnabled() ) {
+            logger.debug("Downloaded " + parts + " ranges (" + length + " bytes) with " + count + " threads");
+        }
+        return length;
+    }
+
+    private void fetch(@Nonnull FileChannel channel, long offset, long length, @Nonnull byte[] buffer, @Nonnull TransferWorkers.Progress progress) throws CloudException, InternalException {
+        long written = 0L;
+
+        for( int attempt=1; ; attempt++ ) {
+            long start = written;
+            InputStream input = source.getRange(offset + written, length - written);
+
+            try {
+                while( written < length ) {
+                    int read;
+
+                    try {
+                        read = input.read(buffer, 0, (int)Math.min(buffer.length, length - written));
+                    }
+                    catch( IOException e ) {
+                        throw new CloudException(e);
+                    }
+                    if( read == -1 ) {
+                        throw new CloudException(new EOFException("The range at " + offset + " ended after " + written + " of " + length + " bytes"));
+                    }
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+
+                    try {
+                        while( chunk.hasRemaining() ) {
+                            channel.write(chunk, offset + written + chunk.position());
+                        }
+                    }
+                    catch( IOException e ) {
+                        logger.error("Unable to write the download at " + (offset + written) + ": " + e.getMessage());
+                        throw new InternalException(e);
+                    }
+                    written += read;
+                    progress.add(read);
+                }
+                return;
+            }
+            catch( CloudException e ) {
+                if( policy == null || !policy.retry(attempt, e, true, -1L) ) {
+                    throw e;
+                }
+                if( e.getCause() instanceof ContentMD5.MismatchException ) {
+                    // every byte of the failed request is suspect, not just the ones after the failure
+                    progress.add(start - written);
+                    written = start;
+                }
+            }
+            finally {
+                try { input.close(); }
+                catch( Throwable ignore ) { }
+            }
+        }
+    }
+}
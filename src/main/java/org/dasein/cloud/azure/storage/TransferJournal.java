@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.storage;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.azure.Azure;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * A checkpoint of a transfer between a local file and a blob, kept in a small file next to the local file so that
+ * a transfer that failed, or whose process was killed, can pick up where it stopped. The journal starts with the
+ * identity of the transfer (the blob, the sizes, the ETag and so on) followed by one line for every block or range
+ * completed, appended as each one finishes. An earlier journal is only reused if its identity matches the retried
+ * transfer exactly; anything else starts the transfer over.
+ * <p>
+ * Journals are written when the custom property named by {@link #RESUMABLE_TRANSFERS} is <code>true</code> and
+ * removed once the transfer completes. The journal protects against failed requests and dead processes, not
+ * against the machine losing writes to the local file that were never flushed to disk.
+ * </p>
+ * @since 2015.06.2
+ * @version 2015.06.2
+ */
+public class TransferJournal implements RangeDownloader.Checkpoint {
+    static private final Logger logger = Azure.getLogger(TransferJournal.class);
+
+    static public final String RESUMABLE_TRANSFERS = "resumableTransfers";
+    static public final String SUFFIX              = ".azure-transfer";
+
+    static private final String  HEADER = "# Dasein Cloud Azure transfer journal";
+    static private final String  DONE   = "done";
+    static private final Charset UTF8   = Charset.forName("UTF-8");
+
+    /**
+     * @param provider the provider whose context supplies the configuration
+     * @return true if transfers should keep a journal
+     */
+    static public boolean isEnabled(@Nonnull Azure provider) {
+        return "true".equalsIgnoreCase(provider.getCustomProperty(RESUMABLE_TRANSFERS));
+    }
+
+    /**
+     * @param file the local file of a transfer
+     * @return the journal file of transfers to or from that file
+     */
+    static public @Nonnull File getJournalFile(@Nonnull File file) {
+        return new File(file.getAbsoluteFile().getParentFile(), file.getName() + SUFFIX);
+    }
+
+    /**
+     * Opens the journal of an earlier attempt at the same transfer or, if there is none or it describes a
+     * different transfer, starts a new one.
+     * @param file the local file of the transfer
+     * @param identity the values that must all match for an earlier attempt to be resumed
+     * @return the journal of the transfer
+     * @throws InternalException the journal could not be written
+     */
+    static public @Nonnull TransferJournal open(@Nonnull File file, @Nonnull Map<String,String> identity) throws InternalException {
+        File journalFile = getJournalFile(file);
+        TreeMap<String,String> expected = new TreeMap<String, String>(identity);
+        TransferJournal journal = new TransferJournal(journalFile, expected);
+
+        if( journalFile.exists() ) {
+            TreeMap<String,String> found = new TreeMap<String, String>();
+            Set<String> done = new HashSet<String>();
+
+            try {
+                read(journalFile, found, done);
+            }
+            catch( IOException e ) {
+                logger.warn("Ignoring unreadable transfer journal " + journalFile + ": " + e.getMessage());
+                found.clear();
+            }
+            if( found.equals(expected) ) {
+                journal.done = done;
+                journal.resumed = true;
+                if( logger.isDebugEnabled() ) {
+                    logger.debug("Resuming transfer from " + journalFile + " with " + done.size() + " parts done");
+                }
+            }
+            else if( logger.isDebugEnabled() ) {
+                logger.debug("Discarding transfer journal " + journalFile + " for a different transfer");
+            }
+        }
+        journal.start();
+        return journal;
+    }
+
+    static private void read(@Nonnull File journalFile, @Nonnull Map<String,String> identity, @Nonnull Set<String> done) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(journalFile), UTF8));
+
+        try {
+            String line;
+
+            while( (line = reader.readLine()) != null ) {
+                int idx = line.indexOf('=');
+
+                if( line.startsWith("#") || idx < 1 ) {
+                    // comments and a line cut short by a dead process
+                    continue;
+                }
+                String name = line.substring(0, idx);
+                String value = line.substring(idx + 1);
+
+                if( name.equals(DONE) ) {
+                    done.add(value);
+                }
+                else {
+                    identity.put(name, value);
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    private File                   journalFile;
+    private TreeMap<String,String> identity;
+    private Set<String>            done = new HashSet<String>();
+    private boolean                resumed;
+    private Writer                 writer;
+
+    private TransferJournal(@Nonnull File journalFile, @Nonnull TreeMap<String,String> identity) {
+        this.journalFile = journalFile;
+        this.identity = identity;
+    }
+
+    private void start() throws InternalException {
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(journalFile, resumed), UTF8);
+            if( !resumed ) {
+                StringBuilder header = new StringBuilder();
+
+                header.append(HEADER).append('\n');
+                for( Map.Entry<String,String> entry : identity.entrySet() ) {
+                    header.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+                }
+                writer.write(header.toString());
+                writer.flush();
+            }
+        }
+        catch( IOException e ) {
+            logger.error("Unable to write transfer journal " + journalFile + ": " + e.getMessage());
+            close();
+            throw new InternalException(e);
+        }
+    }
+
+    /**
+     * @return true if the journal was left by an earlier attempt at the same transfer
+     */
+    public boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * @param name the name of an identity value
+     * @return the value the transfer was started with or <code>null</code> if there is none
+     */
+    public @Nullable String get(@Nonnull String name) {
+        return identity.get(name);
+    }
+
+    /**
+     * @param id the ID of a block or range
+     * @return true if an attempt at this transfer completed the block or range
+     */
+    public synchronized boolean isDone(@Nonnull String id) {
+        return done.contains(id);
+    }
+
+    public boolean isDone(long part) {
+        return isDone(String.valueOf(part));
+    }
+
+    /**
+     * Records a completed block or range. A journal that can no longer be written only costs the ability to
+     * resume, so the failure is logged rather than failing the transfer.
+     * @param id the ID of the block or range
+     */
+    public synchronized void done(@Nonnull String id) {
+        if( !done.add(id) || writer == null ) {
+            return;
+        }
+        try {
+            writer.write(DONE + "=" + id + "\n");
+            writer.flush();
+        }
+        catch( IOException e ) {
+            logger.warn("Unable to update transfer journal " + journalFile + ": " + e.getMessage());
+        }
+    }
+
+    public void done(long part) {
+        done(String.valueOf(part));
+    }
+
+    /**
+     * Closes the journal, leaving it in place for the next attempt.
+     */
+    public synchronized void close() {
+        if( writer != null ) {
+            try { writer.close(); }
+            catch( Throwable ignore ) { }
+            writer = null;
+        }
+    }
+
+    /**
+     * Closes and removes the journal of a transfer that completed or can no longer be resumed.
+     */
+    public synchronized void delete() {
+        close();
+        if( journalFile.exists() && !journalFile.delete() ) {
+            logger.warn("Unable to remove transfer journal " + journalFile);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.storage;
+
+import org.apache.log4j.Logger;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.azure.Azure;
+import org.dasein.cloud.storage.FileTransfer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The fixed pool of daemon workers behind a single parallel transfer. The first task that fails is remembered and
+ * {@link #await()} throws that failure once every task is done; tasks check {@link #isFailed()} to stop early
+ * rather than being skipped, so that they still release whatever they hold. A transfer creates its workers,
+ * submits its tasks, awaits them and always closes the workers.
+ * <p>
+ * Tasks run on several workers at once, so whatever a transfer calls from its tasks, such as the source or
+ * target it was given, must be thread-safe.
+ * </p>
+ * @since 2015.06.2
+ * @version 2015.06.2
+ */
+class TransferWorkers {
+    static private final Logger logger = Azure.getLogger(TransferWorkers.class);
+
+    static private final AtomicInteger transfers = new AtomicInteger();
+
+    /**
+     * One unit of work of a transfer.
+     */
+    interface Task {
+        public void run() throws CloudException, InternalException;
+    }
+
+    private ExecutorService            workers;
+    private List<Future<?>>            pending = new ArrayList<Future<?>>();
+    private AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+    /**
+     * @param name the name of the transfer, used to name the worker threads
+     * @param threads the number of tasks to run at once
+     */
+    TransferWorkers(@Nonnull final String name, int threads) {
+        workers = Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+            private final String prefix = name + " " + transfers.incrementAndGet();
+            private int count = 0;
+
+            public synchronized Thread newThread(@Nonnull Runnable r) {
+                Thread t = new Thread(r, prefix + "-" + (++count));
+
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Queues a task.
+     * @param description what the task does, for the log message if it fails
+     * @param task the task
+     */
+    void submit(@Nonnull final String description, @Nonnull final Task task) {
+        pending.add(workers.submit(new Runnable() {
+            public void run() {
+                try {
+                    task.run();
+                }
+                catch( CloudException e ) {
+                    logger.error("Unable to " + description + ": " + e.getMessage());
+                    failure.compareAndSet(null, e);
+                }
+                catch( InternalException e ) {
+                    logger.error("Unable to " + description + ": " + e.getMessage());
+                    failure.compareAndSet(null, e);
+                }
+                catch( RuntimeException e ) {
+                    logger.error("Unable to " + description + ": " + e.getMessage());
+                    failure.compareAndSet(null, new InternalException(e));
+                }
+            }
+        }));
+    }
+
+    /**
+     * @return true if a task has failed
+     */
+    boolean isFailed() {
+        return (failure.get() != null);
+    }
+
+    /**
+     * Waits for every task submitted so far.
+     * @throws CloudException the first task that failed with a cloud error
+     * @throws InternalException the first task that failed otherwise, or the wait was interrupted
+     */
+    void await() throws CloudException, InternalException {
+        try {
+            for( Future<?> f : pending ) {
+                f.get();
+            }
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            failure.compareAndSet(null, new InternalException(e));
+        }
+        catch( ExecutionException e ) {
+            failure.compareAndSet(null, new InternalException(e.getCause()));
+        }
+        Exception error = failure.get();
+
+        if( error instanceof CloudException ) {
+            throw (CloudException)error;
+        }
+        if( error != null ) {
+            throw (InternalException)error;
+        }
+    }
+
+    /**
+     * Stops the workers, interrupting any task still running.
+     */
+    void close() {
+        workers.shutdownNow();
+    }
+
+    /**
+     * The reusable buffers the reading thread of an upload fills and the workers hand back once their content is
+     * sent. At most one buffer more than there are workers is ever allocated, so an upload never holds more than
+     * <code>(threads + 1) * size</code> bytes of content, however large it is. The buffers are heap buffers, since
+     * the HTTP entity writes those straight from their backing array but copies a direct buffer through the heap.
+     */
+    static class BufferPool {
+        private BlockingQueue<ByteBuffer> buffers;
+        private int                       capacity;
+        private int                       size;
+        private int                       allocated;
+
+        /**
+         * @param threads the number of workers the buffers are handed to
+         * @param size the size of every buffer in bytes
+         */
+        BufferPool(int threads, int size) {
+            this.capacity = Math.max(1, threads) + 1;
+            this.buffers = new ArrayBlockingQueue<ByteBuffer>(capacity);
+            this.size = size;
+        }
+
+        /**
+         * Takes a cleared buffer, waiting for a worker to release one if every buffer is in flight. Only the
+         * reading thread takes buffers.
+         * @return the buffer
+         * @throws InternalException the wait was interrupted
+         */
+        @Nonnull ByteBuffer take() throws InternalException {
+            ByteBuffer buffer = buffers.poll();
+
+            if( buffer == null ) {
+                if( allocated < capacity ) {
+                    buffer = ByteBuffer.allocate(size);
+                    allocated++;
+                }
+                else {
+                    try {
+                        buffer = buffers.take();
+                    }
+                    catch( InterruptedException e ) {
+                        Thread.currentThread().interrupt();
+                        throw new InternalException(e);
+                    }
+                }
+            }
+            buffer.clear();
+            return buffer;
+        }
+
+        /**
+         * Hands a buffer back once its content is no longer needed.
+         * @param buffer the buffer
+         */
+        void release(@Nonnull ByteBuffer buffer) {
+            buffers.offer(buffer);
+        }
+    }
+
+    /**
+     * Reports the bytes moved by every worker to a transfer as one running total.
+     */
+    static class Progress {
+        private FileTransfer transfer;
+        private long         total;
+
+        /**
+         * @param transfer the transfer to report to, if any
+         * @param bytesToTransfer the size of the whole transfer or -1 to leave the transfer's own value
+         */
+        Progress(@Nullable FileTransfer transfer, long bytesToTransfer) {
+            this.transfer = transfer;
+            if( transfer != null ) {
+                if( bytesToTransfer >= 0 ) {
+                    transfer.setBytesToTransfer(bytesToTransfer);
+                }
+                transfer.setBytesTransferred(0L);
+            }
+        }
+
+        synchronized void add(long bytes) {
+            total += bytes;
+            if( transfer != null ) {
+                transfer.setBytesTransferred(total);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.tests;
+
+import org.dasein.cloud.azure.AzureBlobPropertyCache;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AzureBlobPropertyCacheTests {
+    static private final String ACCOUNT = "account";
+
+    private Map<String,String> createProperties(long length) {
+        HashMap<String,String> properties = new HashMap<String, String>();
+
+        properties.put("Content-Length", String.valueOf(length));
+        return properties;
+    }
+
+    @Test
+    public void propertiesShouldBeRemembered() throws Exception {
+        AzureBlobPropertyCache cache = new AzureBlobPropertyCache();
+
+        cache.put(ACCOUNT, "/bucket/object", createProperties(100L), 60000L, 10);
+
+        AzureBlobPropertyCache.Entry entry = cache.get(ACCOUNT, "bucket/object");
+
+        assertNotNull("The properties were not remembered", entry);
+        assertTrue("The blob does not exist", entry.exists());
+        assertEquals("Invalid length", "100", entry.getProperties().get("content-length"));
+        assertNull("The blob was found in another account", cache.get("other", "bucket/object"));
+    }
+
+    @Test
+    public void missingBlobsShouldBeRemembered() throws Exception {
+        AzureBlobPropertyCache cache = new AzureBlobPropertyCache();
+
+        cache.put(ACCOUNT, "bucket/missing", null, 60000L, 10);
+
+        AzureBlobPropertyCache.Entry entry = cache.get(ACCOUNT, "bucket/missing");
+
+        assertNotNull("The missing blob was not remembered", entry);
+        assertFalse("The missing blob exists", entry.exists());
+        assertNull("The missing blob has properties", entry.getProperties());
+    }
+
+    @Test
+    public void entriesShouldExpire() throws Exception {
+        AzureBlobPropertyCache cache = new AzureBlobPropertyCache();
+
+        cache.put(ACCOUNT, "bucket/object", createProperties(100L), 20L, 10);
+        Thread.sleep(50L);
+        assertNull("The entry did not expire", cache.get(ACCOUNT, "bucket/object"));
+        cache.put(ACCOUNT, "bucket/object", createProperties(100L), 0L, 10);
+        assertNull("The disabled cache remembered the entry", cache.get(ACCOUNT, "bucket/object"));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesShouldBeEvicted() throws Exception {
+        AzureBlobPropertyCache cache = new AzureBlobPropertyCache();
+
+        cache.put(ACCOUNT, "bucket/a", createProperties(1L), 60000L, 2);
+        cache.put(ACCOUNT, "bucket/b", createProperties(2L), 60000L, 2);
+        cache.get(ACCOUNT, "bucket/a");
+        cache.put(ACCOUNT, "bucket/c", createProperties(3L), 60000L, 2);
+        assertNotNull("The recently used entry was evicted", cache.get(ACCOUNT, "bucket/a"));
+        assertNull("The least recently used entry was kept", cache.get(ACCOUNT, "bucket/b"));
+        assertNotNull("The newest entry was evicted", cache.get(ACCOUNT, "bucket/c"));
+    }
+
+    @Test
+    public void invalidatingContainerShouldDropItsBlobs() throws Exception {
+        AzureBlobPropertyCache cache = new AzureBlobPropertyCache();
+
+        cache.put(ACCOUNT, "bucket", createProperties(0L), 60000L, 10);
+        cache.put(ACCOUNT, "bucket/object", createProperties(100L), 60000L, 10);
+        cache.put(ACCOUNT, "bucket2/object", createProperties(100L), 60000L, 10);
+        cache.invalidate(ACCOUNT, "bucket/object");
+        assertNull("The blob was not invalidated", cache.get(ACCOUNT, "bucket/object"));
+        assertNotNull("Invalidating a blob dropped its container", cache.get(ACCOUNT, "bucket"));
+        cache.put(ACCOUNT, "bucket/object", createProperties(100L), 60000L, 10);
+        cache.invalidate(ACCOUNT, "bucket");
+        assertNull("The container was not invalidated", cache.get(ACCOUNT, "bucket"));
+        assertNull("The blob of the container was not invalidated", cache.get(ACCOUNT, "bucket/object"));
+        assertNotNull("A blob of another container was invalidated", cache.get(ACCOUNT, "bucket2/object"));
+    }
+}
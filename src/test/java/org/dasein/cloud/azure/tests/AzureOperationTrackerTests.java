@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.tests;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.azure.AzureOperationTracker;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import javax.servlet.http.HttpServletResponse;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AzureOperationTrackerTests {
+    /**
+     * Stands in for the operations resource: each request ID answers with its scripted statuses in turn and
+     * repeats the last one once the script runs out.
+     */
+    static private class FakeOperations implements AzureOperationTracker.StatusSource {
+        private Map<String,LinkedList<AzureOperationTracker.Status>> scripts = new HashMap<String, LinkedList<AzureOperationTracker.Status>>();
+        private AtomicInteger polls = new AtomicInteger();
+
+        synchronized FakeOperations script(@Nonnull String requestId, @Nonnull AzureOperationTracker.Status ... statuses) {
+            LinkedList<AzureOperationTracker.Status> list = new LinkedList<AzureOperationTracker.Status>();
+
+            for( AzureOperationTracker.Status s : statuses ) {
+                list.add(s);
+            }
+            scripts.put(requestId, list);
+            return this;
+        }
+
+        public synchronized @Nonnull AzureOperationTracker.Status getStatus(@Nonnull String requestId) throws CloudException, InternalException {
+            LinkedList<AzureOperationTracker.Status> list = scripts.get(requestId);
+
+            polls.incrementAndGet();
+            if( list == null ) {
+                return new AzureOperationTracker.Status(-2, -1L);
+            }
+            AzureOperationTracker.Status s = (list.size() > 1 ? list.removeFirst() : list.getFirst());
+
+            if( s.httpCode == HttpServletResponse.SC_INTERNAL_SERVER_ERROR ) {
+                throw new CloudException("500: InternalError. reason: The operation failed");
+            }
+            return s;
+        }
+    }
+
+    static private AzureOperationTracker.Status inProgress() {
+        return new AzureOperationTracker.Status(-1, -1L);
+    }
+
+    static private AzureOperationTracker.Status succeeded() {
+        return new AzureOperationTracker.Status(HttpServletResponse.SC_OK, -1L);
+    }
+
+    @Test
+    public void waitForShouldReturnOnceOperationSucceeds() throws CloudException, InternalException {
+        FakeOperations operations = new FakeOperations().script("op-1", inProgress(), inProgress(), inProgress(), succeeded());
+        AzureOperationTracker tracker = new AzureOperationTracker(operations, 1L, 10L, 10000L);
+
+        assertEquals("Invalid status code", HttpServletResponse.SC_OK, tracker.waitFor("op-1"));
+        assertEquals("Invalid number of polls", 4, operations.polls.get());
+    }
+
+    @Test
+    public void waitForShouldReturnNotFoundForUnknownOperation() throws CloudException, InternalException {
+        AzureOperationTracker tracker = new AzureOperationTracker(new FakeOperations(), 1L, 10L, 10000L);
+
+        assertEquals("Invalid status code", -2, tracker.waitFor("missing"));
+    }
+
+    @Test
+    public void waitForShouldThrowWhenOperationFails() throws InternalException {
+        FakeOperations operations = new FakeOperations().script("op-1", inProgress(), new AzureOperationTracker.Status(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, -1L));
+        AzureOperationTracker tracker = new AzureOperationTracker(operations, 1L, 10L, 10000L);
+
+        try {
+            tracker.waitFor("op-1");
+            fail("A failed operation should throw");
+        }
+        catch( CloudException e ) {
+            assertTrue("Invalid error message", e.getMessage().contains("InternalError"));
+        }
+    }
+
+    @Test
+    public void waitForShouldTimeOutOnStuckOperation() throws InternalException {
+        FakeOperations operations = new FakeOperations().script("op-1", inProgress());
+        AzureOperationTracker tracker = new AzureOperationTracker(operations, 1L, 10L, 100L);
+
+        try {
+            tracker.waitFor("op-1");
+            fail("A stuck operation should time out");
+        }
+        catch( CloudException e ) {
+            assertTrue("Invalid error message", e.getMessage().contains("Timed out"));
+        }
+    }
+
+    @Test
+    public void trackerShouldHonorRetryAfterHint() throws CloudException, InternalException {
+        FakeOperations operations = new FakeOperations().script("op-1", new AzureOperationTracker.Status(-1, 300L), succeeded());
+        AzureOperationTracker tracker = new AzureOperationTracker(operations, 1L, 10L, 10000L);
+        long start = System.currentTimeMillis();
+
+        tracker.waitFor("op-1");
+        assertTrue("The retry hint was not honored", System.currentTimeMillis() - start >= 300L);
+        assertEquals("Invalid number of polls", 2, operations.polls.get());
+    }
+
+    @Test
+    public void blockedPollsShouldNotStallOtherOperations() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(4);
+        final CountDownLatch release = new CountDownLatch(1);
+        final FakeOperations operations = new FakeOperations().script("fast", inProgress(), succeeded());
+        AzureOperationTracker tracker = new AzureOperationTracker(new AzureOperationTracker.StatusSource() {
+            public @Nonnull AzureOperationTracker.Status getStatus(@Nonnull String requestId) throws CloudException, InternalException {
+                if( requestId.startsWith("slow") ) {
+                    blocked.countDown();
+                    try {
+                        release.await();
+                    }
+                    catch( InterruptedException e ) {
+                        throw new InternalException(e);
+                    }
+                    return succeeded();
+                }
+                return operations.getStatus(requestId);
+            }
+        }, 1L, 10L, 10000L);
+
+        try {
+            for( int i=0; i<4; i++ ) {
+                tracker.track("slow-" + i);
+            }
+            assertTrue("The slow polls did not start", blocked.await(10, TimeUnit.SECONDS));
+            assertEquals("Invalid status code", HttpServletResponse.SC_OK, tracker.track("fast").get(10, TimeUnit.SECONDS).intValue());
+        }
+        finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void trackerShouldFollowManyOperationsAndNotifyCallbacks() throws InterruptedException {
+        FakeOperations operations = new FakeOperations();
+        AzureOperationTracker tracker = new AzureOperationTracker(operations, 1L, 10L, 10000L);
+        final CountDownLatch completed = new CountDownLatch(20);
+        final AtomicInteger failures = new AtomicInteger();
+
+        for( int i=0; i<20; i++ ) {
+            operations.script("op-" + i, inProgress(), inProgress(), succeeded());
+        }
+        for( int i=0; i<20; i++ ) {
+            tracker.track("op-" + i, new AzureOperationTracker.Callback() {
+                public void completed(@Nonnull String requestId, int httpCode) {
+                    if( httpCode != HttpServletResponse.SC_OK ) {
+                        failures.incrementAndGet();
+                    }
+                    completed.countDown();
+                }
+
+                public void failed(@Nonnull String requestId, @Nonnull Exception cause) {
+                    failures.incrementAndGet();
+                    completed.countDown();
+                }
+            });
+        }
+        assertTrue("Not every operation completed", completed.await(10, TimeUnit.SECONDS));
+        assertEquals("Invalid number of failures", 0, failures.get());
+        assertEquals("Invalid number of polls", 60, operations.polls.get());
+    }
+}
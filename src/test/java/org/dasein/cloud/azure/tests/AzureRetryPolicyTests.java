@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.tests;
+
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.dasein.cloud.CloudErrorType;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.azure.AzureException;
+import org.dasein.cloud.azure.AzureRetryPolicy;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AzureRetryPolicyTests {
+    @Test
+    public void throttlingShouldBeRetryableForAnyRequest() {
+        assertTrue("ServerBusy should be retried", AzureRetryPolicy.isRetryable(new AzureException(CloudErrorType.GENERAL, 503, "ServerBusy", "The server is busy."), false));
+        assertTrue("429 should be retried", AzureRetryPolicy.isRetryable(new AzureException(CloudErrorType.GENERAL, 429, "TooManyRequests", "Too many requests."), false));
+    }
+
+    @Test
+    public void serverErrorsShouldOnlyBeRetryableForIdempotentRequests() {
+        AzureException error = new AzureException(CloudErrorType.GENERAL, 500, "InternalError", "The server encountered an internal error.");
+
+        assertTrue("500 should be retried for an idempotent request", AzureRetryPolicy.isRetryable(error, true));
+        assertFalse("500 should not be retried for a POST", AzureRetryPolicy.isRetryable(error, false));
+    }
+
+    @Test
+    public void ioErrorsShouldOnlyBeRetryableForIdempotentRequests() {
+        CloudException error = new CloudException(new IOException("Connection reset"));
+
+        assertTrue("I/O errors should be retried for an idempotent request", AzureRetryPolicy.isRetryable(error, true));
+        assertFalse("I/O errors should not be retried for a POST", AzureRetryPolicy.isRetryable(error, false));
+    }
+
+    @Test
+    public void poolTimeoutsShouldNotBeRetryable() {
+        CloudException error = new CloudException(new ConnectionPoolTimeoutException("Timeout waiting for connection from pool"));
+
+        assertFalse("Pool timeouts should not be retried", AzureRetryPolicy.isRetryable(error, true));
+    }
+
+    @Test
+    public void onlyTransientConflictsShouldBeRetryable() {
+        assertTrue("Conflicts with an operation in progress should be retried", AzureRetryPolicy.isRetryable(new AzureException(CloudErrorType.GENERAL, 409, "ConflictError", "Windows Azure is currently performing an operation with x-ms-requestid 1234 on this deployment that requires exclusive access."), true));
+        assertTrue("Containers being deleted should be retried", AzureRetryPolicy.isRetryable(new AzureException(CloudErrorType.GENERAL, 409, "ContainerBeingDeleted", "The specified container is being deleted."), true));
+        assertFalse("Name conflicts should not be retried", AzureRetryPolicy.isRetryable(new AzureException(CloudErrorType.GENERAL, 409, "ConflictError", "The specified DNS name is already taken."), true));
+    }
+
+    @Test
+    public void clientErrorsShouldNotBeRetryable() {
+        assertFalse("400 should not be retried", AzureRetryPolicy.isRetryable(new AzureException(CloudErrorType.GENERAL, 400, "BadRequest", "The request is invalid."), true));
+        assertFalse("403 should not be retried", AzureRetryPolicy.isRetryable(new AzureException(CloudErrorType.GENERAL, 403, "ForbiddenError", "The server failed to authenticate the request."), true));
+        assertFalse("Held leases should not be retried", AzureRetryPolicy.isRetryable(new AzureException(CloudErrorType.GENERAL, 412, "LeaseIdMissing", "There is currently a lease on the blob and no lease ID was specified in the request."), true));
+    }
+}
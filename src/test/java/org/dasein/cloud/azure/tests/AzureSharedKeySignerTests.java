@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.tests;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.client.methods.HttpPut;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.azure.AzureSharedKeySigner;
+import org.junit.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class AzureSharedKeySignerTests {
+    static private final byte[] KEY   = Base64.decodeBase64("ZGFzZWluLWNsb3VkLWF6dXJlLXNoYXJlZC1rZXktc2lnbmVyLXRlc3Qta2V5".getBytes());
+    static private final byte[] OTHER = Base64.decodeBase64("b3RoZXItc3RvcmFnZS1hY2NvdW50LWtleQ==".getBytes());
+
+    private HttpPut createBlockRequest() {
+        HttpPut method = new HttpPut("https://portalvhdsm4qd6c2dvcftf.blob.core.windows.net/vhds/disk.vhd?comp=block&blockid=AAAA");
+
+        method.addHeader("x-ms-version", "2009-09-19");
+        method.addHeader("x-ms-date", "Mon, 01 Jun 2015 10:00:00 GMT");
+        method.addHeader("Date", "Mon, 01 Jun 2015 10:00:00 GMT");
+        method.addHeader("x-ms-meta-name", " first ");
+        method.addHeader("x-ms-meta-name", "second\nline");
+        method.addHeader("content-type", "application/octet-stream");
+        return method;
+    }
+
+    private Map<String,String> createQueryParams() {
+        Map<String,String> queryParams = new HashMap<String, String>();
+
+        queryParams.put("comp", "block");
+        queryParams.put("blockid", "AAAA");
+        return queryParams;
+    }
+
+    private String hmac(byte[] key, String stringToSign) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+
+        mac.init(new SecretKeySpec(key, "HmacSHA256"));
+        return new String(Base64.encodeBase64(mac.doFinal(stringToSign.getBytes("UTF-8"))));
+    }
+
+    @Test
+    public void stringToSignShouldSortAndFoldMsHeaders() {
+        HttpPut method = createBlockRequest();
+        String result = AzureSharedKeySigner.getStringToSign(method, method.getURI().getPath(), "portalvhdsm4qd6c2dvcftf", createQueryParams());
+
+        String expected = "PUT\n" +
+                "\n" +
+                "application/octet-stream\n" +
+                "Mon, 01 Jun 2015 10:00:00 GMT\n" +
+                "x-ms-date:Mon, 01 Jun 2015 10:00:00 GMT\n" +
+                "x-ms-meta-name:first,second line\n" +
+                "x-ms-version:2009-09-19\n" +
+                "/portalvhdsm4qd6c2dvcftf/vhds/disk.vhd?comp=block";
+
+        assertEquals("Invalid string to sign", expected, result);
+    }
+
+    @Test
+    public void stringToSignShouldOmitQueryWithoutComp() {
+        HttpPut method = new HttpPut("https://portalvhdsm4qd6c2dvcftf.blob.core.windows.net/vhds");
+
+        method.addHeader("Date", "Mon, 01 Jun 2015 10:00:00 GMT");
+        String result = AzureSharedKeySigner.getStringToSign(method, method.getURI().getPath(), "portalvhdsm4qd6c2dvcftf", new HashMap<String, String>());
+
+        assertEquals("Invalid string to sign", "PUT\n\n\nMon, 01 Jun 2015 10:00:00 GMT\n/portalvhdsm4qd6c2dvcftf/vhds", result);
+    }
+
+    @Test
+    public void stringToSignShouldIncludeContentMD5() {
+        HttpPut method = new HttpPut("https://portalvhdsm4qd6c2dvcftf.blob.core.windows.net/vhds");
+
+        method.addHeader("Content-MD5", "1B2M2Y8AsgTpgAmY7PhCfg==");
+        method.addHeader("Date", "Mon, 01 Jun 2015 10:00:00 GMT");
+        String result = AzureSharedKeySigner.getStringToSign(method, method.getURI().getPath(), "portalvhdsm4qd6c2dvcftf", new HashMap<String, String>());
+
+        assertEquals("Invalid string to sign", "PUT\n1B2M2Y8AsgTpgAmY7PhCfg==\n\nMon, 01 Jun 2015 10:00:00 GMT\n/portalvhdsm4qd6c2dvcftf/vhds", result);
+    }
+
+    @Test
+    public void signatureShouldMatchHmacSha256() throws Exception {
+        String stringToSign = "GET\n\n\nMon, 01 Jun 2015 10:00:00 GMT\n/portalvhdsm4qd6c2dvcftf/vhds";
+
+        assertEquals("Invalid signature", hmac(KEY, stringToSign), AzureSharedKeySigner.sign(KEY, stringToSign));
+        assertEquals("Signatures should not depend on earlier requests", hmac(KEY, stringToSign), AzureSharedKeySigner.sign(KEY, stringToSign));
+    }
+
+    @Test
+    public void signerShouldSwitchKeys() throws Exception {
+        String stringToSign = "GET\n\n\nMon, 01 Jun 2015 10:00:00 GMT\n/test/vhds";
+
+        AzureSharedKeySigner.sign(KEY, stringToSign);
+        assertEquals("The signer kept the previous key", hmac(OTHER, stringToSign), AzureSharedKeySigner.sign(OTHER, stringToSign));
+    }
+
+    @Test(expected = InternalException.class)
+    public void emptyKeyShouldBeRejected() throws InternalException {
+        AzureSharedKeySigner.sign(new byte[0], "GET");
+    }
+}
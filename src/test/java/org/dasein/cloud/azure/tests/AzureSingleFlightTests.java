@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.tests;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.azure.AzureSingleFlight;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AzureSingleFlightTests {
+    static private final int CALLERS = 8;
+
+    /**
+     * Stands in for a slow GET: blocks until every caller has asked for the resource.
+     */
+    private class SlowCall implements AzureSingleFlight.Call<List<String>> {
+        private CountDownLatch started;
+        private AtomicInteger  calls = new AtomicInteger();
+        private boolean        fail;
+
+        SlowCall(@Nonnull CountDownLatch started, boolean fail) {
+            this.started = started;
+            this.fail = fail;
+        }
+
+        public List<String> call() throws CloudException, InternalException {
+            calls.incrementAndGet();
+            try {
+                started.await(5, TimeUnit.SECONDS);
+                Thread.sleep(100L);
+            }
+            catch( InterruptedException e ) {
+                throw new InternalException(e);
+            }
+            if( fail ) {
+                throw new CloudException("ServerBusy");
+            }
+            List<String> result = new ArrayList<String>();
+
+            result.add("storage");
+            return result;
+        }
+    }
+
+    private @Nonnull List<Future<List<String>>> callConcurrently(@Nonnull final AzureSingleFlight<List<String>> flight, @Nonnull final SlowCall call, @Nonnull final CountDownLatch started, final AzureSingleFlight.Copier<List<String>> copier) {
+        ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        List<Future<List<String>>> results = new ArrayList<Future<List<String>>>();
+
+        try {
+            for( int i=0; i<CALLERS; i++ ) {
+                results.add(executor.submit(new Callable<List<String>>() {
+                    public List<String> call() throws Exception {
+                        started.countDown();
+                        return flight.execute("12323232323|/services/storageservices|2012-03-01", call, copier);
+                    }
+                }));
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        return results;
+    }
+
+    @Test
+    public void concurrentCallersShouldShareOneCall() throws InterruptedException, ExecutionException {
+        AzureSingleFlight<List<String>> flight = new AzureSingleFlight<List<String>>();
+        CountDownLatch started = new CountDownLatch(CALLERS);
+        SlowCall call = new SlowCall(started, false);
+
+        List<Future<List<String>>> results = callConcurrently(flight, call, started, null);
+
+        for( Future<List<String>> result : results ) {
+            assertEquals("Invalid result", "storage", result.get().get(0));
+        }
+        assertTrue("Calls were not coalesced", call.calls.get() < CALLERS);
+    }
+
+    @Test
+    public void sharedResultsShouldBeCopiedForEachCaller() throws InterruptedException, ExecutionException {
+        AzureSingleFlight<List<String>> flight = new AzureSingleFlight<List<String>>();
+        CountDownLatch started = new CountDownLatch(CALLERS);
+        SlowCall call = new SlowCall(started, false);
+
+        List<Future<List<String>>> results = callConcurrently(flight, call, started, new AzureSingleFlight.Copier<List<String>>() {
+            public @Nonnull List<String> copy(@Nonnull List<String> value) {
+                return new ArrayList<String>(value);
+            }
+        });
+        List<String> first = results.get(0).get();
+
+        for( int i=1; i<results.size(); i++ ) {
+            assertNotSame("Callers should not share a result", first, results.get(i).get());
+        }
+    }
+
+    @Test
+    public void failuresShouldReachEveryCaller() throws InterruptedException {
+        AzureSingleFlight<List<String>> flight = new AzureSingleFlight<List<String>>();
+        CountDownLatch started = new CountDownLatch(CALLERS);
+        SlowCall call = new SlowCall(started, true);
+
+        for( Future<List<String>> result : callConcurrently(flight, call, started, null) ) {
+            try {
+                result.get();
+                fail("The failure was not propagated");
+            }
+            catch( ExecutionException e ) {
+                assertTrue("Invalid exception", e.getCause() instanceof CloudException);
+            }
+        }
+    }
+
+    @Test
+    public void laterCallsShouldNotReuseCompletedResults() throws CloudException, InternalException {
+        AzureSingleFlight<List<String>> flight = new AzureSingleFlight<List<String>>();
+        SlowCall call = new SlowCall(new CountDownLatch(0), false);
+
+        flight.execute("key", call, null);
+        flight.execute("key", call, null);
+        assertEquals("Invalid number of calls", 2, call.calls.get());
+    }
+}
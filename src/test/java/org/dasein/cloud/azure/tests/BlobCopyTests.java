@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.tests;
+
+import org.dasein.cloud.CloudErrorType;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.azure.Azure;
+import org.dasein.cloud.azure.AzureException;
+import org.dasein.cloud.azure.storage.BlobCopy;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BlobCopyTests {
+    private Map<String,String> getProperties(String ... headers) {
+        TreeMap<String,String> properties = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+
+        for( int i=0; i<headers.length; i+=2 ) {
+            properties.put(headers[i], headers[i+1]);
+        }
+        return properties;
+    }
+
+    @Test
+    public void pendingCopiesShouldReportProgress() throws CloudException {
+        BlobCopy copy = new BlobCopy(new Azure(), "vhds/copy.vhd");
+
+        assertEquals("A pending copy should still be in progress", -1, copy.getStatus(getProperties("x-ms-copy-status", "pending", "x-ms-copy-progress", "1048576/4194304")).httpCode);
+        assertEquals("Invalid bytes copied", 1048576L, copy.getBytesCopied());
+        assertEquals("Invalid bytes total", 4194304L, copy.getBytesTotal());
+    }
+
+    @Test
+    public void successfulCopiesShouldComplete() throws CloudException {
+        BlobCopy copy = new BlobCopy(new Azure(), "vhds/copy.vhd");
+
+        assertEquals("Invalid status", HttpServletResponse.SC_OK, copy.getStatus(getProperties("x-ms-copy-status", "success", "x-ms-copy-progress", "4194304/4194304")).httpCode);
+        assertEquals("Invalid bytes copied", 4194304L, copy.getBytesCopied());
+    }
+
+    @Test
+    public void synchronousCopiesShouldComplete() throws CloudException {
+        BlobCopy copy = new BlobCopy(new Azure(), "vhds/copy.vhd");
+
+        assertEquals("A blob without copy status should be complete", HttpServletResponse.SC_OK, copy.getStatus(getProperties("Content-Length", "512")).httpCode);
+        assertEquals("Invalid bytes copied", 512L, copy.getBytesCopied());
+    }
+
+    @Test
+    public void failedCopiesShouldBeReported() {
+        BlobCopy copy = new BlobCopy(new Azure(), "vhds/copy.vhd");
+
+        try {
+            copy.getStatus(getProperties("x-ms-copy-status", "failed", "x-ms-copy-status-description", "500 InternalError"));
+            fail("The failed copy was not reported");
+        }
+        catch( CloudException e ) {
+            assertTrue("The description was lost", e.getMessage().contains("500 InternalError"));
+        }
+    }
+
+    @Test
+    public void transientPollErrorsShouldLeaveTheCopyPending() throws CloudException {
+        BlobCopy copy = new BlobCopy(new Azure(), "vhds/copy.vhd");
+
+        assertEquals("A throttled poll should leave the copy pending", -1, copy.getStatus(new AzureException(CloudErrorType.GENERAL, 503, "ServerBusy", "The server is busy.")).httpCode);
+        assertEquals("A dropped poll should leave the copy pending", -1, copy.getStatus(new CloudException(new IOException("Connection reset"))).httpCode);
+    }
+
+    @Test
+    public void otherPollErrorsShouldBeReported() {
+        try {
+            new BlobCopy(new Azure(), "vhds/copy.vhd").getStatus(new AzureException(CloudErrorType.GENERAL, 403, "AuthenticationFailed", "Server failed to authenticate the request."));
+            fail("The failed poll was not reported");
+        }
+        catch( CloudException expected ) {
+            // expected
+        }
+    }
+
+    @Test
+    public void missingTargetsShouldBeReported() {
+        try {
+            new BlobCopy(new Azure(), "vhds/copy.vhd").getStatus((Map<String,String>)null);
+            fail("The missing target was not reported");
+        }
+        catch( CloudException expected ) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.tests;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.azure.storage.BlobListing;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class BlobListingTests {
+    /**
+     * Serves the pages of a listing from memory by marker, failing the page for one marker if asked to.
+     */
+    private class FakePages implements BlobListing.Source {
+        private Map<String,String>       pages    = new HashMap<String, String>();
+        private List<Map<String,String>> requests = Collections.synchronizedList(new ArrayList<Map<String, String>>());
+        private String                   failing;
+
+        /**
+         * @param marker the encoded marker that asks for the page or an empty string for the first page
+         * @param entries the entries of the page
+         * @param nextMarker the marker of the next page or <code>null</code> for the last page
+         */
+        void add(@Nonnull String marker, @Nonnull String entries, @Nullable String nextMarker) {
+            pages.put(marker, "<EnumerationResults><Blobs>" + entries + "</Blobs><NextMarker>" + (nextMarker == null ? "" : nextMarker) + "</NextMarker></EnumerationResults>");
+        }
+
+        public @Nullable Document getPage(@Nonnull Map<String,String> queries) throws CloudException, InternalException {
+            String marker = queries.get("marker");
+
+            requests.add(new TreeMap<String, String>(queries));
+            if( marker != null && marker.equals(failing) ) {
+                throw new CloudException("ServerBusy");
+            }
+            String page = pages.get(marker == null ? "" : marker);
+
+            if( page == null ) {
+                throw new InternalException("No page for the marker " + marker);
+            }
+            try {
+                return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(page.getBytes("utf-8")));
+            }
+            catch( Exception e ) {
+                throw new InternalException(e);
+            }
+        }
+    }
+
+    /**
+     * Records the names of the entries and directories a listing pushes.
+     */
+    private class Names implements BlobListing.Target {
+        private List<String> entries     = new ArrayList<String>();
+        private List<String> directories = new ArrayList<String>();
+
+        public void push(@Nonnull Node entry) {
+            for( Node child = entry.getFirstChild(); child != null; child = child.getNextSibling() ) {
+                if( child.getNodeName().equals("Name") ) {
+                    entries.add(child.getTextContent());
+                }
+            }
+        }
+
+        public void pushDirectory(@Nonnull String name) {
+            directories.add(name);
+        }
+    }
+
+    private String blobs(String ... names) {
+        StringBuilder str = new StringBuilder();
+
+        for( String name : names ) {
+            str.append("<Blob><Name>").append(name).append("</Name><Properties><Content-Length>1</Content-Length></Properties></Blob>");
+        }
+        return str.toString();
+    }
+
+    @Test
+    public void pagesShouldBeFollowedInOrder() throws Exception {
+        FakePages pages = new FakePages();
+        Names names = new Names();
+
+        pages.add("", blobs("a", "b"), "c");
+        pages.add("c", blobs("c", "d"), "e");
+        pages.add("e", blobs("e"), null);
+        new BlobListing("builds", pages, 2).load(names);
+        assertEquals("Invalid entries", Arrays.asList("a", "b", "c", "d", "e"), names.entries);
+        assertEquals("Invalid number of requests", 3, pages.requests.size());
+    }
+
+    @Test
+    public void anEmptyLastPageShouldEndTheListing() throws Exception {
+        FakePages pages = new FakePages();
+        Names names = new Names();
+
+        pages.add("", blobs("a", "b"), "c");
+        pages.add("c", "", null);
+        new BlobListing("builds", pages, 2).load(names);
+        assertEquals("Invalid entries", Arrays.asList("a", "b"), names.entries);
+        assertEquals("Invalid number of requests", 2, pages.requests.size());
+    }
+
+    @Test
+    public void aFailedPrefetchedPageShouldFailTheListing() throws Exception {
+        FakePages pages = new FakePages();
+        Names names = new Names();
+
+        pages.add("", blobs("a", "b"), "c");
+        pages.add("c", blobs("c"), null);
+        pages.failing = "c";
+        try {
+            new BlobListing("builds", pages, 2).load(names);
+            fail("The failed page was not reported");
+        }
+        catch( CloudException expected ) {
+            // expected
+        }
+        assertEquals("The pages before the failed one should be pushed", Arrays.asList("a", "b"), names.entries);
+    }
+
+    @Test
+    public void blobPrefixesShouldBeRolledUpIntoDirectories() throws Exception {
+        FakePages pages = new FakePages();
+        Names names = new Names();
+        BlobListing listing = new BlobListing("builds", pages, 10);
+
+        pages.add("", blobs("logs/today.log") + "<BlobPrefix><Name>logs/2015/</Name></BlobPrefix><BlobPrefix><Name>logs/2016/</Name></BlobPrefix>", null);
+        listing.setPrefix("logs/");
+        listing.setDelimiter("/");
+        listing.load(names);
+        assertEquals("Invalid entries", Collections.singletonList("logs/today.log"), names.entries);
+        assertEquals("Invalid directories", Arrays.asList("logs/2015/", "logs/2016/"), names.directories);
+    }
+
+    @Test
+    public void prefixAndMarkerShouldBeEncoded() throws Exception {
+        FakePages pages = new FakePages();
+        BlobListing listing = new BlobListing("builds", pages, 10);
+
+        pages.add("", blobs("a"), "2!8!a b");
+        pages.add("2%218%21a+b", blobs("a b"), null);
+        listing.setPrefix("logs/2015 06");
+        listing.setDelimiter("/");
+        listing.load(new Names());
+
+        Map<String,String> first = pages.requests.get(0);
+        Map<String,String> second = pages.requests.get(1);
+
+        assertEquals("Invalid prefix", "logs%2F2015+06", first.get("prefix"));
+        assertEquals("Invalid delimiter", "%2F", first.get("delimiter"));
+        assertNull("The first page has no marker", first.get("marker"));
+        assertEquals("Invalid marker", "2%218%21a+b", second.get("marker"));
+        assertEquals("The prefix should carry over to later pages", "logs%2F2015+06", second.get("prefix"));
+    }
+
+    @Test
+    public void containerListingsShouldNotAskForBlobs() throws Exception {
+        FakePages pages = new FakePages();
+        Names names = new Names();
+
+        pages.pages.put("", "<EnumerationResults><Containers><Container><Name>builds</Name></Container></Containers><NextMarker/></EnumerationResults>");
+        new BlobListing(null, pages, 50000).load(names);
+        assertEquals("Invalid entries", Collections.singletonList("builds"), names.entries);
+        assertFalse("An account listing is not a container request", pages.requests.get(0).containsKey("restype"));
+        assertEquals("The page size should be capped", String.valueOf(BlobListing.MAX_PAGE_SIZE), pages.requests.get(0).get("maxresults"));
+    }
+}
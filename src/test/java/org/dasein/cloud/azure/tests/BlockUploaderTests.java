@@ -0,0 +1,197 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.tests;
+
+import org.apache.commons.codec.binary.Base64;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.azure.storage.BlockUploader;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BlockUploaderTests {
+    /**
+     * Keeps blocks in memory, failing one block if asked to.
+     */
+    private class FakeBlobStore implements BlockUploader.Target {
+        private ConcurrentHashMap<String,byte[]> blocks = new ConcurrentHashMap<String, byte[]>();
+        private ConcurrentCalls calls = new ConcurrentCalls();
+        private List<String>    committed;
+        private String          committedMD5;
+        private AtomicInteger   puts  = new AtomicInteger();
+
+        public void putBlock(@Nonnull String blockId, @Nonnull ByteBuffer content) throws CloudException, InternalException {
+            byte[] block = new byte[content.remaining()];
+
+            puts.incrementAndGet();
+            calls.call(blockId);
+            content.duplicate().get(block);
+            blocks.put(blockId, block);
+        }
+
+        public void commit(@Nonnull List<String> blockIds, @Nonnull String contentMD5) throws CloudException, InternalException {
+            committed = new ArrayList<String>(blockIds);
+            committedMD5 = contentMD5;
+        }
+
+        byte[] getBlob() throws IOException {
+            ByteArrayOutputStream blob = new ByteArrayOutputStream();
+
+            for( String blockId : committed ) {
+                blob.write(blocks.get(blockId));
+            }
+            return blob.toByteArray();
+        }
+    }
+
+    @Test
+    public void blocksShouldBeCommittedInReadOrder() throws Exception {
+        FakeBlobStore store = new FakeBlobStore();
+        byte[] content = TestHelpers.createContent(10 * 1024 + 17);
+
+        long uploaded = new BlockUploader(store, 4, 1024).upload(new ByteArrayInputStream(content));
+
+        assertEquals("Invalid number of bytes uploaded", content.length, uploaded);
+        assertEquals("Invalid number of blocks", 11, store.committed.size());
+        assertArrayEquals("The committed blob does not match the content", content, store.getBlob());
+        assertEquals("Invalid content MD5", Base64.encodeBase64String(MessageDigest.getInstance("MD5").digest(content)), store.committedMD5);
+    }
+
+    @Test
+    public void blocksShouldBeUploadedConcurrently() throws Exception {
+        FakeBlobStore store = new FakeBlobStore();
+
+        new BlockUploader(store, 4, 1024).upload(new ByteArrayInputStream(TestHelpers.createContent(32 * 1024)));
+        assertTrue("Blocks were uploaded one at a time", store.calls.getMaxInFlight() > 1);
+        assertTrue("Too many blocks were in flight", store.calls.getMaxInFlight() <= 4);
+    }
+
+    @Test
+    public void shortReadsShouldStillFillBlocks() throws Exception {
+        FakeBlobStore store = new FakeBlobStore();
+        byte[] content = TestHelpers.createContent(4096);
+        InputStream trickle = new FilterInputStream(new ByteArrayInputStream(content)) {
+            @Override
+            public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 100));
+            }
+        };
+
+        new BlockUploader(store, 2, 1024).upload(trickle);
+        assertEquals("Short reads should not produce short blocks", 4, store.committed.size());
+        assertArrayEquals("The committed blob does not match the content", content, store.getBlob());
+    }
+
+    @Test
+    public void emptyContentShouldCommitAnEmptyBlockList() throws Exception {
+        FakeBlobStore store = new FakeBlobStore();
+
+        new BlockUploader(store, 2, 1024).upload(new ByteArrayInputStream(new byte[0]));
+        assertEquals("No blocks should be committed", 0, store.committed.size());
+    }
+
+    @Test
+    public void failedBlocksShouldPreventTheCommit() throws Exception {
+        FakeBlobStore store = new FakeBlobStore();
+
+        store.calls.setFailing(BlockUploader.getBlockId(3));
+        try {
+            new BlockUploader(store, 4, 1024).upload(new ByteArrayInputStream(TestHelpers.createContent(64 * 1024)));
+            fail("The failed block was not reported");
+        }
+        catch( CloudException expected ) {
+            // expected
+        }
+        assertNull("A failed upload should not be committed", store.committed);
+    }
+
+    @Test
+    public void blockIdsShouldHaveFixedWidth() {
+        assertEquals("Invalid block ID", "MDAwMDAwMDA=", BlockUploader.getBlockId(0));
+        assertEquals("Block IDs should not grow with the index", BlockUploader.getBlockId(0).length(), BlockUploader.getBlockId(49999).length());
+    }
+
+    @Test
+    public void resumedUploadsShouldSkipStoredBlocks() throws Exception {
+        FakeBlobStore store = new FakeBlobStore();
+        byte[] content = TestHelpers.createContent(4 * 1024);
+        Map<String,Long> stored = new HashMap<String, Long>();
+
+        store.blocks.put(BlockUploader.getBlockId(0), Arrays.copyOfRange(content, 0, 1024));
+        store.blocks.put(BlockUploader.getBlockId(1), Arrays.copyOfRange(content, 1024, 2048));
+        stored.put(BlockUploader.getBlockId(0), 1024L);
+        stored.put(BlockUploader.getBlockId(1), 1024L);
+        stored.put(BlockUploader.getBlockId(2), 17L); // a different size means different content
+
+        BlockUploader uploader = new BlockUploader(store, 2, 1024);
+
+        uploader.setStoredBlocks(stored);
+        uploader.upload(new ByteArrayInputStream(content));
+        assertEquals("Stored blocks were sent again", 2, store.puts.get());
+        assertArrayEquals("The committed blob does not match the content", content, store.getBlob());
+    }
+
+    @Test
+    public void filesShouldBeReadThroughTheChannel() throws Exception {
+        FakeBlobStore store = new FakeBlobStore();
+        byte[] content = TestHelpers.createContent(10 * 1024 + 17);
+        File file = TestHelpers.createTempFile(".blob", content);
+
+        try {
+            FileInputStream input = new FileInputStream(file);
+
+            try {
+                long uploaded = new BlockUploader(store, 4, 1024).upload(input.getChannel(), 1024L);
+
+                assertEquals("Invalid number of bytes uploaded", content.length - 1024, uploaded);
+                assertEquals("Invalid number of blocks", 10, store.committed.size());
+                assertArrayEquals("The committed blob does not match the file", Arrays.copyOfRange(content, 1024, content.length), store.getBlob());
+            }
+            finally {
+                input.close();
+            }
+        }
+        finally {
+            TestHelpers.delete(file);
+        }
+    }
+}
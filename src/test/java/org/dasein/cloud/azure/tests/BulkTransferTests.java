@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.tests;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.azure.storage.BulkTransfer;
+import org.dasein.cloud.azure.storage.ContentMD5;
+import org.dasein.cloud.storage.FileTransfer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BulkTransferTests {
+    /**
+     * Records the files it is asked to move, failing one file if asked to, and notes whether a large blob was ever
+     * downloaded alongside another one.
+     */
+    private class FakeStore implements BulkTransfer.Store {
+        private Map<String,File> puts       = new ConcurrentHashMap<String, File>();
+        private Map<String,File> gets       = new ConcurrentHashMap<String, File>();
+        private Map<String,Long> gotLengths = new ConcurrentHashMap<String, Long>();
+        private List<String>     order      = Collections.synchronizedList(new ArrayList<String>());
+        private ConcurrentCalls  calls      = new ConcurrentCalls();
+        private AtomicInteger    active     = new AtomicInteger();
+        private AtomicBoolean    overlapped = new AtomicBoolean();
+
+        public void put(@Nonnull String object, @Nonnull File file) throws CloudException, InternalException {
+            calls.call(object);
+            puts.put(object, file);
+        }
+
+        public void get(@Nonnull String object, @Nonnull File file, @Nonnull BulkTransfer.Fingerprint fingerprint) throws CloudException, InternalException {
+            int current = active.incrementAndGet();
+
+            try {
+                if( current > 1 && fingerprint.getLength() > BulkTransfer.LARGE_FILE_SIZE ) {
+                    overlapped.set(true);
+                }
+                order.add(object);
+                calls.call(object);
+                gets.put(object, file);
+                gotLengths.put(object, fingerprint.getLength());
+            }
+            finally {
+                active.decrementAndGet();
+            }
+        }
+    }
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TestHelpers.createTempDirectory(".bulk");
+    }
+
+    @After
+    public void tearDown() {
+        TestHelpers.delete(directory);
+    }
+
+    private Map<String,File> createFiles(int count, int size) throws IOException {
+        TreeMap<String,File> files = new TreeMap<String, File>();
+        byte[] content = TestHelpers.createContent(count * size);
+
+        for( int i=0; i<count; i++ ) {
+            File file = new File(directory, "artifact-" + i + ".jar");
+
+            TestHelpers.writeFile(file, Arrays.copyOfRange(content, i * size, (i + 1) * size));
+            files.put("builds/" + file.getName(), file);
+        }
+        return files;
+    }
+
+    @Test
+    public void filesShouldBeUploadedConcurrently() throws Exception {
+        Map<String,File> files = createFiles(16, 100);
+        FakeStore store = new FakeStore();
+        FileTransfer transfer = new FileTransfer();
+
+        BulkTransfer.Result result = new BulkTransfer(store, 4).upload(files, new TreeMap<String, BulkTransfer.Fingerprint>(), transfer);
+
+        assertTrue("The upload failed", result.isSuccessful());
+        assertEquals("Invalid number of files uploaded", 16, store.puts.size());
+        assertEquals("Invalid number of bytes uploaded", 1600L, result.getBytesTransferred());
+        assertEquals("Invalid progress", 1600L, transfer.getBytesTransferred());
+        assertTrue("Files were uploaded one at a time", store.calls.getMaxInFlight() > 1);
+        assertTrue("Too many files were in flight", store.calls.getMaxInFlight() <= 4);
+    }
+
+    @Test
+    public void matchingFilesShouldBeSkipped() throws Exception {
+        Map<String,File> files = createFiles(3, 100);
+        TreeMap<String,BulkTransfer.Fingerprint> stored = new TreeMap<String, BulkTransfer.Fingerprint>();
+        FakeStore store = new FakeStore();
+
+        stored.put("builds/artifact-0.jar", new BulkTransfer.Fingerprint(100L, ContentMD5.of(files.get("builds/artifact-0.jar"))));
+        stored.put("builds/artifact-1.jar", new BulkTransfer.Fingerprint(100L, ContentMD5.of(files.get("builds/artifact-0.jar"))));
+        stored.put("builds/artifact-2.jar", new BulkTransfer.Fingerprint(100L, null));
+
+        BulkTransfer.Result result = new BulkTransfer(store, 4).upload(files, stored, null);
+
+        assertEquals("Invalid files skipped", 1, result.getSkipped().size());
+        assertTrue("The matching file was uploaded", result.getSkipped().contains("builds/artifact-0.jar"));
+        assertFalse("The matching file was uploaded", store.puts.containsKey("builds/artifact-0.jar"));
+        assertTrue("A file with different content was skipped", store.puts.containsKey("builds/artifact-1.jar"));
+        assertTrue("A file without a stored digest was skipped", store.puts.containsKey("builds/artifact-2.jar"));
+    }
+
+    @Test
+    public void failuresShouldNotStopOtherFiles() throws Exception {
+        Map<String,File> files = createFiles(8, 100);
+        FakeStore store = new FakeStore();
+
+        store.calls.setFailing("builds/artifact-3.jar");
+
+        BulkTransfer.Result result = new BulkTransfer(store, 4).upload(files, new TreeMap<String, BulkTransfer.Fingerprint>(), null);
+
+        assertFalse("The failure was not reported", result.isSuccessful());
+        assertEquals("Invalid failures", 1, result.getFailures().size());
+        assertTrue("The failed file was not named", result.getFailures().containsKey("builds/artifact-3.jar"));
+        assertEquals("The other files were not uploaded", 7, result.getTransferred().size());
+    }
+
+    @Test
+    public void downloadsShouldSkipCurrentFiles() throws Exception {
+        Map<String,File> files = createFiles(2, 100);
+        TreeMap<String,BulkTransfer.Fingerprint> stored = new TreeMap<String, BulkTransfer.Fingerprint>();
+        FakeStore store = new FakeStore();
+
+        files.put("builds/missing.jar", new File(directory, "missing.jar"));
+        stored.put("builds/artifact-0.jar", new BulkTransfer.Fingerprint(100L, ContentMD5.of(files.get("builds/artifact-0.jar"))));
+        stored.put("builds/artifact-1.jar", new BulkTransfer.Fingerprint(200L, ContentMD5.of(files.get("builds/artifact-1.jar"))));
+        stored.put("builds/missing.jar", new BulkTransfer.Fingerprint(50L, "1B2M2Y8AsgTpgAmY7PhCfg=="));
+
+        BulkTransfer.Result result = new BulkTransfer(store, 4).download(files, stored, null);
+
+        assertEquals("Invalid files downloaded", 2, store.gets.size());
+        assertEquals("The listed length was not passed to the download", Long.valueOf(200L), store.gotLengths.get("builds/artifact-1.jar"));
+        assertTrue("The current file was downloaded", result.getSkipped().contains("builds/artifact-0.jar"));
+        assertEquals("Invalid number of bytes downloaded", 250L, result.getBytesTransferred());
+    }
+
+    @Test
+    public void largeFilesShouldFollowTheSmallOnesOneAtATime() throws Exception {
+        TreeMap<String,File> files = new TreeMap<String, File>();
+        TreeMap<String,BulkTransfer.Fingerprint> stored = new TreeMap<String, BulkTransfer.Fingerprint>();
+        FakeStore store = new FakeStore();
+
+        // the large blobs sort first, so only the split puts them after the small ones
+        for( int i=0; i<2; i++ ) {
+            files.put("builds/image-" + i + ".iso", new File(directory, "image-" + i + ".iso"));
+            stored.put("builds/image-" + i + ".iso", new BulkTransfer.Fingerprint(BulkTransfer.LARGE_FILE_SIZE + 1, null));
+        }
+        for( int i=0; i<8; i++ ) {
+            files.put("builds/library-" + i + ".jar", new File(directory, "library-" + i + ".jar"));
+            stored.put("builds/library-" + i + ".jar", new BulkTransfer.Fingerprint(100L, null));
+        }
+
+        BulkTransfer.Result result = new BulkTransfer(store, 4).download(files, stored, null);
+
+        assertTrue("The download failed", result.isSuccessful());
+        assertEquals("Invalid files downloaded", 10, store.order.size());
+        assertEquals("The large files did not follow the small ones", Arrays.asList("builds/image-0.iso", "builds/image-1.iso"), store.order.subList(8, 10));
+        assertTrue("The small files were downloaded one at a time", store.calls.getMaxInFlight() > 1);
+        assertFalse("A large file was downloaded alongside another file", store.overlapped.get());
+    }
+}
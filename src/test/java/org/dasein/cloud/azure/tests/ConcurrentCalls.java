@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.tests;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records how many calls into a fake transfer target overlap. The first calls hold at a latch until two of them
+ * have arrived, so a transfer that runs calls in parallel is seen to overlap without relying on how long a sleep
+ * lasts. A transfer that runs them one at a time gets its first call past the latch only once the wait times out,
+ * and is then seen never to have had more than one call in flight.
+ * @since 2015.06.2
+ * @version 2015.06.2
+ */
+public class ConcurrentCalls {
+    static private final long TIMEOUT = 2000L;
+
+    private CountDownLatch overlap     = new CountDownLatch(2);
+    private AtomicInteger  inFlight    = new AtomicInteger();
+    private AtomicInteger  maxInFlight = new AtomicInteger();
+    private String         failing;
+
+    /**
+     * Makes the call for one key fail as a busy server would.
+     * @param key the object, block or offset to fail
+     */
+    public void setFailing(@Nullable String key) {
+        this.failing = key;
+    }
+
+    /**
+     * Makes one call, holding until another call is in flight alongside it.
+     * @param key what the call is for
+     * @throws CloudException the call is for the failing key
+     * @throws InternalException the call was interrupted
+     */
+    public void call(@Nonnull String key) throws CloudException, InternalException {
+        int current = inFlight.incrementAndGet();
+
+        try {
+            synchronized( maxInFlight ) {
+                maxInFlight.set(Math.max(maxInFlight.get(), current));
+            }
+            overlap.countDown();
+            // a serial transfer never releases the first call, which goes on alone once the wait times out
+            //noinspection ResultOfMethodCallIgnored
+            overlap.await(TIMEOUT, TimeUnit.MILLISECONDS);
+            if( key.equals(failing) ) {
+                throw new CloudException("ServerBusy");
+            }
+        }
+        catch( InterruptedException e ) {
+            throw new InternalException(e);
+        }
+        finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the most calls that were ever in flight at once
+     */
+    public int getMaxInFlight() {
+        return maxInFlight.get();
+    }
+}
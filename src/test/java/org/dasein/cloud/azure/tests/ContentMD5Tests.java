@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.tests;
+
+import org.dasein.cloud.azure.storage.ContentMD5;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ContentMD5Tests {
+    static private final String EMPTY_MD5 = "1B2M2Y8AsgTpgAmY7PhCfg==";
+
+    private byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1000];
+        int read;
+
+        while( (read = input.read(buffer)) != -1 ) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    @Test
+    public void buffersShouldBeDigestedInPlace() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64);
+
+        buffer.position(16);
+        buffer.limit(16);
+        assertEquals("Invalid digest of an empty buffer", EMPTY_MD5, ContentMD5.of(buffer));
+        assertEquals("The position was moved", 16, buffer.position());
+    }
+
+    @Test
+    public void matchingContentShouldPass() throws Exception {
+        byte[] content = TestHelpers.createContent(10 * 1024 + 17);
+        String expected = ContentMD5.of(ByteBuffer.wrap(content));
+
+        assertArrayEquals("The content was changed", content, readAll(ContentMD5.verify(new ByteArrayInputStream(content), content.length, expected, "test")));
+    }
+
+    @Test
+    public void corruptContentShouldFail() throws Exception {
+        byte[] content = TestHelpers.createContent(10 * 1024 + 17);
+        String expected = ContentMD5.of(ByteBuffer.wrap(content));
+
+        content[5000] ^= 1;
+        try {
+            readAll(ContentMD5.verify(new ByteArrayInputStream(content), content.length, expected, "test"));
+            fail("The corrupt content was not detected");
+        }
+        catch( ContentMD5.MismatchException expectedFailure ) {
+            // expected
+        }
+    }
+
+    @Test
+    public void truncatedContentShouldFail() throws Exception {
+        byte[] content = TestHelpers.createContent(4096);
+        String expected = ContentMD5.of(ByteBuffer.wrap(content));
+
+        try {
+            readAll(ContentMD5.verify(new ByteArrayInputStream(Arrays.copyOf(content, 4000)), content.length, expected, "test"));
+            fail("The truncated content was not detected");
+        }
+        catch( EOFException expectedFailure ) {
+            // expected
+        }
+    }
+}
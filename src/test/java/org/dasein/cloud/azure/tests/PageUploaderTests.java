@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.tests;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.azure.storage.PageUploader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PageUploaderTests {
+    /**
+     * A page blob held in memory that remembers each write it was sent.
+     */
+    private class FakePageBlob implements PageUploader.Target {
+        private byte[]            content;
+        private Map<Long,Integer> writes = new TreeMap<Long, Integer>();
+        private long              failingOffset = -1L;
+
+        FakePageBlob(int size) {
+            content = new byte[size];
+        }
+
+        public void putPages(long offset, @Nonnull ByteBuffer pages) throws CloudException, InternalException {
+            if( offset == failingOffset ) {
+                throw new CloudException("ServerBusy");
+            }
+            int length = pages.remaining();
+
+            assertEquals("Writes must start on a page", 0L, offset % PageUploader.PAGE_SIZE);
+            assertEquals("Writes must be whole pages", 0, length % PageUploader.PAGE_SIZE);
+            pages.get(content, (int)offset, length);
+            synchronized( writes ) {
+                writes.put(offset, length);
+            }
+        }
+    }
+
+    private File             file;
+    private RandomAccessFile input;
+
+    @Before
+    public void setUp() throws IOException {
+        file = TestHelpers.createTempFile(".vhd");
+        input = new RandomAccessFile(file, "rw");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        input.close();
+        TestHelpers.delete(file);
+    }
+
+    private byte[] createContent(int size, int ... dataPages) throws IOException {
+        byte[] content = new byte[size];
+        byte[] data = TestHelpers.createContent(dataPages.length * PageUploader.PAGE_SIZE);
+
+        for( int i=0; i<dataPages.length; i++ ) {
+            System.arraycopy(data, i * PageUploader.PAGE_SIZE, content, dataPages[i] * PageUploader.PAGE_SIZE, PageUploader.PAGE_SIZE);
+        }
+        input.write(content);
+        return content;
+    }
+
+    @Test
+    public void emptyPagesShouldBeSkipped() throws Exception {
+        byte[] content = createContent(64 * PageUploader.PAGE_SIZE, 0, 1, 2, 10, 63);
+        FakePageBlob blob = new FakePageBlob(content.length);
+
+        long written = new PageUploader(blob, 4, 16 * PageUploader.PAGE_SIZE).upload(input.getChannel(), content.length);
+
+        assertEquals("Invalid number of bytes written", 5 * PageUploader.PAGE_SIZE, written);
+        assertEquals("Adjacent pages should be written together", 3, blob.writes.size());
+        assertEquals("Invalid first run", Integer.valueOf(3 * PageUploader.PAGE_SIZE), blob.writes.get(0L));
+        assertArrayEquals("The blob does not match the file", content, blob.content);
+    }
+
+    @Test
+    public void runsShouldBeSplitAtChunks() throws Exception {
+        byte[] content = createContent(8 * PageUploader.PAGE_SIZE, 0, 1, 2, 3, 4, 5, 6, 7);
+        FakePageBlob blob = new FakePageBlob(content.length);
+
+        long written = new PageUploader(blob, 2, 4 * PageUploader.PAGE_SIZE).upload(input.getChannel(), content.length);
+
+        assertEquals("Invalid number of bytes written", content.length, written);
+        assertEquals("Writes should not exceed a chunk", 2, blob.writes.size());
+        assertArrayEquals("The blob does not match the file", content, blob.content);
+    }
+
+    @Test
+    public void emptyFilesShouldWriteNothing() throws Exception {
+        byte[] content = createContent(32 * PageUploader.PAGE_SIZE);
+        FakePageBlob blob = new FakePageBlob(content.length);
+
+        assertEquals("An empty disk should not be written", 0L, new PageUploader(blob, 4, 1024).upload(input.getChannel(), content.length));
+        assertTrue("Pages were written", blob.writes.isEmpty());
+    }
+
+    @Test
+    public void partialPagesShouldBeRejected() throws Exception {
+        createContent(PageUploader.PAGE_SIZE + 1);
+        try {
+            new PageUploader(new FakePageBlob(PageUploader.PAGE_SIZE + 1), 4, 1024).upload(input.getChannel(), PageUploader.PAGE_SIZE + 1);
+            fail("A file that is not a whole number of pages was uploaded");
+        }
+        catch( InternalException expected ) {
+            // expected
+        }
+    }
+
+    @Test
+    public void failedWritesShouldFailTheUpload() throws Exception {
+        byte[] content = createContent(64 * PageUploader.PAGE_SIZE, 5, 40);
+        FakePageBlob blob = new FakePageBlob(content.length);
+
+        blob.failingOffset = 40 * PageUploader.PAGE_SIZE;
+        try {
+            new PageUploader(blob, 4, 8 * PageUploader.PAGE_SIZE).upload(input.getChannel(), content.length);
+            fail("The failed write was not reported");
+        }
+        catch( CloudException expected ) {
+            // expected
+        }
+    }
+}
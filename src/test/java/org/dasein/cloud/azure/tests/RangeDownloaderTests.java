@@ -0,0 +1,250 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.tests;
+
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.azure.Azure;
+import org.dasein.cloud.azure.AzureRetryPolicy;
+import org.dasein.cloud.azure.storage.ContentMD5;
+import org.dasein.cloud.azure.storage.RangeDownloader;
+import org.dasein.cloud.storage.FileTransfer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RangeDownloaderTests {
+    /**
+     * Serves ranges of a blob held in memory, failing the range at one offset if asked to.
+     */
+    private class FakeBlob implements RangeDownloader.Source {
+        private byte[]          content;
+        private ConcurrentCalls calls = new ConcurrentCalls();
+
+        FakeBlob(@Nonnull byte[] content) {
+            this.content = content;
+        }
+
+        public @Nonnull InputStream getRange(long offset, long length) throws CloudException, InternalException {
+            calls.call(String.valueOf(offset));
+            return new ByteArrayInputStream(content, (int)offset, (int)length);
+        }
+    }
+
+    /**
+     * Serves ranges of a blob held in memory, spoiling the first request for the range at one offset: either the
+     * connection drops half way through the range or the range arrives corrupt and fails its MD5 check.
+     */
+    private class FlakyBlob implements RangeDownloader.Source {
+        private byte[]        content;
+        private long          flakyOffset;
+        private boolean       corrupt;
+        private AtomicBoolean spoiled  = new AtomicBoolean();
+        private List<Long>    requests = Collections.synchronizedList(new ArrayList<Long>());
+
+        FlakyBlob(@Nonnull byte[] content, long flakyOffset, boolean corrupt) {
+            this.content = content;
+            this.flakyOffset = flakyOffset;
+            this.corrupt = corrupt;
+        }
+
+        public @Nonnull InputStream getRange(long offset, long length) throws CloudException, InternalException {
+            requests.add(offset);
+            if( offset != flakyOffset || !spoiled.compareAndSet(false, true) ) {
+                return new ByteArrayInputStream(content, (int)offset, (int)length);
+            }
+            if( corrupt ) {
+                byte[] range = Arrays.copyOfRange(content, (int)offset, (int)(offset + length));
+                String contentMD5 = ContentMD5.of(ByteBuffer.wrap(range));
+
+                range[range.length / 2] ^= 0xFF;
+                return ContentMD5.verify(new ByteArrayInputStream(range), length, contentMD5, "the range at " + offset);
+            }
+            return new SequenceInputStream(new ByteArrayInputStream(content, (int)offset, (int)(length / 2)), new InputStream() {
+                @Override
+                public int read() throws IOException {
+                    throw new IOException("Connection reset");
+                }
+            });
+        }
+    }
+
+    private File             file;
+    private RandomAccessFile output;
+
+    @Before
+    public void setUp() throws IOException {
+        file = TestHelpers.createTempFile(".blob");
+        output = new RandomAccessFile(file, "rw");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        output.close();
+        TestHelpers.delete(file);
+    }
+
+    /**
+     * @return a provider without a context whose retry policy waits no more than a few milliseconds between attempts
+     */
+    private Azure createProvider() {
+        return new Azure() {
+            @Override
+            public long getLongProperty(@Nonnull String name, long defaultValue) {
+                return (name.equals(AzureRetryPolicy.RETRY_BASE_DELAY) ? 1L : defaultValue);
+            }
+        };
+    }
+
+    private byte[] readFile() throws IOException {
+        byte[] bytes = new byte[(int)output.length()];
+
+        output.seek(0L);
+        output.readFully(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void rangesShouldBeWrittenAtTheirOffsets() throws Exception {
+        byte[] content = TestHelpers.createContent(10 * 1024 + 17);
+        FileTransfer transfer = new FileTransfer();
+
+        long downloaded = new RangeDownloader(new FakeBlob(content), 4, 1024).download(output.getChannel(), content.length, transfer);
+
+        assertEquals("Invalid number of bytes downloaded", content.length, downloaded);
+        assertEquals("Invalid progress", content.length, transfer.getBytesTransferred());
+        assertArrayEquals("The file does not match the blob", content, readFile());
+    }
+
+    @Test
+    public void rangesShouldBeFetchedConcurrently() throws Exception {
+        byte[] content = TestHelpers.createContent(32 * 1024);
+        FakeBlob blob = new FakeBlob(content);
+
+        new RangeDownloader(blob, 4, 1024).download(output.getChannel(), content.length, null);
+        assertTrue("Ranges were fetched one at a time", blob.calls.getMaxInFlight() > 1);
+        assertTrue("Too many ranges were in flight", blob.calls.getMaxInFlight() <= 4);
+    }
+
+    @Test
+    public void smallBlobsShouldNotBeRanged() {
+        RangeDownloader downloader = new RangeDownloader(new FakeBlob(new byte[0]), 4, 1024);
+
+        assertFalse("A single part should not be ranged", downloader.isRanged(1024));
+        assertTrue("Several parts should be ranged", downloader.isRanged(1025));
+        assertFalse("A single thread should not be ranged", new RangeDownloader(new FakeBlob(new byte[0]), 1, 1024).isRanged(1025));
+    }
+
+    @Test
+    public void partsShouldNotExceedTheCheckedRangeSize() {
+        RangeDownloader downloader = new RangeDownloader(new FakeBlob(new byte[0]), 4, 64L * 1024L * 1024L);
+
+        assertEquals("Invalid part size", RangeDownloader.MAX_PART_SIZE, downloader.getPartSize());
+    }
+
+    @Test
+    public void failedRangesShouldFailTheDownload() throws Exception {
+        byte[] content = TestHelpers.createContent(64 * 1024);
+        FakeBlob blob = new FakeBlob(content);
+
+        blob.calls.setFailing(String.valueOf(3 * 1024));
+        try {
+            new RangeDownloader(blob, 4, 1024).download(output.getChannel(), content.length, null);
+            fail("The failed range was not reported");
+        }
+        catch( CloudException expected ) {
+            // expected
+        }
+    }
+
+    @Test
+    public void checkpointedRangesShouldBeSkipped() throws Exception {
+        byte[] content = TestHelpers.createContent(8 * 1024);
+        final Set<Long> done = Collections.synchronizedSet(new HashSet<Long>());
+        FileTransfer transfer = new FileTransfer();
+        FakeBlob blob = new FakeBlob(content);
+
+        output.write(content, 0, 2048);
+        done.add(0L);
+        done.add(1L);
+        blob.calls.setFailing("0"); // the skipped ranges must not be requested
+
+        RangeDownloader downloader = new RangeDownloader(blob, 4, 1024);
+
+        downloader.setCheckpoint(new RangeDownloader.Checkpoint() {
+            public boolean isDone(long part) {
+                return done.contains(part);
+            }
+
+            public void done(long part) {
+                done.add(part);
+            }
+        });
+        downloader.download(output.getChannel(), content.length, transfer);
+        assertEquals("Written ranges were not recorded", 8, done.size());
+        assertEquals("Skipped ranges should count as transferred", content.length, transfer.getBytesTransferred());
+        assertArrayEquals("The file does not match the blob", content, readFile());
+    }
+
+    @Test
+    public void droppedRangesShouldResumeFromTheFirstUnwrittenByte() throws Exception {
+        byte[] content = TestHelpers.createContent(8 * 1024);
+        FileTransfer transfer = new FileTransfer();
+        FlakyBlob blob = new FlakyBlob(content, 3 * 1024, false);
+
+        new RangeDownloader(createProvider(), blob, 4, 1024).download(output.getChannel(), content.length, transfer);
+        assertTrue("The dropped range was not resumed where it broke off", blob.requests.contains(3L * 1024L + 512L));
+        assertEquals("Invalid progress", content.length, transfer.getBytesTransferred());
+        assertArrayEquals("The file does not match the blob", content, readFile());
+    }
+
+    @Test
+    public void corruptRangesShouldBeFetchedAgainInFull() throws Exception {
+        byte[] content = TestHelpers.createContent(8 * 1024);
+        FileTransfer transfer = new FileTransfer();
+        FlakyBlob blob = new FlakyBlob(content, 3 * 1024, true);
+
+        new RangeDownloader(createProvider(), blob, 4, 1024).download(output.getChannel(), content.length, transfer);
+        assertEquals("The corrupt range was not fetched again in full", 2, Collections.frequency(blob.requests, 3L * 1024L));
+        assertEquals("Invalid progress", content.length, transfer.getBytesTransferred());
+        assertArrayEquals("The file does not match the blob", content, readFile());
+    }
+}
@@ -23,6 +23,7 @@ import org.w3c.dom.Document;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.*;
+import java.util.Random;
 
 /**
  * Created by Vlad_Munthiu on 6/6/2014.
@@ -69,4 +70,87 @@ public class TestHelpers {
     public static String getStringXmlRequestAsSingleLine(String requestPath){
         return getStringXmlRequest(requestPath).replaceAll("\n|\r", "");
     }
+
+    /**
+     * Creates the content the transfer tests move around, the same for a given size on every run.
+     * @param size the number of bytes
+     * @return the pseudo-random content
+     */
+    public static byte[] createContent(int size) {
+        byte[] content = new byte[size];
+
+        new Random(42L).nextBytes(content);
+        return content;
+    }
+
+    /**
+     * Creates an empty temporary file, which is removed when the tests end if the test does not delete it first.
+     * @param suffix the suffix of the file name
+     * @return the file
+     */
+    public static File createTempFile(String suffix) throws IOException {
+        File file = File.createTempFile("dsn", suffix);
+
+        file.deleteOnExit();
+        return file;
+    }
+
+    /**
+     * Creates a temporary file holding some content, which is removed like one from {@link #createTempFile(String)}.
+     * @param suffix the suffix of the file name
+     * @param content the content of the file
+     * @return the file
+     */
+    public static File createTempFile(String suffix, byte[] content) throws IOException {
+        File file = createTempFile(suffix);
+
+        writeFile(file, content);
+        return file;
+    }
+
+    /**
+     * Creates an empty temporary directory, to be removed with {@link #delete(File)}.
+     * @param suffix the suffix of the directory name
+     * @return the directory
+     */
+    public static File createTempDirectory(String suffix) throws IOException {
+        File directory = File.createTempFile("dsn", suffix);
+
+        if( !directory.delete() || !directory.mkdirs() ) {
+            throw new IOException("Unable to create " + directory);
+        }
+        return directory;
+    }
+
+    /**
+     * Replaces the content of a file.
+     * @param file the file to write
+     * @param content the new content of the file
+     */
+    public static void writeFile(File file, byte[] content) throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+
+        try {
+            output.write(content);
+        }
+        finally {
+            output.close();
+        }
+    }
+
+    /**
+     * Deletes a temporary file, or a temporary directory along with everything in it.
+     * @param file the file or directory to delete
+     */
+    public static void delete(File file) {
+        File[] children = file.listFiles();
+
+        if( children != null ) {
+            for( File child : children ) {
+                delete(child);
+            }
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
 }
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.tests;
+
+import org.dasein.cloud.azure.storage.TransferJournal;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TransferJournalTests {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("dsn", ".vhd");
+    }
+
+    @After
+    public void tearDown() {
+        //noinspection ResultOfMethodCallIgnored
+        TransferJournal.getJournalFile(file).delete();
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+
+    private Map<String,String> getIdentity(String etag) {
+        TreeMap<String,String> identity = new TreeMap<String, String>();
+
+        identity.put("type", "upload");
+        identity.put("blob", "vhds/dsn.vhd");
+        identity.put("length", "1073741824");
+        identity.put("etag", etag);
+        return identity;
+    }
+
+    @Test
+    public void completedPartsShouldSurviveReopening() throws Exception {
+        TransferJournal journal = TransferJournal.open(file, getIdentity("0x8D1"));
+
+        assertFalse("A new journal should not be resumed", journal.isResumed());
+        journal.done("MDAwMDAwMDA=");
+        journal.done(7L);
+        journal.close();
+
+        journal = TransferJournal.open(file, getIdentity("0x8D1"));
+        assertTrue("The journal was not resumed", journal.isResumed());
+        assertTrue("A completed block was lost", journal.isDone("MDAwMDAwMDA="));
+        assertTrue("A completed range was lost", journal.isDone(7L));
+        assertFalse("An incomplete range was recorded", journal.isDone(8L));
+        assertEquals("Invalid identity", "0x8D1", journal.get("etag"));
+        journal.close();
+    }
+
+    @Test
+    public void differentTransfersShouldStartOver() throws Exception {
+        TransferJournal journal = TransferJournal.open(file, getIdentity("0x8D1"));
+
+        journal.done(1L);
+        journal.close();
+
+        journal = TransferJournal.open(file, getIdentity("0x8D2"));
+        assertFalse("A journal for another version of the blob was resumed", journal.isResumed());
+        assertFalse("Parts of another transfer were reused", journal.isDone(1L));
+        journal.close();
+    }
+
+    @Test
+    public void truncatedLinesShouldBeIgnored() throws Exception {
+        TransferJournal journal = TransferJournal.open(file, getIdentity("0x8D1"));
+
+        journal.done(1L);
+        journal.close();
+
+        FileOutputStream output = new FileOutputStream(TransferJournal.getJournalFile(file), true);
+
+        try {
+            output.write("do".getBytes("UTF-8"));
+        }
+        finally {
+            output.close();
+        }
+        journal = TransferJournal.open(file, getIdentity("0x8D1"));
+        assertTrue("The journal was not resumed", journal.isResumed());
+        assertTrue("A completed range was lost", journal.isDone(1L));
+        journal.close();
+    }
+
+    @Test
+    public void deletedJournalsShouldNotBeResumed() throws Exception {
+        TransferJournal journal = TransferJournal.open(file, getIdentity("0x8D1"));
+
+        journal.done(1L);
+        journal.delete();
+        assertFalse("The journal was not removed", TransferJournal.getJournalFile(file).exists());
+        journal = TransferJournal.open(file, getIdentity("0x8D1"));
+        assertFalse("A deleted journal was resumed", journal.isResumed());
+        journal.close();
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.tests.benchmarks;
+
+import org.dasein.cloud.azure.AzureJAXBRegistry;
+import org.dasein.cloud.azure.compute.image.model.OSImagesModel;
+import org.dasein.cloud.azure.compute.image.model.VMImagesModel;
+import org.dasein.cloud.azure.compute.vm.model.DeploymentModel;
+import org.dasein.cloud.azure.compute.vm.model.Operation;
+import org.dasein.cloud.azure.network.model.DefinitionModel;
+import org.dasein.cloud.azure.network.model.ProfileModel;
+import org.dasein.cloud.azure.tests.TestHelpers;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-call cost of binding an Azure response and request the way {@link org.dasein.cloud.azure.AzureMethod} used
+ * to (a new JAXB context for every call) against the shared {@link AzureJAXBRegistry}, for each model named by
+ * {@link #model} with its fixture in <code>xmlResponses</code>. Run it from the test classpath with
+ * <code>main()</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class JAXBRegistryBenchmark {
+    static private final Map<String,Class<?>> models   = new HashMap<String, Class<?>>();
+    static private final Map<String,String>   fixtures = new HashMap<String, String>();
+
+    static {
+        register(DeploymentModel.class, "HostedService-Deployment.xml");
+        register(OSImagesModel.class, "OSImages.xml");
+        register(VMImagesModel.class, "VMImages.xml");
+        register(ProfileModel.class, "Profile.xml");
+        register(DefinitionModel.class, "Definition.xml");
+        register(Operation.ShutdownRoleOperation.class, "ShutdownRoleOperation.xml");
+    }
+
+    static private void register(Class<?> type, String fixture) {
+        models.put(type.getSimpleName(), type);
+        fixtures.put(type.getSimpleName(), "/xmlResponses/" + fixture);
+    }
+
+    @Param({"DeploymentModel", "OSImagesModel", "VMImagesModel", "ProfileModel", "DefinitionModel", "ShutdownRoleOperation"})
+    public String model;
+
+    private Class<?> type;
+    private byte[]   response;
+    private Object   request;
+
+    @Setup
+    public void setUp() throws UnsupportedEncodingException, JAXBException {
+        type = models.get(model);
+        response = TestHelpers.getStringXmlRequest(fixtures.get(model)).getBytes("utf-8");
+        request = unmarshalWithRegistry();
+    }
+
+    @Benchmark
+    public Object unmarshalWithNewContext() throws JAXBException {
+        JAXBContext context = JAXBContext.newInstance(type);
+
+        return context.createUnmarshaller().unmarshal(new ByteArrayInputStream(response));
+    }
+
+    @Benchmark
+    public Object unmarshalWithRegistry() throws JAXBException {
+        return AzureJAXBRegistry.getUnmarshaller(type).unmarshal(new ByteArrayInputStream(response));
+    }
+
+    @Benchmark
+    public String marshalWithNewContext() throws JAXBException {
+        StringWriter writer = new StringWriter();
+        Marshaller m = JAXBContext.newInstance(type).createMarshaller();
+
+        m.marshal(request, writer);
+        return writer.toString();
+    }
+
+    @Benchmark
+    public String marshalWithRegistry() throws JAXBException {
+        StringWriter writer = new StringWriter();
+
+        AzureJAXBRegistry.getMarshaller(type).marshal(request, writer);
+        return writer.toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder().include(JAXBRegistryBenchmark.class.getSimpleName()).build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.tests.benchmarks;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.http.Header;
+import org.apache.http.client.methods.HttpPut;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.azure.AzureSharedKeySigner;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of signing a block upload the way {@link org.dasein.cloud.azure.AzureStorageMethod} used to (decode
+ * the key, create and initialize a new <code>Mac</code>, canonicalize with a <code>TreeSet</code> and
+ * <code>replaceAll</code>) against {@link AzureSharedKeySigner}. Run it from the test classpath with
+ * <code>main()</code>.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class SharedKeySignerBenchmark {
+    static private final String ACCOUNT = "portalvhdsm4qd6c2dvcftf";
+
+    private byte[]             encodedKey;
+    private byte[]             key;
+    private HttpPut            method;
+    private Map<String,String> queryParams;
+
+    @Setup
+    public void setUp() {
+        encodedKey = "ZGFzZWluLWNsb3VkLWF6dXJlLXNoYXJlZC1rZXktc2lnbmVyLXRlc3Qta2V5".getBytes();
+        key = Base64.decodeBase64(encodedKey);
+        method = new HttpPut("https://" + ACCOUNT + ".blob.core.windows.net/vhds/disk.vhd?comp=block&blockid=MDAwMDAwMDAwMDAwMDAwMDAwMDAwMDAwMDAwMDAwMDE=");
+        method.addHeader("x-ms-version", "2009-09-19");
+        method.addHeader("x-ms-date", "Mon, 01 Jun 2015 10:00:00 GMT");
+        method.addHeader("Date", "Mon, 01 Jun 2015 10:00:00 GMT");
+        method.addHeader("content-type", "application/octet-stream");
+        queryParams = new HashMap<String, String>();
+        queryParams.put("comp", "block");
+        queryParams.put("blockid", "MDAwMDAwMDAwMDAwMDAwMDAwMDAwMDAwMDAwMDAwMDE=");
+    }
+
+    @Benchmark
+    public String signWithNewMac() throws Exception {
+        StringBuilder stringToSign = new StringBuilder();
+
+        stringToSign.append(method.getMethod().toUpperCase()).append("\n");
+        stringToSign.append("\n");
+        stringToSign.append(method.getFirstHeader("content-type").getValue()).append("\n");
+        stringToSign.append(method.getFirstHeader("date").getValue()).append("\n");
+
+        TreeSet<String> keys = new TreeSet<String>();
+
+        for( Header header : method.getAllHeaders() ) {
+            if( header.getName().startsWith("x-ms-") ) {
+                keys.add(header.getName().toLowerCase());
+            }
+        }
+        for( String name : keys ) {
+            stringToSign.append(name.toLowerCase().trim()).append(":");
+            for( Header current : method.getHeaders(name) ) {
+                stringToSign.append(current.getValue().trim().replaceAll("\n", " ")).append(",");
+            }
+            stringToSign.deleteCharAt(stringToSign.lastIndexOf(","));
+            stringToSign.append("\n");
+        }
+        stringToSign.append("/").append(ACCOUNT).append(method.getURI().getPath());
+        stringToSign.append("?comp=").append(queryParams.get("comp"));
+
+        Mac mac = Mac.getInstance("HmacSHA256");
+
+        mac.init(new SecretKeySpec(Base64.decodeBase64(encodedKey), "HmacSHA256"));
+        return new String(Base64.encodeBase64(mac.doFinal(stringToSign.toString().getBytes("UTF-8"))));
+    }
+
+    @Benchmark
+    public String signWithSigner() throws InternalException {
+        return AzureSharedKeySigner.sign(key, AzureSharedKeySigner.getStringToSign(method, method.getURI().getPath(), ACCOUNT, queryParams));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder().include(SharedKeySignerBenchmark.class.getSimpleName()).build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2013-2015 Dell, Inc
+ *
+ * ====================================================================
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * ====================================================================
+ */
+
+package org.dasein.cloud.azure.tests.compute.vm;
+
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import org.dasein.cloud.CloudException;
+import org.dasein.cloud.InternalException;
+import org.dasein.cloud.ProviderContext;
+import org.dasein.cloud.ResourceStatus;
+import org.dasein.cloud.azure.compute.vm.HostedServiceParser;
+import org.dasein.cloud.compute.VirtualMachine;
+import org.dasein.cloud.compute.VmState;
+import org.junit.Test;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class HostedServiceParserTest {
+    @Mocked ProviderContext providerContextMock;
+
+    final String ACCOUNT_NO = "12323232323";
+    final String REGION = "East US";
+
+    @Test
+    public void parseHostedServicesShouldReturnEveryService() throws CloudException, InternalException {
+        final List<HostedServiceParser.HostedService> services = new ArrayList<HostedServiceParser.HostedService>();
+
+        new HostedServiceParser().parseHostedServices(getClass().getResourceAsStream("/xmlResponses/HostedServices.xml"), new HostedServiceParser.Listener<HostedServiceParser.HostedService>() {
+            public void parsed(@Nonnull HostedServiceParser.HostedService item) {
+                services.add(item);
+            }
+        });
+
+        assertEquals("Invalid number of hosted services", 3, services.size());
+        assertEquals("Invalid service name", "agentser", services.get(0).serviceName);
+        assertEquals("Invalid affinity group", "EnstratiusAffinity", services.get(0).affinityGroup);
+        assertEquals("Invalid creation date", "2013-09-06T13:13:17Z", services.get(0).dateCreated);
+        assertNull("Location should not be set", services.get(0).location);
+        assertEquals("Invalid service name", "sm-test", services.get(2).serviceName);
+    }
+
+    @Test
+    public void parseDeploymentsShouldReturnRolesAndStatus() throws CloudException, InternalException {
+        final List<HostedServiceParser.Deployment> deployments = new ArrayList<HostedServiceParser.Deployment>();
+
+        new NonStrictExpectations() {
+            { providerContextMock.getAccountNumber(); result = ACCOUNT_NO; }
+        };
+
+        new HostedServiceParser().parseDeployments(getClass().getResourceAsStream("/xmlResponses/HostedService-Details.xml"), new HostedServiceParser.Listener<HostedServiceParser.Deployment>() {
+            public void parsed(@Nonnull HostedServiceParser.Deployment item) {
+                deployments.add(item);
+            }
+        });
+
+        assertEquals("Invalid number of deployments", 1, deployments.size());
+
+        HostedServiceParser.Deployment deployment = deployments.get(0);
+
+        assertEquals("Invalid deployment name", "slav-test1", deployment.name);
+        assertEquals("Invalid deployment slot", "Production", deployment.deploymentSlot);
+        assertEquals("Invalid DNS name", "slav-test1.cloudapp.net", deployment.dnsName);
+        assertEquals("Invalid image", "b4590d9e3ed742e4a1d46e5424aa335e__openSUSE-12.3-v120", deployment.imageId);
+        assertEquals("Invalid role name", "slav-test1", deployment.vmRoleName);
+        assertFalse("Deployment should not be locked", deployment.locked);
+
+        List<VirtualMachine> vms = deployment.toVirtualMachines(providerContextMock, REGION, "svctest1425:slav-test1");
+
+        assertEquals("Invalid number of virtual machines", 1, vms.size());
+        assertEquals("Invalid virtual machine id", "svctest1425:slav-test1:slav-test1", vms.get(0).getProviderVirtualMachineId());
+        assertEquals("Invalid product", "ExtraSmall", vms.get(0).getProductId());
+        assertEquals("Invalid state", VmState.RUNNING, vms.get(0).getCurrentState());
+        assertEquals("Invalid public address", "137.116.245.80", vms.get(0).getPublicAddresses()[0].getIpAddress());
+        assertEquals("Invalid private address", "100.86.192.43", vms.get(0).getPrivateAddresses()[0].getIpAddress());
+
+        List<ResourceStatus> status = deployment.toStatus("svctest1425:slav-test1");
+
+        assertEquals("Invalid number of statuses", 1, status.size());
+        assertEquals("Invalid status id", "svctest1425:slav-test1:slav-test1", status.get(0).getProviderResourceId());
+    }
+}